@@ -9,7 +9,9 @@
 # a specified output port over intervals of time.
 # By default, all metrics are captures, but caller
 # can specify filters to reduce size of metric
-# info collected.
+# info collected.  The filters are also handed to
+# streamsManagement so only matching metrics are
+# retrieved from the JMX server each interval.
 
 
 use strict;
@@ -155,6 +157,15 @@ sub main() {
     die "Unable to create stopFile $stopFile" if $rc;
   }
   
+  # Only retrieve the metrics we are going to report
+  my ($rc, $output) = streamsManagement::setMetricFilters(peFilter => $peFilter,
+                                                          operatorFilter => $operatorFilter,
+                                                          metricFilter => $metricFilter);
+  if ($rc) {
+    print("Error: $output\n");
+    return($rc);
+  }
+  
   print("Retrieving data for job $jobId every $interval seconds.\n");
   print("Run the following command from another session to halt this program:\n");
   print("   rm $stopFile\n");
@@ -194,6 +205,7 @@ sub captureMetrics($$$$$$$$$) {
   
       # PE Metrics
       my ($rc, $peMetricNames) = streamsManagement::getPEMetricNames($domain, $instance, $jobId, $nextPE);
+      $peMetricNames = [] if $rc;  # no metrics passed the filters
       foreach my $nextMetricName (@$peMetricNames) {
         if (checkForPatternMatch($metricFilter, $nextMetricName)) {
           my $metricString = "PE,$nextPE,$nextMetricName";
@@ -210,6 +222,7 @@ sub captureMetrics($$$$$$$$$) {
       
           # get Operator Metrics
           my ($rc, $opMetricNames) = streamsManagement::getOperatorMetricNames($domain, $instance, $jobId, $nextOperator);
+          next if $rc;  # no metrics passed the filters
           foreach my $nextMetricName (@$opMetricNames) {
             if (checkForPatternMatch($metricFilter, $nextMetricName)) {
               my $metricString = "Operator,$nextPE,$nextOperator,$nextMetricName";
@@ -223,6 +236,7 @@ sub captureMetrics($$$$$$$$$) {
           foreach my $nextInputPort (@$inputPorts) {
       
             my ($rc, $inPortMetricNames) = streamsManagement::getOperatorInputPortMetricNames($domain, $instance, $jobId, $nextOperator, $nextInputPort);
+            next if $rc;
             foreach my $nextInPortMetricName (@$inPortMetricNames) {
               if (checkForPatternMatch($metricFilter, $nextInPortMetricName)) {
                 my $metricString = "InputPort,$nextPE,$nextOperator,$nextInputPort,$nextInPortMetricName";
@@ -237,6 +251,7 @@ sub captureMetrics($$$$$$$$$) {
           foreach my $nextOutputPort (@$outputPorts) {
       
             my ($rc, $outPortMetricNames) = streamsManagement::getOperatorOutputPortMetricNames($domain, $instance, $jobId, $nextOperator, $nextOutputPort);
+            next if $rc;
             foreach my $nextOutPortMetricName (@$outPortMetricNames) {
               if (checkForPatternMatch($metricFilter, $nextOutPortMetricName)) {
                 my $metricString = "OutputPort,$nextPE,$nextOperator,$nextOutputPort,$nextOutPortMetricName";
@@ -133,6 +133,9 @@ sub main() {
     print("Cancelling unhealthy job...\n");
     ($rc, $output) = streamsManagement::cancelJob($domain, $instance, $jobId);
     if ($rc) { print("Error cancelling job $jobId:  $output\n"); return(1); }
+    ($rc, $output) = streamsManagement::waitForJob($domain, $instance, $jobId, "jobGone", 120);
+    if ($rc) { print("Error waiting for job $jobId to end:  $output\n"); return(1); }
+    if (!$output) { print("Job $jobId has not ended after 120 seconds.\n"); return(1); }
     $jobId = -1;
   }
   
@@ -142,6 +145,11 @@ sub main() {
     ($rc, $output) = streamsManagement::submitJob($domain, $instance, $bundle, $jobParms, undef, $jobName);
     if ($rc) { print("Error submitting job:  $output\n"); return(1); }
     print("Submitted job $output\n");
+    $jobId = $output;
+    ($rc, $output) = streamsManagement::waitForJob($domain, $instance, $jobId, "allPEsRunning", 300);
+    if ($rc) { print("Error waiting for job $jobId to start:  $output\n"); return(1); }
+    if (!$output) { print("Not all PEs of job $jobId are running after 300 seconds.\n"); return(1); }
+    print("All PEs of job $jobId are running\n");
   }
   else {
     print("Job with name $jobName already running.  Job ID = $jobId\n");
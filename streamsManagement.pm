@@ -17,10 +17,25 @@ package streamsManagement;
 # Globals
 ############
 use File::Basename;
+use IPC::Open2;
+use Text::ParseWords;
 my $thisDir = dirname(__FILE__);
 my $zk;
 
+# Long running java server (see _javaManagement)
+my $_serverPid;
+my $_serverOwner;
+my $_serverIn;
+my $_serverOut;
+my $_serverRequestId = 0;
+
 my %_cache = ();
+my $_parallelism = 1;
+my %_metricFilters = ();
+my $_applicationCache;
+my %_metricsDeltaSequences = ();
+my $_collectStats = 0;
+my $_lastStats;
 
 
 #######################################
@@ -125,7 +140,7 @@ sub loadSingleJobCache($$$) {
   my ($rc, $msg) = _checkConnInfo();
   return($rc, $msg) if $rc;  
   
-  my $parms = "getSingleJobInfo -domain $domainName -instance $instanceName -job $jobId";
+  my $parms = "getSingleJobInfo -domain $domainName -instance $instanceName -job $jobId -nativeJson -index" . _metricFilterParms();
   my ($rc,$output) = _javaManagement($parms);
   if ($rc) {
     return(1, $output);
@@ -150,48 +165,603 @@ sub loadSingleJobCache($$$) {
 # Parms:
 #
 #   domainName - name of the domain
-#   instanceName - name of instance
+#   instanceName - name of instance
+#
+# Returns:
+#    return code
+#    error message (if return code is not 0)
+#
+#######################################
+sub loadAllJobsCache($$) {
+  my ($domainName, $instanceName) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $parms = "getAllJobInfo -domain $domainName -instance $instanceName -nativeJson -index" . _metricFilterParms();
+  if ($_parallelism > 1) {
+    $parms = "$parms -parallel $_parallelism";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  _addToDomainCache($domainName, $decodedJson);
+  _addToInstanceCache($domainName, $instanceName, $decodedJson);
+  _addToJobCache($domainName, $instanceName, $decodedJson);
+    
+  return(0, undef);
+}
+
+#######################################
+# collectTargets
+#
+# Loads the caches for many domains and
+# instances with one call.  The java process
+# makes one connection per domain and reads
+# the targets concurrently.  Every target that
+# names an instance has its domain, instance and
+# job caches loaded as by loadAllJobsCache;
+# others only their domain cache.
+#
+# Parms:
+#
+#   targets - reference to an array of hashes with
+#      domain - name of the domain
+#      instance - name of the instance.  Optional.
+#      zkconnect - zookeeper connect string.
+#         Optional, default is the one in use.
+#
+# Returns:
+#    return code
+#    reference to a hash (if return code is 0) with
+#        collected - number of targets loaded
+#        failed - number of targets that failed
+#        millis - elapsed time of the call
+#        targets - array of hashes in targets order
+#           with zkconnect, domain, instance, rc,
+#           millis, connectMillis (rc 0) and error
+#           (rc not 0)
+#    error message (if return code is not 0)
+#
+#######################################
+sub collectTargets($) {
+  my ($targets) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $parms = "collect -targets " . _quoteParm(JSON::encode_json($targets)) . " -nativeJson -index" . _metricFilterParms();
+  if ($_parallelism > 1) {
+    $parms = "$parms -parallel $_parallelism";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  foreach my $target (@{$$decodedJson{targets}}) {
+    my $info = delete($$target{info});
+    next if ($$target{rc});
+    _addToDomainCache($$target{domain}, $info);
+    if (defined($$target{instance})) {
+      _addToInstanceCache($$target{domain}, $$target{instance}, $info);
+      _addToJobCache($$target{domain}, $$target{instance}, $info);
+    }
+  }
+    
+  return(0, $decodedJson);
+}
+
+#######################################
+# clearCache
+#
+# Clear entire cache
+#
+# Parms:
+#
+#   none
+#
+# Returns:
+#    none
+#
+#######################################
+sub clearCache() {
+  %_cache = ();
+}
+
+
+#######################################
+# setParallelism
+#
+# Sets how many jobs are fetched concurrently
+# when all jobs in an instance are loaded
+# (loadAllJobsCache).
+#
+# Parms:
+#
+#   parallelism - number of concurrent fetches.
+#      1 = fetch one job at a time (default)
+#
+# Returns:
+#    return code
+#    error message (if return code is not 0)
+#
+#######################################
+sub setParallelism($) {
+  my ($parallelism) = (@_);
+  
+  if ((!defined($parallelism)) || ($parallelism !~ /^\d+$/) || ($parallelism < 1)) {
+    return(1, "Parallelism must be a positive number");
+  }
+  $_parallelism = $parallelism;
+  return(0, undef);
+}
+
+
+#######################################
+# setApplicationCache
+#
+# Names a file where submitJob and submitJobs
+# keep the application id of each bundle they
+# deploy, keyed by the SHA-256 of the bundle.  An
+# unchanged bundle submitted again to the same
+# instance is then not deployed or uploaded.  If
+# the instance no longer has the application the
+# bundle is deployed as usual.
+#
+# Parms:
+#
+#   fileName - cache file.  undef (the default)
+#      deploys every submitted bundle.
+#
+# Returns:
+#    return code
+#    error message (if return code is not 0)
+#
+#######################################
+sub setApplicationCache($) {
+  my ($fileName) = (@_);
+  
+  if ((defined($fileName)) && (length($fileName) > 0)) {
+    $_applicationCache = $fileName;
+  }
+  else {
+    $_applicationCache = undef;
+  }
+  return(0, undef);
+}
+
+
+#######################################
+# setCollectStats
+#
+# Sets whether each call reports the counts and
+# latencies of the stages it went through in the
+# java code (JMX connect, job registration,
+# snapshot calls, HTTPS reads, serialization ...).
+# getLastStats returns those of the last call.
+#
+# Parms:
+#
+#   collect - 
+#      0 = no stats (default)
+#      1 = stats of each call
+#
+# Returns:
+#    return code
+#    error message (if return code is not 0)
+#
+#######################################
+sub setCollectStats($) {
+  my ($collect) = (@_);
+  
+  $_collectStats = $collect ? 1 : 0;
+  $_lastStats = undef;
+  return(0, undef);
+}
+
+
+#######################################
+# getLastStats
+#
+# Returns the stats of the last call made while
+# setCollectStats was on.
+#
+# Returns:
+#    return code
+#    reference to a hash of stats by operation
+#    name, each a hash with count, totalMillis,
+#    meanMillis, p50Millis, p90Millis, p99Millis
+#    and maxMillis (or error message if return
+#    code is not 0)
+#
+#######################################
+sub getLastStats() {
+  if (!defined($_lastStats)) {
+    return(1, "No stats were collected");
+  }
+  return(0, $_lastStats);
+}
+
+
+#######################################
+# getStats
+#
+# Returns the stats of every call made so far
+# through the long running java server (see
+# _javaManagement), in the form of getLastStats.
+# Without the server there are none.
+#
+# Parms:
+#
+#   reset - (optional) 1 to start the counts over
+#
+# Returns:
+#    return code
+#    reference to a hash of stats by operation
+#    (or error message if return code is not 0)
+#
+#######################################
+sub getStats(;$) {
+  my ($reset) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;
+  
+  my $parms = "getStats";
+  $parms .= " -reset" if $reset;
+  
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(-1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output); 
+     
+  return(0, $decodedJson);  
+}
+
+
+#######################################
+# setMetricFilters
+#
+# Limits the job metrics loaded into the job cache
+# (loadSingleJobCache, loadAllJobsCache and lookups
+# by job name) to the PEs, operators, operator ports
+# and metrics that match the given patterns.  The
+# filtering is done before the metrics leave the
+# java process.  Metrics that are filtered out are
+# not in the cache, so the metric routines report
+# them as missing.
+#
+# Parms:
+#
+#   filters - list of name => pattern pairs.  Names:
+#      peFilter, peExclude - PE ids
+#      operatorFilter, operatorExclude - operator names
+#      portFilter, portExclude - operator port indexes
+#      metricFilter, metricExclude - metric names
+#   A value is kept if it matches the Filter pattern
+#   (when given) and does not match the Exclude pattern
+#   (when given).  Patterns are regular expressions that
+#   may match any part of the value.  Call with no
+#   parms to remove all filters.
+#
+# Returns:
+#    return code
+#    error message (if return code is not 0)
+#
+#######################################
+sub setMetricFilters(@) {
+  my (%filters) = (@_);
+  
+  foreach my $name (keys(%filters)) {
+    if ($name !~ /^(pe|operator|port|metric)(Filter|Exclude)$/) {
+      return(1, "Unknown metric filter $name");
+    }
+  }
+  %_metricFilters = ();
+  foreach my $name (keys(%filters)) {
+    if ((defined($filters{$name})) && (length($filters{$name}) > 0)) {
+      $_metricFilters{$name} = $filters{$name};
+    }
+  }
+  return(0, undef);
+}
+
+
+#######################################
+# recordJobMetrics
+#
+# Reads the current metrics of a job and adds
+# them to the job's metric history, which is kept
+# by the long running java process (see
+# _javaManagement).  Metrics read by the job cache
+# load routines are recorded as well, so this is
+# only needed to record without loading the cache.
+# Only metrics that pass the filters given to
+# setMetricFilters are recorded.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   jobId  - job ID
+#
+# Returns:
+#    return code
+#    number of samples added (if return code is 0)
+#    error message (if return code is not 0)
+#
+#######################################
+sub recordJobMetrics($$$) {
+  my ($domainName, $instanceName, $jobId) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $parms = "recordMetrics -domain $domainName -instance $instanceName -job $jobId" . _metricFilterParms();
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $$decodedJson{samplesAdded});
+}
+
+
+#######################################
+# getJobMetricHistory
+#
+# Retrieves the recorded metrics of a job (see
+# recordJobMetrics).  Only metrics that pass the
+# filters given to setMetricFilters are returned.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   jobId  - job ID
+#   samples(optional) - number of most recent samples
+#      to return for each metric.  Default is all.
+#   window(optional) - seconds of history that rate,
+#      min, max and avg are computed over.  Default
+#      is all.
+#
+# Returns:
+#    return code
+#    reference to array of hashes, one per metric
+#        (if return code is 0).  Each hash has
+#        pe, operator (operator metrics),
+#        inputPort or outputPort (port metrics),
+#        metric, samples (array of [time, value]),
+#        rate (per second), min, max and avg.
+#    error message (if return code is not 0)
+#
+#######################################
+sub getJobMetricHistory($$$;$$) {
+  my ($domainName, $instanceName, $jobId, $samples, $window) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $parms = "getMetricHistory -domain $domainName -instance $instanceName -job $jobId" . _metricFilterParms();
+  if (defined($samples)) {
+    $parms = "$parms -samples $samples";
+  }
+  if (defined($window)) {
+    $parms = "$parms -window $window";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $$decodedJson{series});
+}
+
+
+#######################################
+# getJobMetricsDelta
+#
+# Retrieves the metrics of a job that changed
+# since the previous call for the same job.  The
+# first call, and any call after a response was
+# missed or the java process was restarted,
+# returns every metric with full set to 1; callers
+# should then drop what they kept from earlier
+# calls.  Only metrics that pass the filters given
+# to setMetricFilters are returned.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   jobId  - job ID
+#
+# Returns:
+#    return code
+#    reference to a hash (if return code is 0) with
+#        full - 1 if every metric is included
+#        metrics - array of hashes, one per changed
+#           metric, with pe, operator (operator metrics),
+#           inputPort or outputPort (port metrics),
+#           metric, value and time
+#        removed - array of hashes naming the metrics
+#           that are no longer in the job
+#    error message (if return code is not 0)
+#
+#######################################
+sub getJobMetricsDelta($$$) {
+  my ($domainName, $instanceName, $jobId) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $jobKey = "$domainName/$instanceName/$jobId";
+  my $parms = "getMetricsDelta -domain $domainName -instance $instanceName -job $jobId" . _metricFilterParms();
+  if (defined($_metricsDeltaSequences{$jobKey})) {
+    $parms = "$parms -since $_metricsDeltaSequences{$jobKey}";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    delete($_metricsDeltaSequences{$jobKey});
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  $_metricsDeltaSequences{$jobKey} = $$decodedJson{sequence};
+  $$decodedJson{full} = $$decodedJson{full} ? 1 : 0;
+  return(0, $decodedJson);
+}
+
+
+#######################################
+# queryJobValues
+#
+# Retrieves single values out of job status
+# and metrics snapshots by path, without
+# loading the jobs into the job cache.  Only
+# the values asked for are sent back.  A path is
+#   job/<jobId>[/pe/<peId>][/op/<operator>[/in|out/<port>[/conn/<connectionId>]]]
+# followed by /<member> of the status (pid for
+# the process id), /metric/<metricName>, or
+# nothing for the whole status object.  A port
+# is its index or name.  For example
+#   job/12/pe/3/pid
+#   job/12/op/Split/out/0/metric/nTuplesSubmitted
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   paths - one or more paths
+#
+# Returns:
+#    return code
+#    reference to a hash of value by path (if
+#        return code is 0); undef for a value
+#        that does not exist
+#    error message (if return code is not 0)
+#
+#######################################
+sub queryJobValues($$@) {
+  my ($domainName, $instanceName, @paths) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $parms = "query -domain $domainName -instance $instanceName";
+  foreach my $nextPath (@paths) {
+    $parms = "$parms -path " . _quoteParm($nextPath);
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $decodedJson);
+}
+
+
+#######################################
+# waitForJob
+#
+# Waits until a condition on a job holds,
+# in a single call to the java side that is
+# woken by the job's notifications (and polls
+# otherwise), instead of reloading the job
+# in a sleep loop.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   jobId  - job ID
+#   condition - one of
+#      allPEsRunning - every PE has status running
+#      allPEsHealthy - every PE has health healthy
+#      jobHealthy - the job has health healthy
+#      jobGone - the job is no longer in the
+#         instance, e.g. after cancelJob
+#   timeout(optional) - longest time to wait in
+#      seconds (default 300)
 #
 # Returns:
 #    return code
+#    1 if the condition holds, 0 if the timeout
+#      passed first (if return code is 0)
 #    error message (if return code is not 0)
 #
 #######################################
-sub loadAllJobsCache($$) {
-  my ($domainName, $instanceName) = (@_);
+sub waitForJob($$$$;$) {
+  my ($domainName, $instanceName, $jobId, $condition, $timeout) = (@_);
   
   my ($rc, $msg) = _checkConnInfo();
   return($rc, $msg) if $rc;  
   
-  my $parms = "getAllJobInfo -domain $domainName -instance $instanceName";
-  my ($rc,$output) = _javaManagement($parms);
-  if ($rc) {
-    return(1, $output);
-  }
-  
-  my $decodedJson = JSON::decode_json($output);   
-  _addToDomainCache($domainName, $decodedJson);
-  _addToInstanceCache($domainName, $instanceName, $decodedJson);
-  _addToJobCache($domainName, $instanceName, $decodedJson);
-    
-  return(0, undef);
+  my $parms = "waitFor -domain $domainName -instance $instanceName -job $jobId -condition $condition";
+  return(_waitFor($parms, $timeout));
 }
 
+
 #######################################
-# clearCache
+# waitForMetricAbove
 #
-# Clear entire cache
+# Waits until a metric of a job is over a
+# threshold, polling it on the java side.
 #
 # Parms:
 #
-#   none
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   path - the metric as a queryJobValues path,
+#      e.g. job/12/op/Split/out/0/metric/nTuplesSubmitted
+#   threshold - number the metric must be over
+#   timeout(optional) - longest time to wait in
+#      seconds (default 300)
 #
 # Returns:
-#    none
+#    return code
+#    1 if the metric is over the threshold, 0 if
+#      the timeout passed first (if return code is 0)
+#    error message (if return code is not 0)
 #
 #######################################
-sub clearCache() {
-  %_cache = ();
+sub waitForMetricAbove($$$$;$) {
+  my ($domainName, $instanceName, $path, $threshold, $timeout) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;  
+  
+  my $parms = "waitFor -domain $domainName -instance $instanceName -condition metricAbove -path " . _quoteParm($path) . " -threshold $threshold";
+  return(_waitFor($parms, $timeout));
+}
+
+
+#######################################
+# _waitFor
+#######################################
+sub _waitFor($$) {
+  my ($parms, $timeout) = (@_);
+  
+  if (defined($timeout)) {
+    $parms = "$parms -timeout $timeout";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $$decodedJson{met} ? 1 : 0);
 }
 
 
@@ -369,6 +939,10 @@ sub getJobStatusInfoJSONString($$$;$) {
     return($rc, $output);
   }
   
+  # Only kept as a string when the snapshot was not sent as native JSON
+  if (!defined($$output{jobStatusInfoRaw})) {
+    $$output{jobStatusInfoRaw} = JSON::encode_json($$output{jobStatusInfo});
+  }
   my $jobStatusInfoJSONString = $$output{jobStatusInfoRaw};    
   return(0, $jobStatusInfoJSONString);
 }
@@ -407,6 +981,10 @@ sub getJobMetricInfoJSONString($$$;$) {
     return($rc, $output);
   }
   
+  # Only kept as a string when the snapshot was not sent as native JSON
+  if (!defined($$output{jobMetricInfoRaw})) {
+    $$output{jobMetricInfoRaw} = JSON::encode_json($$output{jobMetricsInfo});
+  }
   my $jobMetricInfoJSONString = $$output{jobMetricInfoRaw};    
   return(0, $jobMetricInfoJSONString);
 }
@@ -607,6 +1185,10 @@ sub getJobIdByName($$$;$) {
     if (-1 != $jobId) {
       return(0, $jobId);
     }
+    
+    # Only the id is needed, so ask the java name index
+    # instead of loading the job into the cache
+    return(_lookupJobIdByName($domainName, $instanceName, $jobName));
   }
   
   # Try looking up the job by name
@@ -2281,6 +2863,9 @@ sub submitJob($$$;$$$) {
   if ((defined($jobName)) && (length($jobName) > 0)) {
     $parms = "$parms -jobName $jobName";
   }
+  if (defined($_applicationCache)) {
+    $parms = "$parms -appCache " . _quoteParm($_applicationCache);
+  }
   my ($rc,$output) = _javaManagement($parms);
   if ($rc) {
     return(-1, $output);
@@ -2292,6 +2877,88 @@ sub submitJob($$$;$$$) {
   return(0, $jobId);  
 }
 
+#######################################
+# submitJobs
+#
+# Submit many streams applications with one
+# call.  Deploying, uploading and submitting
+# of the bundles overlap, up to parallel
+# bundles at a time.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   submissions - reference to an array of hashes,
+#              one per job, with
+#      bundle - application bundle file
+#      jobParms - reference to an array containing
+#              job submit parameters in the format
+#              name=value.  Optional.
+#      jobGroup - name for jobGroup.  Optional.
+#      jobName - name for job.  Optional.
+#   parallel - number of bundles handled at a time.
+#              Optional parameter, default 1.
+#
+# Returns:
+#    return code
+#    reference to a hash (if return code is 0) with
+#        submitted - number of jobs submitted
+#        failed - number of submissions that failed
+#        millis - elapsed time of the call
+#        jobs - array of hashes in submissions order
+#           with bundle, jobName, rc, jobId (if rc is
+#           0), stage and error (if rc is not 0),
+#           waitMillis, deployMillis, uploadMillis,
+#           submitMillis, uploadBytes and
+#           uploadBytesPerSecond.  Jobs submitted from
+#           the application cache (see
+#           setApplicationCache) have cached set and
+#           no deploy or upload values.
+#    error message (if return code is not 0)
+#
+#######################################
+sub submitJobs($$$;$) {
+  my ($domainName, $instanceName, $submissions, $parallel) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;
+  
+  my @entries;
+  foreach my $submission (@$submissions) {
+    my %entry = (bundle => $$submission{bundle});
+    if (defined($$submission{jobParms})) {
+      my %jobParms;
+      foreach my $nextParm (@{$$submission{jobParms}}) {
+        my ($name, $value) = split(/=/, $nextParm, 2);
+        $jobParms{$name} = $value;
+      }
+      $entry{jobParms} = \%jobParms;
+    }
+    foreach my $name ("jobGroup", "jobName") {
+      if ((defined($$submission{$name})) && (length($$submission{$name}) > 0)) {
+        $entry{$name} = $$submission{$name};
+      }
+    }
+    push(@entries, \%entry);
+  }
+  
+  my $parms = "submitJobs -domain $domainName -instance $instanceName -submissions " . _quoteParm(JSON::encode_json(\@entries));
+  if (defined($parallel)) {
+    $parms = "$parms -parallel $parallel";
+  }
+  if (defined($_applicationCache)) {
+    $parms = "$parms -appCache " . _quoteParm($_applicationCache);
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(-1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $decodedJson);
+}
+
 #######################################
 # cancelJob
 #
@@ -2330,6 +2997,77 @@ sub cancelJob($$$;$) {
   return(0, undef);  
 }
 
+#######################################
+# cancelJobs
+#
+# Cancels many streams applications with one
+# call.  The jobs are cancelled concurrently.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   options - hash of selectors and settings.
+#      At least one selector is required.
+#      jobs - reference to an array of job IDs
+#         (default all jobs of the instance)
+#      jobNamePattern - regular expression the job
+#         name must contain a match for
+#      jobGroup - job group the jobs must be in
+#      health - health the jobs must have,
+#         e.g. unhealthy
+#      force - force jobs to be cancelled
+#         0 = do not force the cancel (default)
+#         1 = force the cancel
+#      parallel - number of jobs cancelled at a
+#         time (default 1)
+#
+# Returns:
+#    return code
+#    reference to a hash (if return code is 0) with
+#        selected - number of jobs that matched
+#        cancelled - number of jobs cancelled
+#        failed - number of jobs that failed
+#        millis - elapsed time of the call
+#        jobs - array of hashes, one per selected
+#           job, with jobId, name, rc, millis and
+#           error (if rc is not 0)
+#    error message (if return code is not 0)
+#
+#######################################
+sub cancelJobs($$%) {
+  my ($domainName, $instanceName, %options) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;
+  
+  my $parms = "cancelJobs -domain $domainName -instance $instanceName";
+  if (defined($options{jobs})) {
+    if (0 == scalar(@{$options{jobs}})) {
+      return(0, {selected => 0, cancelled => 0, failed => 0, millis => 0, jobs => []});
+    }
+    $parms = "$parms -jobs " . join(",", @{$options{jobs}});
+  }
+  foreach my $name ("jobNamePattern", "jobGroup", "health") {
+    if ((defined($options{$name})) && (length($options{$name}) > 0)) {
+      $parms = "$parms -$name " . _quoteParm($options{$name});
+    }
+  }
+  if (defined($options{parallel})) {
+    $parms = "$parms -parallel $options{parallel}";
+  }
+  if ($options{force}) {
+    $parms = "$parms -force";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(-1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $decodedJson);
+}
+
 
 #######################################
 # addDomainHost
@@ -2966,6 +3704,66 @@ sub getJobLogs($$$$) {
   return(0, undef);
 }
 
+#######################################
+# getJobsLogs
+#
+# Gets application log and trace files
+# of many jobs, one tar.gz file per job
+# named job_<jobId>.tar.gz.  The files are
+# downloaded concurrently, and a file only
+# appears once it is complete.
+#
+# Parms:
+#
+#   domainName - name of the domain
+#   instanceName - name of the instance
+#   logDir - directory for the log files.
+#             Existing files are overwritten.
+#   jobIds - reference to an array of job IDs.
+#             Optional parameter.  If undefined,
+#             the logs of all jobs are retrieved.
+#   parallel - number of jobs retrieved at a time.
+#             Optional parameter, default 1.
+#
+# Returns:
+#    return code
+#    reference to a hash (if return code is 0) with
+#        retrieved - number of log files written
+#        failed - number of jobs that failed
+#        bytes - total size of the log files
+#        millis - elapsed time of the call
+#        jobs - array of hashes, one per job, with
+#           jobId, rc, millis and either logFile,
+#           bytes and bytesPerSecond (rc 0) or
+#           error (rc not 0)
+#    error message (if return code is not 0)
+#
+#######################################
+sub getJobsLogs($$$;$$) {
+  my ($domainName, $instanceName, $logDir, $jobIds, $parallel) = (@_);
+  
+  my ($rc, $msg) = _checkConnInfo();
+  return($rc, $msg) if $rc;
+  
+  my $parms = "getJobsLogs -domain $domainName -instance $instanceName -logDir " . _quoteParm($logDir);
+  if (defined($jobIds)) {
+    if (0 == scalar(@$jobIds)) {
+      return(0, {retrieved => 0, failed => 0, bytes => 0, millis => 0, jobs => []});
+    }
+    $parms = "$parms -jobs " . join(",", @$jobIds);
+  }
+  if (defined($parallel)) {
+    $parms = "$parms -parallel $parallel";
+  }
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(-1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $decodedJson);
+}
+
 #######################################
 # getDomainLogs
 #
@@ -3115,9 +3913,31 @@ sub _getEmbeddedZKString() {
 
 #######################################
 # _javaManagement
+#
+# By default requests are sent to a long
+# running java server started on first use,
+# which keeps its JMX connections open
+# between calls.  Set environment variable
+# STREAMS_MANAGEMENT_SERVER to 0 to start a
+# new JVM for every call instead.
 #######################################
 sub _javaManagement($) {
   my ($parms) = (@_);
+  
+  if ($_collectStats) {
+    $parms .= " -stats";
+    $_lastStats = undef;
+  }
+  if ((defined($ENV{STREAMS_MANAGEMENT_SERVER})) && ("$ENV{STREAMS_MANAGEMENT_SERVER}x" eq "0x")) {
+    return(_javaManagementSingle($parms));
+  }
+  return(_javaManagementServer($parms));
+}
+
+#######################################
+# _javaCommand
+#######################################
+sub _javaCommand() {
   my $internalJava = "$thisDir/streamsManagementInternal/java/bin";
   my $streamsLoc = $ENV{STREAMS_INSTALL};
   my $cp = "$internalJava" 
@@ -3127,18 +3947,29 @@ sub _javaManagement($) {
             . ":$streamsLoc/ext/lib/JSON4J.jar"
             . ":$streamsLoc/system/impl/lib/com.ibm.streams.platform.jar"
             . ":$streamsLoc/system/impl/lib/com.ibm.streams.management.mx.util.jar";
+  return("java -cp $cp com.ibm.streamsx.management.StreamsManagementWrapper");
+}
+
+#######################################
+# _javaManagementSingle
+#######################################
+sub _javaManagementSingle($) {
+  my ($parms) = (@_);
       
   my $connectParms = "-zkconnect $zk";  # $zk was set in _checkConnInfo   
-  my $cmd = "java -cp $cp com.ibm.streamsx.management.StreamsManagementWrapper $parms $connectParms";
+  my $cmd = _javaCommand() . " $parms $connectParms";
   #print("ZZZ $cmd\n");
   my $result = `$cmd`;
   my $rc = $?;
+  if ($result =~ s/\n*^STATS:(.*)\n?\z//m) {
+    $_lastStats = eval { JSON::decode_json($1) };
+  }
   chomp $result;   
   if ($rc) {
     my $msg = "Error invoking java:  $result";
     return(1, $msg);
   }
-  if ($result =~ /^EXCEPTION:(.*)/) {
+  if ($result =~ /^EXCEPTION:(.*)/m) {
     my $msg = $1;
     return(1, $msg);
   }
@@ -3146,6 +3977,118 @@ sub _javaManagement($) {
   return(0, $result);
 }
 
+#######################################
+# _javaManagementServer
+#
+# Sends one request line to the java server
+# and reads back the frames of action output
+# and the line that ends the request.
+# A server that has died fails the write or
+# read instead of raising SIGPIPE, so the
+# error is returned and the next call starts
+# a new server.
+#######################################
+sub _javaManagementServer($) {
+  my ($parms) = (@_);
+  
+  my ($rc, $msg) = _startServer();
+  return($rc, $msg) if $rc;
+  
+  local $SIG{PIPE} = 'IGNORE';
+  
+  my @args = Text::ParseWords::shellwords("$parms -zkconnect $zk");  # $zk was set in _checkConnInfo
+  $_serverRequestId++;
+  my $request = JSON::encode_json({ id => $_serverRequestId, args => \@args });
+  if (!print $_serverIn "$request\n") {
+    _stopServer();
+    return(1, "Error writing to java server:  $!");
+  }
+  
+  # output frames, then the line that ends the request
+  my $result = "";
+  my $header;
+  while (1) {
+    my $headerLine = <$_serverOut>;
+    if (!defined($headerLine)) {
+      _stopServer();
+      return(1, "Error invoking java:  server exited unexpectedly");
+    }
+    $header = eval { JSON::decode_json($headerLine) };
+    if ((!defined($header)) || ($$header{id} != $_serverRequestId)) {
+      _stopServer();
+      return(1, "Error invoking java:  unexpected response $headerLine");
+    }
+    last if defined($$header{rc});
+    
+    my $remaining = $$header{bytes};
+    while ($remaining > 0) {
+      my $numRead = read($_serverOut, $result, $remaining, length($result));
+      if (!$numRead) {
+        _stopServer();
+        return(1, "Error invoking java:  server output truncated");
+      }
+      $remaining -= $numRead;
+    }
+  }
+  
+  if (defined($$header{stats})) {
+    $_lastStats = $$header{stats};
+  }
+  if ($$header{rc}) {
+    return(1, $$header{error});
+  }
+  
+  #$result should contain JSON string (or be empty)
+  return(0, $result);
+}
+
+#######################################
+# _startServer
+#######################################
+sub _startServer() {
+  # A forked child must not share the parent's server
+  if ((defined($_serverPid)) && ($_serverOwner == $$)) {
+    return(0, undef);
+  }
+  
+  my $cmd = _javaCommand() . " serve -zkconnect $zk";  # $zk was set in _checkConnInfo
+  my ($out, $in);
+  my $pid = eval { IPC::Open2::open2($out, $in, $cmd) };
+  if (!$pid) {
+    return(1, "Error invoking java:  $@");
+  }
+  binmode($out);
+  binmode($in);
+  my $prevFH = select($in);
+  $| = 1;
+  select($prevFH);
+  
+  $_serverPid = $pid;
+  $_serverOwner = $$;
+  $_serverIn = $in;
+  $_serverOut = $out;
+  return(0, undef);
+}
+
+#######################################
+# _stopServer
+#######################################
+sub _stopServer() {
+  return if !defined($_serverPid);
+  if ($_serverOwner == $$) {
+    close($_serverIn);
+    close($_serverOut);
+    waitpid($_serverPid, 0);
+  }
+  $_serverPid = undef;
+  $_serverIn = undef;
+  $_serverOut = undef;
+}
+
+END {
+  _stopServer();
+}
+
 #######################################
 # _addToDomainCache
 #######################################
@@ -3323,9 +4266,14 @@ sub _addToJobCache($$$) {
   foreach my $nextJobId (keys %$allJobsInfo) {
     my $singleJobInfo = $$allJobsInfo{$nextJobId};
     
-    # Parse/expand the jobInfo and jobMetrics structures
-    $$singleJobInfo{jobStatusInfo} = JSON::decode_json($$singleJobInfo{jobStatusInfoRaw});
-    $$singleJobInfo{jobMetricsInfo} = JSON::decode_json($$singleJobInfo{jobMetricInfoRaw});
+    # Parse/expand the jobInfo and jobMetrics structures.
+    # With -nativeJson they arrive already decoded.
+    if (!defined($$singleJobInfo{jobStatusInfo})) {
+      $$singleJobInfo{jobStatusInfo} = JSON::decode_json($$singleJobInfo{jobStatusInfoRaw});
+    }
+    if (!defined($$singleJobInfo{jobMetricsInfo})) {
+      $$singleJobInfo{jobMetricsInfo} = JSON::decode_json($$singleJobInfo{jobMetricInfoRaw});
+    }
     
     # Load the operator to pe map
     $$singleJobInfo{opToPeMap} = _loadOpToPeMap($$singleJobInfo{jobStatusInfo});
@@ -3394,6 +4342,33 @@ sub _loadOpToPeMap($) {
   return($opToPeMap);
 }
 
+#######################################
+# _getJobIndexPosition
+# Look up where a PE, operator, port or
+# connection is in a cached job's
+# snapshots, in the jobIndex built by
+# the java side (-index), e.g.
+#   ($jobInfo, "status", "operators", $operator)
+#   ($jobInfo, "metrics", "outputPorts", $operator, $index)
+# Returns the array position ([pe, operator]
+# for operators), or undef if the job has no
+# index or no such entry.
+#######################################
+sub _getJobIndexPosition($$$@) {
+  my ($jobInfo, $snapshot, $map, @keys) = (@_);
+  
+  my $entry = $$jobInfo{jobIndex};
+  return(undef) if !defined($entry);
+  $entry = $$entry{$snapshot};
+  return(undef) if !defined($entry);
+  $entry = $$entry{$map};
+  foreach my $nextKey (@keys) {
+    return(undef) if ((ref($entry) ne 'HASH') || !defined($$entry{$nextKey}));
+    $entry = $$entry{$nextKey};
+  }
+  return($entry);
+}
+
 #######################################
 # _getJobInfo
 #######################################
@@ -3480,13 +4455,18 @@ sub _getJobStatusInfo($$$$) {
 sub _getPEStatusInfo($$$$$) {
   my ($domainName, $instanceName, $jobId, $peId, $reloadCache) = (@_);  
   
-  my ($rc, $output) = _getJobStatusInfo($domainName, $instanceName, $jobId, $reloadCache);
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, $reloadCache);
   if ($rc) {
-    return($rc, $output);
+    return($rc, $jobInfo);
+  }
+  my $allPEInfo = $$jobInfo{jobStatusInfo}{pes};
+
+  my $position = _getJobIndexPosition($jobInfo, "status", "pes", $peId);
+  if (defined($position)) {
+    return(0, $$allPEInfo[$position]);
   }
 
   # Loop through PEs until we find the desired PE.  
-  my $allPEInfo = $$output{pes};
   foreach my $nextPE (@$allPEInfo) {
     my $nextId = $$nextPE{id};
     if ($nextId == $peId) {
@@ -3526,6 +4506,17 @@ sub _getPeIdFromOperator($$$$$) {
 sub _getOperatorStatusInfo($$$$$) {
   my ($domainName, $instanceName, $jobId, $operator, $reloadCache) = (@_); 
   
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, $reloadCache);
+  if ($rc) {
+    return($rc, $jobInfo);
+  }
+  my $position = _getJobIndexPosition($jobInfo, "status", "operators", $operator);
+  if (defined($position)) {
+    my $allPEInfo = $$jobInfo{jobStatusInfo}{pes};
+    return(0, $$allPEInfo[$$position[0]]{operators}[$$position[1]]);
+  }
+  $reloadCache = 0;  # no point in loading again here
+  
   my ($rc, $output) = _getPeIdFromOperator($domainName, $instanceName, $jobId, $operator, $reloadCache);
   if ($rc) {
     return($rc, $output);
@@ -3564,6 +4555,12 @@ sub _getOperatorOutputPortStatusInfo($$$$$$) {
     return($rc, $output);
   }
 
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, 0);
+  my $position = _getJobIndexPosition($jobInfo, "status", "outputPorts", $operator, $operatorOutputPort);
+  if (defined($position)) {
+    return(0, $$output{outputPorts}[$position]);
+  }
+
   # Loop through operator output ports until we find the desired output port 
   my $allOperatorOutputPortInfo = $$output{outputPorts};
   foreach my $nextOperatorOutputPort (@$allOperatorOutputPortInfo) {
@@ -3589,6 +4586,12 @@ sub _getOperatorOutputPortConnectionStatusInfo($$$$$$$) {
     return($rc, $output);
   }
 
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, 0);
+  my $position = _getJobIndexPosition($jobInfo, "status", "outputConnections", $operator, $operatorOutputPort, $operatorOutputPortConnection);
+  if (defined($position)) {
+    return(0, $$output{connections}[$position]);
+  }
+
   # Loop through operator output port connections until we find the desired connection  
   my $allOperatorOutputPortConnectionInfo = $$output{connections};
   foreach my $nextOperatorOutputPortConnection (@$allOperatorOutputPortConnectionInfo) {
@@ -3615,6 +4618,12 @@ sub _getOperatorInputPortStatusInfo($$$$$$) {
     return($rc, $output);
   }
 
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, 0);
+  my $position = _getJobIndexPosition($jobInfo, "status", "inputPorts", $operator, $operatorInputPort);
+  if (defined($position)) {
+    return(0, $$output{inputPorts}[$position]);
+  }
+
   # Loop through operator input ports until we find the desired input port 
   my $allOperatorInputPortInfo = $$output{inputPorts};
   foreach my $nextOperatorInputPort (@$allOperatorInputPortInfo) {
@@ -3640,6 +4649,12 @@ sub _getOperatorInputPortConnectionStatusInfo($$$$$$$) {
     return($rc, $output);
   }
 
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, 0);
+  my $position = _getJobIndexPosition($jobInfo, "status", "inputConnections", $operator, $operatorInputPort, $operatorInputPortConnection);
+  if (defined($position)) {
+    return(0, $$output{connections}[$position]);
+  }
+
   # Loop through operator input port connections until we find the desired connection  
   my $allOperatorInputPortConnectionInfo = $$output{connections};
   foreach my $nextOperatorInputPortConnection (@$allOperatorInputPortConnectionInfo) {
@@ -3676,13 +4691,18 @@ sub _getJobMetricsInfo($$$$) {
 sub _getPEMetricsInfo($$$$$) {
   my ($domainName, $instanceName, $jobId, $peId, $reloadCache) = (@_);  
   
-  my ($rc, $output) = _getJobMetricsInfo($domainName, $instanceName, $jobId, $reloadCache);
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, $reloadCache);
   if ($rc) {
-    return($rc, $output);
+    return($rc, $jobInfo);
+  }
+  my $allPEInfo = $$jobInfo{jobMetricsInfo}{pes};
+
+  my $position = _getJobIndexPosition($jobInfo, "metrics", "pes", $peId);
+  if (defined($position)) {
+    return(0, $$allPEInfo[$position]);
   }
 
   # Loop through PEs until we find the desired PE.  
-  my $allPEInfo = $$output{pes};
   foreach my $nextPE (@$allPEInfo) {
     my $nextId = $$nextPE{id};
     if ($nextId == $peId) {
@@ -3701,6 +4721,17 @@ sub _getPEMetricsInfo($$$$$) {
 sub _getOperatorMetricsInfo($$$$$) {
   my ($domainName, $instanceName, $jobId, $operator, $reloadCache) = (@_);
   
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, $reloadCache);
+  if ($rc) {
+    return($rc, $jobInfo);
+  }
+  my $position = _getJobIndexPosition($jobInfo, "metrics", "operators", $operator);
+  if (defined($position)) {
+    my $allPEInfo = $$jobInfo{jobMetricsInfo}{pes};
+    return(0, $$allPEInfo[$$position[0]]{operators}[$$position[1]]);
+  }
+  $reloadCache = 0;  # no point in loading again here
+  
   my ($rc, $output) = _getPeIdFromOperator($domainName, $instanceName, $jobId, $operator, $reloadCache);
   if ($rc) {
     return($rc, $output);
@@ -3746,6 +4777,12 @@ sub _getOperatorOutputPortMetricsInfo($$$$$$) {
   }
   my $outputPortIndex = $$output2{indexWithinOperator};
 
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, 0);
+  my $position = _getJobIndexPosition($jobInfo, "metrics", "outputPorts", $operator, $outputPortIndex);
+  if (defined($position)) {
+    return(0, $$output{outputPorts}[$position]);
+  }
+
   # Loop through operator until we find the desired operator output port (by index).  
   my $allOperatorOutputPortInfo = $$output{outputPorts};
   foreach my $nextOperatorOutputPort (@$allOperatorOutputPortInfo) {
@@ -3779,6 +4816,12 @@ sub _getOperatorInputPortMetricsInfo($$$$$$) {
   }
   my $inputPortIndex = $$output2{indexWithinOperator};
 
+  my ($rc, $jobInfo) = _getJobInfo($domainName, $instanceName, $jobId, 0);
+  my $position = _getJobIndexPosition($jobInfo, "metrics", "inputPorts", $operator, $inputPortIndex);
+  if (defined($position)) {
+    return(0, $$output{inputPorts}[$position]);
+  }
+
   # Loop through operator until we find the desired operator input port (by index).  
   my $allOperatorInputPortInfo = $$output{inputPorts};
   foreach my $nextOperatorInputPort (@$allOperatorInputPortInfo) {
@@ -3838,7 +4881,7 @@ sub _loadSingleJobCacheByName($$$) {
   my ($domainName, $instanceName, $jobName) = (@_);
 
   
-  my $parms = "getSingleJobInfoByName -domain $domainName -instance $instanceName -jobName $jobName";
+  my $parms = "getSingleJobInfoByName -domain $domainName -instance $instanceName -jobName $jobName -nativeJson -index" . _metricFilterParms();
   my ($rc,$output) = _javaManagement($parms);
   if ($rc) {
     return(1, $output);
@@ -3853,6 +4896,47 @@ sub _loadSingleJobCacheByName($$$) {
 }
 
 
+#######################################
+# _lookupJobIdByName
+#######################################
+sub _lookupJobIdByName($$$) {
+  my ($domainName, $instanceName, $jobName) = (@_);
+
+  my $parms = "getJobIdByName -domain $domainName -instance $instanceName -jobName $jobName";
+  my ($rc,$output) = _javaManagement($parms);
+  if ($rc) {
+    return(1, $output);
+  }
+  
+  my $decodedJson = JSON::decode_json($output);   
+  return(0, $decodedJson->{jobId});
+}
+
+
+#######################################
+# _metricFilterParms
+# metric filter options for the java
+# wrapper, quoted for the shell
+#######################################
+sub _metricFilterParms() {
+  my $parms = "";
+  foreach my $name (sort(keys(%_metricFilters))) {
+    $parms = "$parms -$name " . _quoteParm($_metricFilters{$name});
+  }
+  return($parms);
+}
+
+#######################################
+# _quoteParm
+#######################################
+sub _quoteParm($) {
+  my ($parm) = (@_);
+  
+  $parm =~ s/'/'\\''/g;
+  return("'$parm'");
+}
+
+
 #######################################
 # _runCommand
 #######################################
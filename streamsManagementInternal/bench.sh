@@ -0,0 +1,43 @@
+#!/bin/sh
+
+
+#*******************************************************************************
+#  Copyright (C) 2016, International Business Machines Corporation
+#  All Rights Reserved
+#*******************************************************************************                          
+
+# Builds and runs the benchmarks in java/bench.  Arguments go to the
+# driver, e.g.  ./bench.sh -warmup 5 -time 10 -size 20,10,2,5 metrics
+# With "load" first, runs getAllJobJSONString against the simulated
+# domain instead, e.g.  ./bench.sh load -jobs 1000 -httpLatency 5
+#
+# This is a plain timing loop, not JMH:  there is no fork per
+# benchmark, and no dead code or constant folding guard beyond
+# keeping each result.  Bytes per operation are summed over all
+# threads of the process.  That covers executor threads, but for
+# the benchmarks against the simulated domain (jobProxy, allJobInfo)
+# it also counts the simulator's own JMX, RMI and HTTPS work, and it
+# misses threads that start and end within a measurement.  Compare
+# those numbers between runs rather than reading them as the cost
+# against a real domain.  GC counts and pause times are not reported.
+
+THISDIR=$(dirname $0)
+INTERNALDIR=${THISDIR}
+SRCDIR=${INTERNALDIR}/java/src
+BENCHDIR=${INTERNALDIR}/java/bench
+BINDIR=${INTERNALDIR}/java/benchbin
+SRC_FILE=com/ibm/streamsx/management/Benchmarks.java
+WHOLE_SRC_FILE=${BENCHDIR}/${SRC_FILE}
+
+
+CP=${STREAMS_INSTALL}/lib/com.ibm.streams.management.jmxmp.jar:${STREAMS_INSTALL}/lib/com.ibm.streams.management.mx.jar:${STREAMS_INSTALL}/ext/lib/JSON4J.jar:${STREAMS_INSTALL}/system/impl/lib/com.ibm.streams.platform.jar
+CP=${CP}:${STREAMS_INSTALL}/system/impl/lib/com.ibm.streams.management.mx.util.jar
+
+mkdir -p $BINDIR
+javac -sourcepath ${SRCDIR}:${BENCHDIR} -cp $CP -d $BINDIR $WHOLE_SRC_FILE || exit 1
+MAIN=com.ibm.streamsx.management.Benchmarks
+if [ "$1" = "load" ]; then
+  MAIN=com.ibm.streamsx.management.DomainSimulator
+  shift
+fi
+java -cp ${BINDIR}:${CP} $MAIN "$@"
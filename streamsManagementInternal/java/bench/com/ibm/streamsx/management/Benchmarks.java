@@ -0,0 +1,302 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+
+import com.ibm.json.java.JSONArray;
+import com.ibm.json.java.JSONObject;
+import com.ibm.streams.management.ObjectNameBuilder;
+import com.ibm.streams.management.job.JobMXBean;
+
+//
+// Measures the hot paths of StreamsManagement in process:
+// response reading, metrics filtering and flattening, JSON
+// assembly, indexing and serialization, parameter parsing, MXBean proxy
+// creation and whole getAllJobJSONString calls against a
+// DomainSimulator.
+//
+// Each benchmark is warmed up and then run for a fixed time on
+// one thread.  The result is operations per second and bytes
+// allocated per operation, the latter from the thread
+// allocation counters of the HotSpot ThreadMXBean summed over
+// every thread of the process, so work handed to executor
+// threads is counted.  That also takes in whatever else runs
+// meanwhile:  for the benchmarks against the DomainSimulator
+// (jobProxy, allJobInfo) the simulated domain's beans, RMI and
+// HTTPS server allocate in this process too.  Threads that
+// both start and end within the measurement are not counted.
+//
+// usage: Benchmarks [-warmup <seconds>] [-time <seconds>]
+//                   [-size <pes>,<operators>,<ports>,<metrics>]
+//                   [-jobs <simulated jobs>] [<name pattern>]
+//
+public class Benchmarks {
+
+	//***********************************************
+	// A benchmark; run() returns something derived
+	// from its work so it cannot be optimized away
+	//***********************************************
+	static abstract class Benchmark {
+		final String name;
+		Benchmark(String name) {
+			this.name = name;
+		}
+		abstract Object run() throws Exception;
+	}
+
+	// results are parked here so the JIT keeps the work
+	static volatile Object sink;
+
+	private static long _warmupMillis = 5000;
+	private static long _measureMillis = 10000;
+
+
+	public static void main(String[] args) throws Exception {
+		// as StreamsManagementWrapper does
+		if (null == System.getProperty("http.maxConnections"))
+			System.setProperty("http.maxConnections", "32");
+		int[] size = { 10, 10, 2, 5 };
+		int jobs = 20;
+		Pattern selected = null;
+		for (int i = 0; i < args.length; i++) {
+			if ((args[i].equals("-warmup")) && (i + 1 < args.length))
+				_warmupMillis = (long)(Double.parseDouble(args[++i]) * 1000);
+			else if ((args[i].equals("-time")) && (i + 1 < args.length))
+				_measureMillis = (long)(Double.parseDouble(args[++i]) * 1000);
+			else if ((args[i].equals("-size")) && (i + 1 < args.length)) {
+				String [] counts = args[++i].split(",");
+				if (counts.length != size.length)
+					throw new Exception("-size needs <pes>,<operators>,<ports>,<metrics>");
+				for (int j = 0; j < size.length; j++)
+					size[j] = Integer.parseInt(counts[j].trim());
+			}
+			else if ((args[i].equals("-jobs")) && (i + 1 < args.length))
+				jobs = Integer.parseInt(args[++i]);
+			else
+				selected = Pattern.compile(args[i]);
+		}
+
+		SyntheticSnapshots snapshots = new SyntheticSnapshots(size[0], size[1], size[2], size[3]);
+		DomainSimulator simulator = new DomainSimulator(jobs, 4, snapshots);
+		try {
+			simulator.start();
+			System.out.println("job size: " + size[0] + " PEs, " + size[1] + " operators/PE, " + size[2] + " ports/operator, " + size[3] + " metrics/object; " + jobs + " simulated jobs");
+			System.out.println(String.format("%-28s %14s %16s", "benchmark", "ops/s", "bytes/op"));
+			List<Benchmark> benchmarks = getBenchmarks(snapshots);
+			benchmarks.addAll(getSimulatorBenchmarks(simulator));
+			for (Benchmark benchmark : benchmarks) {
+				if ((null != selected) && (!selected.matcher(benchmark.name).find()))
+					continue;
+				measure(benchmark);
+			}
+		} finally {
+			simulator.stop();
+		}
+		System.exit(0);
+	}
+
+	//***********************************************
+	// The benchmarks, over snapshots of one job
+	//***********************************************
+	static List<Benchmark> getBenchmarks(SyntheticSnapshots snapshots) throws Exception {
+		final long now = System.currentTimeMillis();
+		final String metrics = snapshots.metrics(1, now);
+		final String status = snapshots.status(1, "bench", now);
+		final byte[] response = metrics.getBytes(StandardCharsets.UTF_8);
+		final MetricsFilter filter = new MetricsFilter();
+		filter.setOperatorPatterns("_[0-4]$", null);
+		filter.setMetricPatterns("^n", null);
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		// readFromURL less the connection: read into a pooled buffer and decode
+		benchmarks.add(new Benchmark("readResponse") {
+			Object run() throws Exception {
+				StreamsManagement.ResponseBuffer buffer = StreamsManagement.ResponseBuffer.take();
+				buffer.ensureCapacity(response.length + 1);
+				buffer.readFrom(new ByteArrayInputStream(response));
+				String s = new String(buffer.bytes(), 0, buffer.size(), "UTF-8");
+				StreamsManagement.ResponseBuffer.give(buffer);
+				return(s);
+			}
+		});
+
+		benchmarks.add(new Benchmark("metricsFilter") {
+			Object run() throws Exception {
+				return(filter.filter(metrics));
+			}
+		});
+
+		benchmarks.add(new Benchmark("metricSamples") {
+			Object run() throws Exception {
+				return(MetricSamples.read(metrics));
+			}
+		});
+
+		// a job entry as writeJobsJSON puts it out, snapshots as escaped strings
+		benchmarks.add(new Benchmark("jobEntryRaw") {
+			Object run() throws Exception {
+				StringWriter out = new StringWriter(2 * (status.length() + metrics.length()));
+				JSONWriter.writeName(out, "1");
+				out.write('{');
+				JSONWriter.writeName(out, "jobStatusInfoRaw");
+				JSONWriter.writeString(out, status);
+				out.write(',');
+				JSONWriter.writeName(out, "jobMetricInfoRaw");
+				JSONWriter.writeString(out, metrics);
+				out.write('}');
+				return(out.toString());
+			}
+		});
+
+		// the same with the snapshots spliced in as JSON after checking them
+		benchmarks.add(new Benchmark("jobEntryNative") {
+			Object run() throws Exception {
+				StringWriter out = new StringWriter(status.length() + metrics.length() + 64);
+				JSONReader.validate(status);
+				JSONReader.validate(metrics);
+				JSONWriter.writeName(out, "1");
+				out.write('{');
+				JSONWriter.writeName(out, "jobStatusInfo");
+				out.write(status);
+				out.write(',');
+				JSONWriter.writeName(out, "jobMetricsInfo");
+				out.write(metrics);
+				out.write('}');
+				return(out.toString());
+			}
+		});
+
+		// the jobIndex that -index adds to a job entry
+		benchmarks.add(new Benchmark("snapshotIndex") {
+			Object run() throws Exception {
+				StringWriter out = new StringWriter(1024);
+				SnapshotIndex.write(out, status, metrics);
+				return(out.toString());
+			}
+		});
+
+		// instance info as getInstanceInfoJSON builds it, then serialize()
+		benchmarks.add(new Benchmark("instanceInfoSerialize") {
+			Object run() throws Exception {
+				JSONObject instanceInfo = new JSONObject();
+				instanceInfo.put("status", "running");
+				JSONArray ja = new JSONArray();
+				for (int i = 0; i < 100; i++)
+					ja.add(BigInteger.valueOf(i));
+				instanceInfo.put("jobs", ja);
+				return(instanceInfo.serialize());
+			}
+		});
+
+		// the metrics snapshot as a JSON4J object tree and back
+		benchmarks.add(new Benchmark("json4jParseSerialize") {
+			Object run() throws Exception {
+				return(JSONObject.parse(metrics).serialize());
+			}
+		});
+
+		final String [] args = { "alljobinfo", "-zkconnect", "zk1:2181,zk2:2181", "-domain", "StreamsDomain", "-instance", "StreamsInstance",
+			"-operatorFilter", "^op", "-metricExclude", "^metric", "-parallel", "8", "-nativeJson" };
+		benchmarks.add(new Benchmark("parseParms") {
+			Object run() throws Exception {
+				return(StreamsManagementWrapper.parseParms(args, 0));
+			}
+		});
+
+		return(benchmarks);
+	}
+
+	//***********************************************
+	// The benchmarks against a started simulator.
+	// Bytes per operation only count this thread, not
+	// the fetch threads or the simulator's.
+	//***********************************************
+	static List<Benchmark> getSimulatorBenchmarks(final DomainSimulator simulator) throws Exception {
+		final ObjectName job = ObjectNameBuilder.job(DomainSimulator.DOMAIN, DomainSimulator.INSTANCE, BigInteger.ZERO);
+		final StreamsManagement management = new StreamsManagement();
+		management.connectToJMX(simulator.getJMXServiceURL().toString(), "user", "password");
+
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		// what getProxy does for each job it has not seen
+		benchmarks.add(new Benchmark("jobProxy") {
+			Object run() throws Exception {
+				return(JMX.newMXBeanProxy(simulator.getMBeanServer(), job, JobMXBean.class, true));
+			}
+		});
+
+		benchmarks.add(new Benchmark("allJobInfo") {
+			Object run() throws Exception {
+				return(management.getAllJobJSONString(DomainSimulator.DOMAIN, DomainSimulator.INSTANCE));
+			}
+		});
+
+		return(benchmarks);
+	}
+
+	//***********************************************
+	// Warm up, then run for the measure time and
+	// print the rate and allocation per operation
+	//***********************************************
+	static void measure(Benchmark benchmark) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)(ManagementFactory.getThreadMXBean());
+
+		runFor(benchmark, _warmupMillis);
+
+		HashMap<Long,Long> before = getAllocatedBytes(threads);
+		long start = System.nanoTime();
+		long ops = runFor(benchmark, _measureMillis);
+		long elapsed = System.nanoTime() - start;
+		long allocated = 0;
+		for (Map.Entry<Long,Long> next : getAllocatedBytes(threads).entrySet()) {
+			Long previous = before.get(next.getKey());
+			allocated += next.getValue() - ((null == previous) ? 0 : previous);
+		}
+
+		System.out.println(String.format("%-28s %14.1f %16d", benchmark.name, ops * 1e9 / elapsed, allocated / Math.max(ops, 1)));
+	}
+
+	// Bytes allocated so far by each live thread, by thread id.
+	// Virtual threads allocate on their carriers, which are
+	// platform threads and so are counted.
+	private static HashMap<Long,Long> getAllocatedBytes(com.sun.management.ThreadMXBean threads) {
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes = threads.getThreadAllocatedBytes(ids);
+		HashMap<Long,Long> allocated = new HashMap<Long,Long>();
+		for (int i = 0; i < ids.length; i++) {
+			if (bytes[i] >= 0)     // -1 for a thread that has ended
+				allocated.put(ids[i], bytes[i]);
+		}
+		return(allocated);
+	}
+
+	// Operations run; the clock is read every few operations
+	private static long runFor(Benchmark benchmark, long millis) throws Exception {
+		long end = System.nanoTime() + millis * 1000000L;
+		long ops = 0;
+		do {
+			for (int i = 0; i < 16; i++)
+				sink = benchmark.run();
+			ops += 16;
+		} while (System.nanoTime() < end);
+		return(ops);
+	}
+}
@@ -0,0 +1,533 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.Security;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.management.remote.JMXConnectorServer;
+import javax.management.remote.JMXConnectorServerFactory;
+import javax.management.remote.JMXServiceURL;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import com.ibm.streams.management.ObjectNameBuilder;
+import com.ibm.streams.management.domain.DomainMXBean;
+import com.ibm.streams.management.instance.InstanceMXBean;
+import com.ibm.streams.management.job.JobMXBean;
+import com.ibm.streams.management.resource.ResourceMXBean;
+import com.ibm.streams.management.resource.StreamsHostResourceManagerMXBean;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+//
+// A Streams domain with one instance, made up in process, for
+// load tests and benchmarks of StreamsManagement.
+//
+// Stand-in domain, instance, job, host resource manager and
+// resource MXBeans are registered under their ObjectNameBuilder
+// names in a private MBeanServer, which is served over a JMX RMI
+// connector; StreamsManagement connects to getJMXServiceURL()
+// with connectToJMX(url, user, password) as it would to a real
+// domain.  Job snapshot, snapshotMetrics and log URLs point at a
+// local HTTPS server that returns SyntheticSnapshots documents.
+//
+// Every bean call and every HTTPS response can be delayed to
+// stand in for a remote domain.  Jobs can be submitted (with an
+// application id, as from the application cache) and cancelled;
+// deployApplication is not simulated and the beans send no
+// notifications.
+//
+// usage: DomainSimulator [-jobs <n>] [-size <pes>,<operators>,<ports>,<metrics>]
+//                        [-jmxLatency <millis>] [-httpLatency <millis>]
+//                        [-parallel <n>] [-rounds <n>] [-nativeJson]
+// runs getAllJobJSONString against the simulator and prints the
+// time of each round.
+//
+public class DomainSimulator {
+
+	static final String DOMAIN = "SimDomain";
+	static final String INSTANCE = "SimInstance";
+
+	private final int _jobs;
+	private final int _hosts;
+	private final SyntheticSnapshots _snapshots;
+	private volatile long _jmxLatencyMillis = 0;
+	private volatile long _httpLatencyMillis = 0;
+
+	private MBeanServer _mbs = null;
+	private JMXConnectorServer _connectorServer = null;
+	private HttpsServer _httpServer = null;
+	private ExecutorService _httpExecutor = null;
+	private File _keyStore = null;
+
+	// job names and groups by id, and tags by host
+	private final ConcurrentHashMap<BigInteger,String[]> _jobInfo = new ConcurrentHashMap<BigInteger,String[]>();
+	private final ConcurrentHashMap<String,Set<String>> _hostTags = new ConcurrentHashMap<String,Set<String>>();
+	private final AtomicLong _nextJobId = new AtomicLong(0);
+	private final long _submitTime = System.currentTimeMillis();
+
+	private final AtomicLong _jmxCalls = new AtomicLong(0);
+	private final AtomicLong _httpRequests = new AtomicLong(0);
+	private final AtomicLong _httpBytes = new AtomicLong(0);
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	DomainSimulator(int jobs, int hosts, SyntheticSnapshots snapshots) {
+		_jobs = jobs;
+		_hosts = hosts;
+		_snapshots = snapshots;
+	}
+
+	//***********************************************
+	// Delays
+	//***********************************************
+	void setJMXLatency(long millis) {
+		_jmxLatencyMillis = millis;
+	}
+
+	void setHTTPLatency(long millis) {
+		_httpLatencyMillis = millis;
+	}
+
+	//***********************************************
+	// Counters
+	//***********************************************
+	long getJMXCalls() {
+		return(_jmxCalls.get());
+	}
+
+	long getHTTPRequests() {
+		return(_httpRequests.get());
+	}
+
+	long getHTTPBytes() {
+		return(_httpBytes.get());
+	}
+
+	MBeanServer getMBeanServer() {
+		return(_mbs);
+	}
+
+	JMXServiceURL getJMXServiceURL() {
+		return(_connectorServer.getAddress());
+	}
+
+	//***********************************************
+	// Start the HTTPS server, register the beans and
+	// start the JMX connector
+	//***********************************************
+	synchronized void start() throws Exception {
+		allowTLSv1();
+		_keyStore = makeKeyStore();
+		KeyStore keys = KeyStore.getInstance("JKS");
+		FileInputStream in = new FileInputStream(_keyStore);
+		try {
+			keys.load(in, KEY_PASSWORD.toCharArray());
+		} finally {
+			in.close();
+		}
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keys, KEY_PASSWORD.toCharArray());
+		SSLContext ctx = SSLContext.getInstance("TLS");
+		ctx.init(kmf.getKeyManagers(), null, null);
+
+		// without TCP_NODELAY small responses wait on the client's delayed ACK
+		if (null == System.getProperty("sun.net.httpserver.nodelay"))
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+		_httpServer = HttpsServer.create(new InetSocketAddress("localhost", 0), 0);
+		_httpServer.setHttpsConfigurator(new HttpsConfigurator(ctx));
+		_httpServer.createContext("/", new SnapshotHandler());
+		_httpExecutor = Executors.newCachedThreadPool();
+		_httpServer.setExecutor(_httpExecutor);
+		_httpServer.start();
+
+		_mbs = MBeanServerFactory.newMBeanServer();
+		register(DomainMXBean.class, ObjectNameBuilder.domain(DOMAIN), new DomainBean());
+		register(InstanceMXBean.class, ObjectNameBuilder.instance(DOMAIN, INSTANCE), new InstanceBean());
+		register(StreamsHostResourceManagerMXBean.class, ObjectNameBuilder.resourceManager(DOMAIN, ResourceMXBean.RESOURCE_TYPE_STREAMS), new ResourceManagerBean());
+		for (int i = 1; i <= _hosts; i++)
+			addHost("host" + i);
+		for (int i = 0; i < _jobs; i++)
+			addJob("job" + i, "default");
+
+		_connectorServer = JMXConnectorServerFactory.newJMXConnectorServer(new JMXServiceURL("service:jmx:rmi://localhost"), null, _mbs);
+		_connectorServer.start();
+	}
+
+	synchronized void stop() throws Exception {
+		if (null != _connectorServer) {
+			_connectorServer.stop();
+			_connectorServer = null;
+		}
+		if (null != _httpServer) {
+			_httpServer.stop(0);
+			_httpServer = null;
+		}
+		if (null != _httpExecutor) {
+			_httpExecutor.shutdownNow();
+			_httpExecutor = null;
+		}
+		if (null != _keyStore) {
+			_keyStore.delete();
+			_keyStore = null;
+		}
+	}
+
+
+	public static void main(String[] args) throws Exception {
+		// as StreamsManagementWrapper does
+		if (null == System.getProperty("http.maxConnections"))
+			System.setProperty("http.maxConnections", "32");
+		int[] size = { 10, 10, 2, 5 };
+		int jobs = 1000;
+		int parallel = 8;
+		int rounds = 5;
+		long jmxLatency = 0;
+		long httpLatency = 0;
+		boolean nativeJSON = false;
+		for (int i = 0; i < args.length; i++) {
+			if ((args[i].equals("-jobs")) && (i + 1 < args.length))
+				jobs = Integer.parseInt(args[++i]);
+			else if ((args[i].equals("-size")) && (i + 1 < args.length)) {
+				String [] counts = args[++i].split(",");
+				if (counts.length != size.length)
+					throw new Exception("-size needs <pes>,<operators>,<ports>,<metrics>");
+				for (int j = 0; j < size.length; j++)
+					size[j] = Integer.parseInt(counts[j].trim());
+			}
+			else if ((args[i].equals("-jmxLatency")) && (i + 1 < args.length))
+				jmxLatency = Long.parseLong(args[++i]);
+			else if ((args[i].equals("-httpLatency")) && (i + 1 < args.length))
+				httpLatency = Long.parseLong(args[++i]);
+			else if ((args[i].equals("-parallel")) && (i + 1 < args.length))
+				parallel = Integer.parseInt(args[++i]);
+			else if ((args[i].equals("-rounds")) && (i + 1 < args.length))
+				rounds = Integer.parseInt(args[++i]);
+			else if (args[i].equals("-nativeJson"))
+				nativeJSON = true;
+			else
+				throw new Exception("Unknown parameter " + args[i]);
+		}
+
+		DomainSimulator simulator = new DomainSimulator(jobs, 4, new SyntheticSnapshots(size[0], size[1], size[2], size[3]));
+		simulator.setJMXLatency(jmxLatency);
+		simulator.setHTTPLatency(httpLatency);
+		try {
+			simulator.start();
+			StreamsManagement management = new StreamsManagement();
+			management.setParallelism(parallel);
+			management.setNativeJSON(nativeJSON);
+			management.connectToJMX(simulator.getJMXServiceURL().toString(), "user", "password");
+			System.out.println(jobs + " jobs of " + size[0] + " PEs, " + size[1] + " operators/PE, " + size[2] + " ports/operator, " + size[3] + " metrics/object; "
+				+ "latency " + jmxLatency + "ms JMX, " + httpLatency + "ms HTTPS; parallel " + parallel);
+			for (int i = 1; i <= rounds; i++) {
+				long calls = simulator.getJMXCalls();
+				long requests = simulator.getHTTPRequests();
+				long start = System.nanoTime();
+				String all = management.getAllJobJSONString(DOMAIN, INSTANCE);
+				long millis = (System.nanoTime() - start) / 1000000;
+				System.out.println(String.format("round %d: %d ms, %d chars, %d JMX calls, %d HTTPS requests",
+					i, millis, all.length(), simulator.getJMXCalls() - calls, simulator.getHTTPRequests() - requests));
+			}
+			management.disconnectFromJMX();
+		} finally {
+			simulator.stop();
+		}
+		System.exit(0);
+	}
+
+
+	//***********************************************
+	// Beans
+	// Each stand-in is a dynamic proxy of the MXBean
+	// interface whose calls go to the handle method
+	// of a Bean by name.  Enum results may be given
+	// as their name.
+	//***********************************************
+	private abstract class Bean implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			if (method.getDeclaringClass() == Object.class) {
+				if (method.getName().equals("equals"))
+					return(proxy == args[0]);
+				if (method.getName().equals("hashCode"))
+					return(System.identityHashCode(proxy));
+				return(getClass().getSimpleName());
+			}
+			_jmxCalls.incrementAndGet();
+			delay(_jmxLatencyMillis);
+			Object result = handle(method.getName(), (null == args) ? new Object[0] : args);
+			if ((result instanceof String) && (method.getReturnType().isEnum()))
+				result = toEnum(method.getReturnType(), (String)result);
+			return(result);
+		}
+
+		abstract Object handle(String method, Object[] args) throws Exception;
+	}
+
+	private class DomainBean extends Bean {
+		Object handle(String method, Object[] args) throws Exception {
+			if (method.equals("getStatus"))
+				return("running");
+			if (method.equals("getInstances"))
+				return(Collections.singleton(INSTANCE));
+			throw new UnsupportedOperationException(method);
+		}
+	}
+
+	private class InstanceBean extends Bean {
+		Object handle(String method, Object[] args) throws Exception {
+			if (method.equals("getStatus"))
+				return("running");
+			if (method.equals("getJobs"))
+				return(new HashSet<BigInteger>(_jobInfo.keySet()));
+			// the server unregisters job beans nobody has used for
+			// a while; registerJob brings them back
+			if (method.equals("registerJob")) {
+				if (!_jobInfo.containsKey(args[0]))
+					throw new IllegalArgumentException("No job " + args[0]);
+				ObjectName objName = ObjectNameBuilder.job(DOMAIN, INSTANCE, (BigInteger)args[0]);
+				if (!_mbs.isRegistered(objName))
+					register(JobMXBean.class, objName, new JobBean((BigInteger)args[0]));
+				return(null);
+			}
+			if (method.equals("cancelJob")) {
+				if (null == _jobInfo.remove(args[0]))
+					throw new IllegalArgumentException("No job " + args[0]);
+				_mbs.unregisterMBean(ObjectNameBuilder.job(DOMAIN, INSTANCE, (BigInteger)args[0]));
+				return(null);
+			}
+			// submitJob(applicationId, parms, config, ..., group, name, ...)
+			if (method.equals("submitJob")) {
+				String group = (args.length > 4) ? (String)args[4] : null;
+				String name = (args.length > 5) ? (String)args[5] : null;
+				return(addJob(name, (null == group) ? "default" : group));
+			}
+			throw new UnsupportedOperationException(method);
+		}
+	}
+
+	private class JobBean extends Bean {
+		private final BigInteger _jobId;
+		JobBean(BigInteger jobId) {
+			_jobId = jobId;
+		}
+		Object handle(String method, Object[] args) throws Exception {
+			String [] info = _jobInfo.get(_jobId);
+			if (null == info)
+				throw new IllegalStateException("Job " + _jobId + " was cancelled");
+			if (method.equals("getName"))
+				return(info[0]);
+			if (method.equals("getJobGroup"))
+				return(info[1]);
+			if (method.equals("getHealth"))
+				return("healthy");
+			if (method.equals("getStatus"))
+				return("running");
+			if (method.equals("snapshot"))
+				return(getURL("status", _jobId));
+			if (method.equals("snapshotMetrics"))
+				return(getURL("metrics", _jobId));
+			if (method.equals("retrieveApplicationLogAndTraceFiles"))
+				return(getURL("logs", _jobId));
+			throw new UnsupportedOperationException(method);
+		}
+	}
+
+	private class ResourceManagerBean extends Bean {
+		Object handle(String method, Object[] args) throws Exception {
+			if (method.equals("getDomainHosts"))
+				return(new HashSet<String>(_hostTags.keySet()));
+			if (method.equals("addDomainHost")) {
+				addHost((String)args[0]);
+				return(null);
+			}
+			if (method.equals("removeDomainHost")) {
+				if (null != _hostTags.remove(args[0]))
+					_mbs.unregisterMBean(ObjectNameBuilder.resource(DOMAIN, (String)args[0]));
+				return(null);
+			}
+			if ((method.equals("addTag")) || (method.equals("removeTag"))) {
+				Set<String> tags = _hostTags.get(args[0]);
+				if (null == tags)
+					throw new IllegalArgumentException("No host " + args[0]);
+				if (method.equals("addTag"))
+					tags.add((String)args[1]);
+				else
+					tags.remove(args[1]);
+				return(null);
+			}
+			throw new UnsupportedOperationException(method);
+		}
+	}
+
+	private class ResourceBean extends Bean {
+		private final String _host;
+		ResourceBean(String host) {
+			_host = host;
+		}
+		Object handle(String method, Object[] args) throws Exception {
+			if (method.equals("getTags")) {
+				Set<String> tags = _hostTags.get(_host);
+				if (null == tags)
+					throw new IllegalStateException("Host " + _host + " was removed");
+				return(new HashSet<String>(tags));
+			}
+			throw new UnsupportedOperationException(method);
+		}
+	}
+
+	//***********************************************
+	// HTTPS server
+	// /status/<jobId>, /metrics/<jobId> and
+	// /logs/<jobId>
+	//***********************************************
+	private class SnapshotHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				_httpRequests.incrementAndGet();
+				delay(_httpLatencyMillis);
+				String [] path = exchange.getRequestURI().getPath().split("/");
+				BigInteger jobId = null;
+				try {
+					if (path.length == 3)
+						jobId = new BigInteger(path[2]);
+				} catch (NumberFormatException e) {
+					// not found
+				}
+				String [] info = (null == jobId) ? null : _jobInfo.get(jobId);
+				if (null == info) {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+
+				byte[] body;
+				if (path[1].equals("status"))
+					body = _snapshots.status(jobId.longValue(), info[0], _submitTime).getBytes(StandardCharsets.UTF_8);
+				else if (path[1].equals("metrics"))
+					body = _snapshots.metrics(jobId.longValue(), System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8);
+				else if (path[1].equals("logs"))
+					body = new byte[64 * 1024];
+				else {
+					exchange.sendResponseHeaders(404, -1);
+					return;
+				}
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+				_httpBytes.addAndGet(body.length);
+			} catch (InterruptedException e) {
+				exchange.sendResponseHeaders(503, -1);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private static final String KEY_PASSWORD = "simulator";
+
+	private <T> void register(Class<T> beanClass, ObjectName objName, InvocationHandler handler) throws Exception {
+		T bean = beanClass.cast(Proxy.newProxyInstance(beanClass.getClassLoader(), new Class<?>[] { beanClass }, handler));
+		_mbs.registerMBean(new StandardMBean(bean, beanClass, true), objName);
+	}
+
+	private BigInteger addJob(String name, String group) throws Exception {
+		BigInteger jobId = BigInteger.valueOf(_nextJobId.getAndIncrement());
+		_jobInfo.put(jobId, new String[] { (null == name) ? "job" + jobId : name, group });
+		register(JobMXBean.class, ObjectNameBuilder.job(DOMAIN, INSTANCE, jobId), new JobBean(jobId));
+		return(jobId);
+	}
+
+	private void addHost(String host) throws Exception {
+		if (null == _hostTags.putIfAbsent(host, Collections.newSetFromMap(new ConcurrentHashMap<String,Boolean>())))
+			register(ResourceMXBean.class, ObjectNameBuilder.resource(DOMAIN, host), new ResourceBean(host));
+	}
+
+	private String getURL(String kind, BigInteger jobId) {
+		return("https://localhost:" + _httpServer.getAddress().getPort() + "/" + kind + "/" + jobId);
+	}
+
+	private static void delay(long millis) throws InterruptedException {
+		if (millis > 0)
+			Thread.sleep(millis);
+	}
+
+	// Constant of an enum by name, ignoring case; the first constant if none matches
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static Object toEnum(Class<?> enumClass, String name) {
+		Object[] constants = enumClass.getEnumConstants();
+		for (Object constant : constants) {
+			if (((Enum)constant).name().equalsIgnoreCase(name))
+				return(constant);
+		}
+		return(constants[0]);
+	}
+
+	// A throwaway self-signed key for the HTTPS server, made with the JDK keytool
+	private static File makeKeyStore() throws Exception {
+		File keyStore = File.createTempFile("simulator", ".jks");
+		keyStore.delete();
+		String keytool = System.getProperty("java.home") + File.separator + "bin" + File.separator + "keytool";
+		Process process = new ProcessBuilder(keytool, "-genkeypair", "-alias", "simulator", "-keyalg", "RSA", "-keysize", "2048",
+			"-validity", "2", "-dname", "CN=localhost", "-storetype", "JKS", "-keystore", keyStore.getPath(),
+			"-storepass", KEY_PASSWORD, "-keypass", KEY_PASSWORD).redirectErrorStream(true).start();
+		java.io.InputStream out = process.getInputStream();
+		while (-1 != out.read()) {}
+		out.close();
+		if (0 != process.waitFor())
+			throw new Exception("keytool failed with " + process.exitValue());
+		return(keyStore);
+	}
+
+	// StreamsManagement asks for TLSv1, which newer JDKs disable by
+	// default.  Only affects this JVM, and must run before any TLS use.
+	private static void allowTLSv1() {
+		String disabled = Security.getProperty("jdk.tls.disabledAlgorithms");
+		if (null == disabled)
+			return;
+		StringBuilder kept = new StringBuilder();
+		for (String algorithm : disabled.split(",")) {
+			String trimmed = algorithm.trim();
+			if ((trimmed.equals("TLSv1")) || (trimmed.equals("TLSv1.1")))
+				continue;
+			if (kept.length() > 0)
+				kept.append(", ");
+			kept.append(trimmed);
+		}
+		Security.setProperty("jdk.tls.disabledAlgorithms", kept.toString());
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+//
+// Job status and metrics snapshots shaped like the ones the
+// Streams JMX job bean hands out (snapshot/snapshotMetrics), made
+// up for benchmarks and the simulator.  The size of a job is set
+// by the number of PEs, operators per PE, ports per operator and
+// metrics per object.
+//
+class SyntheticSnapshots {
+
+	private final int _pes;
+	private final int _operators;
+	private final int _ports;
+	private final int _metrics;
+
+
+	//***********************************************
+	// constructor
+	// counts per job, per PE, per operator and per
+	// PE, operator or port
+	//***********************************************
+	SyntheticSnapshots(int pes, int operators, int ports, int metrics) {
+		_pes = pes;
+		_operators = operators;
+		_ports = ports;
+		_metrics = metrics;
+	}
+
+	//***********************************************
+	// Metrics snapshot of a job.  Values grow with
+	// time so rates come out positive.
+	//***********************************************
+	String metrics(long jobId, long time) {
+		StringBuilder out = new StringBuilder(256 * _pes * _operators * (_ports + 1) * _metrics);
+		out.append("{\"id\":\"").append(jobId).append("\",\"pes\":[");
+		for (int pe = 0; pe < _pes; pe++) {
+			long peId = jobId * _pes + pe;
+			if (pe > 0)
+				out.append(',');
+			out.append("{\"id\":\"").append(peId).append("\",\"lastTimeRetrieved\":").append(time).append(',');
+			appendMetrics(out, "nCpuMilliseconds", peId, time);
+			out.append(",\"operators\":[");
+			for (int op = 0; op < _operators; op++) {
+				if (op > 0)
+					out.append(',');
+				out.append("{\"name\":\"op").append(pe).append('_').append(op).append("\",");
+				appendMetrics(out, "nExceptionsCaught", op, time);
+				out.append(",\"inputPorts\":[");
+				appendPorts(out, "nTuplesProcessed", op, time);
+				out.append("],\"outputPorts\":[");
+				appendPorts(out, "nTuplesSubmitted", op, time);
+				out.append("]}");
+			}
+			out.append("]}");
+		}
+		out.append("]}");
+		return(out.toString());
+	}
+
+	//***********************************************
+	// Status snapshot of a job
+	//***********************************************
+	String status(long jobId, String jobName, long time) {
+		StringBuilder out = new StringBuilder(256 * _pes * (_operators + 1));
+		out.append("{\"id\":\"").append(jobId).append("\",\"name\":\"").append(jobName);
+		out.append("\",\"health\":\"healthy\",\"status\":\"running\",\"submitTime\":").append(time);
+		out.append(",\"pes\":[");
+		for (int pe = 0; pe < _pes; pe++) {
+			if (pe > 0)
+				out.append(',');
+			out.append("{\"id\":\"").append(jobId * _pes + pe).append("\",\"health\":\"healthy\",\"status\":\"running\",\"launchCount\":1,\"operators\":[");
+			for (int op = 0; op < _operators; op++) {
+				if (op > 0)
+					out.append(',');
+				out.append("{\"name\":\"op").append(pe).append('_').append(op).append("\",\"kind\":\"spl.relational::Functor\"}");
+			}
+			out.append("]}");
+		}
+		out.append("]}");
+		return(out.toString());
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private void appendPorts(StringBuilder out, String metric, long seed, long time) {
+		for (int port = 0; port < _ports; port++) {
+			if (port > 0)
+				out.append(',');
+			out.append("{\"indexWithinOperator\":").append(port).append(',');
+			appendMetrics(out, metric, seed + port, time);
+			out.append('}');
+		}
+	}
+
+	private void appendMetrics(StringBuilder out, String first, long seed, long time) {
+		out.append("\"metrics\":[");
+		for (int i = 0; i < _metrics; i++) {
+			if (i > 0)
+				out.append(',');
+			String name = (0 == i) ? first : "metric" + i;
+			out.append("{\"name\":\"").append(name).append("\",\"value\":").append((time / 1000) * (seed + i + 1));
+			out.append(",\"lastTimeRetrieved\":").append(time).append('}');
+		}
+		out.append(']');
+	}
+}
@@ -0,0 +1,152 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+//
+// Application ids of bundles already deployed to an instance,
+// keyed by the SHA-256 of the bundle, so resubmitting the same
+// bundle can skip deployApplication and the upload.
+//
+// The map is kept in a properties file so it outlives the
+// process.  An entry may point at an application the server no
+// longer has; callers remove it when a submit with it fails.
+//
+class ApplicationCache {
+
+	private final File _file;
+	private Properties _applications = null;
+	private long _loaded = 0;   // time of the file when it was read
+
+	// hashes of bundles already read, by path, size and time
+	private ConcurrentHashMap<String,String> _hashes = new ConcurrentHashMap<String,String>();
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	ApplicationCache(File file) {
+		_file = file;
+	}
+
+	File getFile() {
+		return(_file);
+	}
+
+	//***********************************************
+	// Application id of a bundle, or null
+	//***********************************************
+	synchronized BigInteger get(String domainName, String instanceName, String hash) throws IOException {
+		String id = getApplications().getProperty(getKey(domainName, instanceName, hash));
+		if (null == id)
+			return(null);
+		try {
+			return(new BigInteger(id));
+		} catch (NumberFormatException e) {
+			return(null);
+		}
+	}
+
+	synchronized void put(String domainName, String instanceName, String hash, BigInteger applicationId) throws IOException {
+		getApplications().setProperty(getKey(domainName, instanceName, hash), applicationId.toString());
+		save();
+	}
+
+	synchronized void remove(String domainName, String instanceName, String hash) throws IOException {
+		if (null != getApplications().remove(getKey(domainName, instanceName, hash)))
+			save();
+	}
+
+	//***********************************************
+	// SHA-256 of a bundle as hex.  A bundle is only
+	// read again when its size or time changes.
+	//***********************************************
+	String hash(File bundle) throws Exception {
+		String fileKey = bundle.getCanonicalPath() + "\u0000" + bundle.length() + "\u0000" + bundle.lastModified();
+		String hash = _hashes.get(fileKey);
+		if (null != hash)
+			return(hash);
+
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		FileChannel in = new FileInputStream(bundle).getChannel();
+		try {
+			ByteBuffer buffer = ByteBuffer.allocateDirect(1024*256);
+			while (-1 != in.read(buffer)) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+		} finally {
+			in.close();
+		}
+		hash = String.format("%064x", new BigInteger(1, digest.digest()));
+		_hashes.put(fileKey, hash);
+		return(hash);
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private static String getKey(String domainName, String instanceName, String hash) {
+		return(domainName + "/" + instanceName + "/" + hash);
+	}
+
+	// Read the file on first use and again when another process has
+	// changed it; a missing or unreadable file is an empty cache
+	private Properties getApplications() {
+		if ((null == _applications) || (_file.lastModified() != _loaded)) {
+			_applications = new Properties();
+			_loaded = _file.lastModified();
+			if (_file.isFile()) {
+				try {
+					FileInputStream in = new FileInputStream(_file);
+					try {
+						_applications.load(in);
+					} finally {
+						in.close();
+					}
+				} catch (IOException e) {
+					_applications.clear();
+				}
+			}
+		}
+		return(_applications);
+	}
+
+	// Write a temporary file and rename it, so readers never see half a file
+	private void save() throws IOException {
+		File dir = _file.getAbsoluteFile().getParentFile();
+		if ((null != dir) && (!dir.isDirectory()) && (!dir.mkdirs()))
+			throw new IOException("Unable to create directory " + dir);
+		File temp = File.createTempFile(_file.getName(), ".tmp", dir);
+		try {
+			FileOutputStream out = new FileOutputStream(temp);
+			try {
+				_applications.store(out, "Streams application ids by bundle SHA-256");
+			} finally {
+				out.close();
+			}
+			Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			_loaded = _file.lastModified();
+		} finally {
+			temp.delete();
+		}
+	}
+}
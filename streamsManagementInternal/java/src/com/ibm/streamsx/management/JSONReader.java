@@ -0,0 +1,357 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.util.Arrays;
+
+//
+// Pull parser over JSON text.  Tokens are read one at a time
+// so large snapshots can be checked or walked without building
+// a JSONObject tree.
+//
+class JSONReader {
+
+	enum Token { BEGIN_OBJECT, END_OBJECT, BEGIN_ARRAY, END_ARRAY, NAME, STRING, NUMBER, BOOLEAN, NULL, END_DOCUMENT }
+
+	// What the reader expects next in the enclosing scope
+	private static final int EMPTY_DOCUMENT    = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_OBJECT      = 2;
+	private static final int NONEMPTY_OBJECT   = 3;
+	private static final int DANGLING_NAME     = 4;
+	private static final int EMPTY_ARRAY       = 5;
+	private static final int NONEMPTY_ARRAY    = 6;
+
+	private final String _in;
+	private int _pos = 0;
+	private int[] _scopes = new int[32];
+	private int _depth = 1;
+	private Token _peeked = null;
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	JSONReader(String in) {
+		_in = in;
+		_scopes[0] = EMPTY_DOCUMENT;
+	}
+
+	//***********************************************
+	// Check that the text is exactly one well formed
+	// JSON value.  Throws if it is not.
+	//***********************************************
+	static void validate(String in) throws Exception {
+		JSONReader reader = new JSONReader(in);
+		reader.skipValue();
+		if (Token.END_DOCUMENT != reader.peek())
+			throw reader.error("Unexpected data after JSON value");
+	}
+
+	//***********************************************
+	// Type of the next token, without consuming it
+	//***********************************************
+	Token peek() throws Exception {
+		if (null != _peeked)
+			return(_peeked);
+
+		int scope = _scopes[_depth - 1];
+		if (EMPTY_ARRAY == scope) {
+			_scopes[_depth - 1] = NONEMPTY_ARRAY;
+			if (']' == nextNonWhitespace())
+				return(_peeked = Token.END_ARRAY);
+		}
+		else if (NONEMPTY_ARRAY == scope) {
+			char c = nextNonWhitespace();
+			if (']' == c)
+				return(_peeked = Token.END_ARRAY);
+			if (',' != c)
+				throw error("Expected ',' or ']'");
+			_pos++;
+		}
+		else if ((EMPTY_OBJECT == scope) || (NONEMPTY_OBJECT == scope)) {
+			char c = nextNonWhitespace();
+			if ('}' == c)
+				return(_peeked = Token.END_OBJECT);
+			if (NONEMPTY_OBJECT == scope) {
+				if (',' != c)
+					throw error("Expected ',' or '}'");
+				_pos++;
+				c = nextNonWhitespace();
+			}
+			if ('"' != c)
+				throw error("Expected a name");
+			_scopes[_depth - 1] = DANGLING_NAME;
+			return(_peeked = Token.NAME);
+		}
+		else if (DANGLING_NAME == scope) {
+			if (':' != nextNonWhitespace())
+				throw error("Expected ':'");
+			_pos++;
+			_scopes[_depth - 1] = NONEMPTY_OBJECT;
+		}
+		else if (EMPTY_DOCUMENT == scope) {
+			_scopes[_depth - 1] = NONEMPTY_DOCUMENT;
+		}
+		else {
+			skipWhitespace();
+			if (_pos >= _in.length())
+				return(_peeked = Token.END_DOCUMENT);
+			throw error("Unexpected data after JSON value");
+		}
+
+		// a value
+		char c = nextNonWhitespace();
+		switch (c) {
+		case '{':  return(_peeked = Token.BEGIN_OBJECT);
+		case '[':  return(_peeked = Token.BEGIN_ARRAY);
+		case '"':  return(_peeked = Token.STRING);
+		case 't':
+		case 'f':  return(_peeked = Token.BOOLEAN);
+		case 'n':  return(_peeked = Token.NULL);
+		default:
+			if (('-' == c) || ((c >= '0') && (c <= '9')))
+				return(_peeked = Token.NUMBER);
+			throw error("Unexpected character '" + c + "'");
+		}
+	}
+
+	//***********************************************
+	// Structure
+	//***********************************************
+	void beginObject() throws Exception {
+		expect(Token.BEGIN_OBJECT);
+		_pos++;
+		push(EMPTY_OBJECT);
+	}
+
+	void endObject() throws Exception {
+		expect(Token.END_OBJECT);
+		_peeked = null;
+		_pos++;
+		_depth--;
+	}
+
+	void beginArray() throws Exception {
+		expect(Token.BEGIN_ARRAY);
+		_pos++;
+		push(EMPTY_ARRAY);
+	}
+
+	void endArray() throws Exception {
+		expect(Token.END_ARRAY);
+		_peeked = null;
+		_pos++;
+		_depth--;
+	}
+
+	//***********************************************
+	// True if the current object or array has
+	// another member
+	//***********************************************
+	boolean hasNext() throws Exception {
+		Token next = peek();
+		return((Token.END_OBJECT != next) && (Token.END_ARRAY != next) && (Token.END_DOCUMENT != next));
+	}
+
+	//***********************************************
+	// Values
+	//***********************************************
+	String nextName() throws Exception {
+		expect(Token.NAME);
+		return(readString());
+	}
+
+	String nextString() throws Exception {
+		expect(Token.STRING);
+		return(readString());
+	}
+
+	// Number as it appears in the text
+	String nextNumber() throws Exception {
+		expect(Token.NUMBER);
+		_peeked = null;
+		int start = _pos;
+		if ('-' == current())
+			_pos++;
+		if ('0' == current())
+			_pos++;
+		else if (!skipDigits())
+			throw error("Malformed number");
+		if ('.' == current()) {
+			_pos++;
+			if (!skipDigits())
+				throw error("Malformed number");
+		}
+		if (('e' == current()) || ('E' == current())) {
+			_pos++;
+			if (('+' == current()) || ('-' == current()))
+				_pos++;
+			if (!skipDigits())
+				throw error("Malformed number");
+		}
+		return(_in.substring(start, _pos));
+	}
+
+	boolean nextBoolean() throws Exception {
+		expect(Token.BOOLEAN);
+		_peeked = null;
+		if (_in.startsWith("true", _pos)) {
+			_pos += 4;
+			return(true);
+		}
+		if (_in.startsWith("false", _pos)) {
+			_pos += 5;
+			return(false);
+		}
+		throw error("Malformed literal");
+	}
+
+	void nextNull() throws Exception {
+		expect(Token.NULL);
+		_peeked = null;
+		if (!_in.startsWith("null", _pos))
+			throw error("Malformed literal");
+		_pos += 4;
+	}
+
+	//***********************************************
+	// Skip the next value, including everything
+	// nested inside it
+	//***********************************************
+	void skipValue() throws Exception {
+		int depth = 0;
+		do {
+			switch (peek()) {
+			case BEGIN_OBJECT:  beginObject(); depth++; break;
+			case BEGIN_ARRAY:   beginArray(); depth++; break;
+			case END_OBJECT:    endObject(); depth--; break;
+			case END_ARRAY:     endArray(); depth--; break;
+			case NAME:          nextName(); break;
+			case STRING:        nextString(); break;
+			case NUMBER:        nextNumber(); break;
+			case BOOLEAN:       nextBoolean(); break;
+			case NULL:          nextNull(); break;
+			default:            throw error("Unexpected end of document");
+			}
+		} while (depth > 0);
+	}
+
+
+	//***********************************************
+	// Text of the next value, including everything
+	// nested inside it
+	//***********************************************
+	String nextRaw() throws Exception {
+		peek();
+		int start = _pos;
+		skipValue();
+		return(_in.substring(start, _pos));
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private void expect(Token token) throws Exception {
+		Token next = peek();
+		if (token != next)
+			throw error("Expected " + token + " but found " + next);
+	}
+
+	private void push(int scope) {
+		_peeked = null;
+		if (_depth == _scopes.length)
+			_scopes = Arrays.copyOf(_scopes, _depth * 2);
+		_scopes[_depth++] = scope;
+	}
+
+	private char current() {
+		return((_pos < _in.length()) ? _in.charAt(_pos) : 0);
+	}
+
+	private boolean skipDigits() {
+		int start = _pos;
+		while ((_pos < _in.length()) && (_in.charAt(_pos) >= '0') && (_in.charAt(_pos) <= '9'))
+			_pos++;
+		return(_pos > start);
+	}
+
+	private void skipWhitespace() {
+		while (_pos < _in.length()) {
+			char c = _in.charAt(_pos);
+			if ((' ' != c) && ('\n' != c) && ('\r' != c) && ('\t' != c))
+				return;
+			_pos++;
+		}
+	}
+
+	private char nextNonWhitespace() throws Exception {
+		skipWhitespace();
+		if (_pos >= _in.length())
+			throw error("Unexpected end of document");
+		return(_in.charAt(_pos));
+	}
+
+	// _pos is at the opening quote
+	private String readString() throws Exception {
+		_peeked = null;
+		_pos++;
+		int start = _pos;
+		StringBuilder sb = null;
+		while (_pos < _in.length()) {
+			char c = _in.charAt(_pos);
+			if ('"' == c) {
+				String value = (null == sb) ? _in.substring(start, _pos) : sb.append(_in, start, _pos).toString();
+				_pos++;
+				return(value);
+			}
+			if (c < 0x20)
+				throw error("Unescaped control character in string");
+			if ('\\' != c) {
+				_pos++;
+				continue;
+			}
+
+			if (null == sb)
+				sb = new StringBuilder();
+			sb.append(_in, start, _pos);
+			_pos++;
+			if (_pos >= _in.length())
+				break;
+			char escaped = _in.charAt(_pos++);
+			switch (escaped) {
+			case '"':  sb.append('"'); break;
+			case '\\': sb.append('\\'); break;
+			case '/':  sb.append('/'); break;
+			case 'b':  sb.append('\b'); break;
+			case 'f':  sb.append('\f'); break;
+			case 'n':  sb.append('\n'); break;
+			case 'r':  sb.append('\r'); break;
+			case 't':  sb.append('\t'); break;
+			case 'u':
+				if (_pos + 4 > _in.length())
+					throw error("Malformed unicode escape");
+				try {
+					sb.append((char)(Integer.parseInt(_in.substring(_pos, _pos + 4), 16)));
+				} catch (NumberFormatException e) {
+					throw error("Malformed unicode escape");
+				}
+				_pos += 4;
+				break;
+			default:
+				throw error("Invalid escape character '" + escaped + "'");
+			}
+			start = _pos;
+		}
+		throw error("Unterminated string");
+	}
+
+	private Exception error(String msg) {
+		return(new Exception("Malformed JSON at offset " + _pos + ": " + msg));
+	}
+}
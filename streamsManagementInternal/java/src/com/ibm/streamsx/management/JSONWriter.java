@@ -0,0 +1,63 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.Writer;
+
+//
+// Helpers for writing JSON text directly to a Writer
+// when the document is too large to assemble as a JSONObject.
+//
+class JSONWriter {
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	//***********************************************
+	// Write a quoted, escaped JSON string
+	//***********************************************
+	static void writeString(Writer out, CharSequence value) throws IOException {
+		out.write('"');
+		int len = value.length();
+		int start = 0;
+		for (int i = 0; i < len; i++) {
+			char c = value.charAt(i);
+			String escape = null;
+			if ('"' == c)
+				escape = "\\\"";
+			else if ('\\' == c)
+				escape = "\\\\";
+			else if ('\n' == c)
+				escape = "\\n";
+			else if ('\r' == c)
+				escape = "\\r";
+			else if ('\t' == c)
+				escape = "\\t";
+			else if (c < 0x20)
+				escape = new String(new char[] {'\\', 'u', '0', '0', HEX[c >> 4], HEX[c & 0xf]});
+			else
+				continue;
+			
+			// write the unescaped run before this character
+			if (i > start)
+				out.append(value, start, i);
+			out.write(escape);
+			start = i + 1;
+		}
+		if (len > start)
+			out.append(value, start, len);
+		out.write('"');
+	}
+	
+	//***********************************************
+	// Write a name and the ':' that follows it
+	//***********************************************
+	static void writeName(Writer out, CharSequence name) throws IOException {
+		writeString(out, name);
+		out.write(':');
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+//
+// A condition on a job that waitFor waits for:
+//   allPEsRunning  - every PE of the job has status running
+//   allPEsHealthy  - every PE of the job has health healthy
+//   jobHealthy     - the job has health healthy
+//   jobGone        - the job is no longer in the instance
+//   metricAbove    - a metric, given by a SnapshotQuery path,
+//                    is over a threshold
+// A job without PEs does not meet the PE conditions, so a
+// job that is still being placed is not taken as ready.
+//
+class JobCondition {
+
+	static final String ALL_PES_RUNNING = "allPEsRunning";
+	static final String ALL_PES_HEALTHY = "allPEsHealthy";
+	static final String JOB_HEALTHY     = "jobHealthy";
+	static final String JOB_GONE        = "jobGone";
+	static final String METRIC_ABOVE    = "metricAbove";
+
+	static final List<String> NAMES = Arrays.asList(ALL_PES_RUNNING, ALL_PES_HEALTHY, JOB_HEALTHY, JOB_GONE, METRIC_ABOVE);
+
+	final String name;
+	final long jobId;
+	private final SnapshotQuery.Path _metricPath;
+	private final double _threshold;
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	private JobCondition(String name, long jobId, SnapshotQuery.Path metricPath, double threshold) {
+		this.name = name;
+		this.jobId = jobId;
+		_metricPath = metricPath;
+		_threshold = threshold;
+	}
+
+	//***********************************************
+	// Any condition but metricAbove
+	//***********************************************
+	static JobCondition forJob(String name, long jobId) throws Exception {
+		if ((!NAMES.contains(name)) || (name.equals(METRIC_ABOVE)))
+			throw new Exception("Unknown job condition:  " + name);
+		return(new JobCondition(name, jobId, null, 0));
+	}
+
+	//***********************************************
+	// metricAbove, for a path ending in
+	// metric/<metricName>
+	//***********************************************
+	static JobCondition metricAbove(String path, double threshold) throws Exception {
+		SnapshotQuery.Path metricPath = SnapshotQuery.Path.parse(path);
+		if (!metricPath.needsMetrics())
+			throw new Exception("Path does not name a metric:  " + path);
+		return(new JobCondition(METRIC_ABOVE, metricPath.jobId, metricPath, threshold));
+	}
+
+	boolean isJobGone() {
+		return(name.equals(JOB_GONE));
+	}
+
+	boolean needsMetrics() {
+		return(null != _metricPath);
+	}
+
+	//***********************************************
+	// Whether the condition holds for a job's status
+	// snapshot and, for metricAbove, its metrics
+	// snapshot.  Not for jobGone, which is about the
+	// instance.
+	//***********************************************
+	boolean isMet(String statusJSON, String metricsJSON) throws Exception {
+		if (name.equals(ALL_PES_RUNNING))
+			return(allPEsHave(statusJSON, "status", "running"));
+		if (name.equals(ALL_PES_HEALTHY))
+			return(allPEsHave(statusJSON, "health", "healthy"));
+		if (name.equals(JOB_HEALTHY))
+			return("healthy".equals(getJobMember(statusJSON, "health")));
+		if (name.equals(METRIC_ABOVE)) {
+			StringWriter value = new StringWriter();
+			new SnapshotQuery(statusJSON, metricsJSON).writeValue(value, _metricPath);
+			try {
+				return(Double.parseDouble(value.toString()) > _threshold);
+			} catch (NumberFormatException e) {
+				return(false);     // no such metric (null)
+			}
+		}
+		throw new Exception("Condition " + name + " does not apply to snapshots");
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private static String getJobMember(String statusJSON, String member) throws Exception {
+		JSONReader reader = new JSONReader(statusJSON);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if ((reader.nextName().equals(member)) && (JSONReader.Token.STRING == reader.peek()))
+				return(reader.nextString());
+			reader.skipValue();
+		}
+		return(null);
+	}
+
+	// Stops at the first PE without the value
+	private static boolean allPEsHave(String statusJSON, String member, String expected) throws Exception {
+		JSONReader reader = new JSONReader(statusJSON);
+		int pes = 0;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("pes")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while (reader.hasNext()) {
+				pes++;
+				boolean has = false;
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if ((reader.nextName().equals(member)) && (JSONReader.Token.STRING == reader.peek()))
+						has = expected.equals(reader.nextString());
+					else
+						reader.skipValue();
+				}
+				reader.endObject();
+				if (!has)
+					return(false);
+			}
+			reader.endArray();
+		}
+		return(pes > 0);
+	}
+}
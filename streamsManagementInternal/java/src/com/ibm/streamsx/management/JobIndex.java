@@ -0,0 +1,119 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.math.BigInteger;
+
+//
+// Name and job group of every job in one instance, so a job
+// can be found by name without asking each job bean for its name.
+// Names that were looked up and not found are remembered for a
+// short time.
+//
+class JobIndex {
+
+	// How long a failed name lookup is remembered
+	static final long NEGATIVE_TTL_MILLIS = 5000;
+
+	private HashMap<Long,String> _names = new HashMap<Long,String>();
+	private HashMap<Long,String> _groups = new HashMap<Long,String>();
+	private HashMap<String,Long> _idsByName = new HashMap<String,Long>();
+	private HashMap<String,Long> _misses = new HashMap<String,Long>();
+
+
+	//***********************************************
+	// Add a job
+	//***********************************************
+	synchronized void put(long jobId, String name, String group) {
+		_names.put(jobId, name);
+		_groups.put(jobId, group);
+		_idsByName.put(name, jobId);
+		_misses.remove(name);
+	}
+
+	//***********************************************
+	// Drop jobs that are no longer in the instance
+	//***********************************************
+	synchronized void retain(Set<BigInteger> jobIds) {
+		Iterator<Map.Entry<Long,String>> it = _names.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Long,String> next = it.next();
+			if (!jobIds.contains(BigInteger.valueOf(next.getKey()))) {
+				_groups.remove(next.getKey());
+				Long indexed = _idsByName.get(next.getValue());
+				if ((null != indexed) && (indexed.equals(next.getKey())))
+					_idsByName.remove(next.getValue());
+				it.remove();
+			}
+		}
+	}
+
+	//***********************************************
+	// Remove a single job
+	//***********************************************
+	synchronized void remove(long jobId) {
+		String name = _names.remove(jobId);
+		_groups.remove(jobId);
+		if ((null != name) && (Long.valueOf(jobId).equals(_idsByName.get(name))))
+			_idsByName.remove(name);
+	}
+
+	synchronized boolean contains(long jobId) {
+		return(_names.containsKey(jobId));
+	}
+
+	//***********************************************
+	// Job ID for a name, or null if not indexed
+	//***********************************************
+	synchronized Long getId(String name) {
+		return(_idsByName.get(name));
+	}
+
+	synchronized String getName(long jobId) {
+		return(_names.get(jobId));
+	}
+
+	synchronized String getGroup(long jobId) {
+		return(_groups.get(jobId));
+	}
+
+	//***********************************************
+	// Negative results
+	//***********************************************
+	synchronized void addMiss(String name) {
+		_misses.put(name, System.currentTimeMillis());
+	}
+
+	synchronized boolean isRecentMiss(String name) {
+		Long missedAt = _misses.get(name);
+		if (null == missedAt)
+			return(false);
+		if (System.currentTimeMillis() - missedAt > NEGATIVE_TTL_MILLIS) {
+			_misses.remove(name);
+			return(false);
+		}
+		return(true);
+	}
+
+	synchronized void clearMisses() {
+		_misses.clear();
+	}
+
+	//***********************************************
+	// Forget everything
+	//***********************************************
+	synchronized void clear() {
+		_names.clear();
+		_groups.clear();
+		_idsByName.clear();
+		_misses.clear();
+	}
+}
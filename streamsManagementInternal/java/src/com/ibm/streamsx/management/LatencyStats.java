@@ -0,0 +1,207 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+//
+// Counts and latency histograms by operation (JMX connect, job
+// registration, snapshot calls, HTTPS reads, serialization ...),
+// to tell which stage a slow request spent its time in.
+//
+// Each operation has a log-linear histogram of microseconds:
+// exact below 64us, then 32 buckets per power of two, so a
+// percentile is within about 3% of the true value.  Recording is
+// a clock read and two atomic adds; no locks and no allocation
+// once an operation has been seen.
+//
+// Snapshots can be subtracted, which gives the stats of just the
+// operations between two points in time.
+//
+class LatencyStats {
+
+	private static final int LINEAR = 64;
+	private static final int SUB_BUCKETS = 32;       // per power of two above LINEAR
+	private static final int BUCKETS = LINEAR + (64 - 6) * SUB_BUCKETS;
+
+	private static class Histogram {
+		final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+		final AtomicLong totalNanos = new AtomicLong(0);
+	}
+
+	private final ConcurrentHashMap<String,Histogram> _operations = new ConcurrentHashMap<String,Histogram>();
+
+
+	//***********************************************
+	// Record an operation that started at startNanos
+	// (a System.nanoTime() value)
+	//***********************************************
+	void record(String operation, long startNanos) {
+		long nanos = System.nanoTime() - startNanos;
+		Histogram histogram = _operations.get(operation);
+		if (null == histogram) {
+			histogram = new Histogram();
+			Histogram existing = _operations.putIfAbsent(operation, histogram);
+			if (null != existing)
+				histogram = existing;
+		}
+		histogram.counts.incrementAndGet(getBucket(Math.max(nanos, 0) / 1000));
+		histogram.totalNanos.addAndGet(nanos);
+	}
+
+	void reset() {
+		_operations.clear();
+	}
+
+	//***********************************************
+	// Copy of the counts so far
+	//***********************************************
+	Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot();
+		for (Map.Entry<String,Histogram> next : _operations.entrySet()) {
+			long[] counts = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++)
+				counts[i] = next.getValue().counts.get(i);
+			snapshot._counts.put(next.getKey(), counts);
+			snapshot._totalNanos.put(next.getKey(), next.getValue().totalNanos.get());
+		}
+		return(snapshot);
+	}
+
+	static class Snapshot {
+		private final TreeMap<String,long[]> _counts = new TreeMap<String,long[]>();
+		private final TreeMap<String,Long> _totalNanos = new TreeMap<String,Long>();
+
+		//***********************************************
+		// What was recorded since an earlier snapshot.
+		// Operations with nothing new are left out; an
+		// operation reset in between counts from the
+		// reset.
+		//***********************************************
+		Snapshot minus(Snapshot earlier) {
+			Snapshot diff = new Snapshot();
+			for (Map.Entry<String,long[]> next : _counts.entrySet()) {
+				long[] before = earlier._counts.get(next.getKey());
+				long totalNanos = _totalNanos.get(next.getKey());
+				long[] counts = next.getValue().clone();
+				long count = 0;
+				boolean wasReset = false;
+				for (int i = 0; i < BUCKETS; i++) {
+					if (null != before)
+						counts[i] -= before[i];
+					wasReset |= (counts[i] < 0);
+					count += counts[i];
+				}
+				if (wasReset)
+					counts = next.getValue();
+				else if (null != before)
+					totalNanos -= earlier._totalNanos.get(next.getKey());
+				if ((!wasReset) && (0 == count))
+					continue;
+				diff._counts.put(next.getKey(), counts);
+				diff._totalNanos.put(next.getKey(), totalNanos);
+			}
+			return(diff);
+		}
+
+		boolean isEmpty() {
+			return(_counts.isEmpty());
+		}
+
+		//***********************************************
+		// Write as
+		//   {"<operation>":{"count":n,"totalMillis":x,
+		//     "meanMillis":x,"p50Millis":x,"p90Millis":x,
+		//     "p99Millis":x,"maxMillis":x},..}
+		// Percentiles and max are the top of the bucket
+		// they fall in.
+		//***********************************************
+		void write(Writer out) throws IOException {
+			out.write('{');
+			boolean first = true;
+			for (Map.Entry<String,long[]> next : _counts.entrySet()) {
+				long[] counts = next.getValue();
+				long count = 0;
+				for (int i = 0; i < BUCKETS; i++)
+					count += counts[i];
+				double totalMillis = _totalNanos.get(next.getKey()) / 1e6;
+
+				if (!first)
+					out.write(',');
+				first = false;
+				JSONWriter.writeName(out, next.getKey());
+				out.write('{');
+				JSONWriter.writeName(out, "count");
+				out.write(Long.toString(count));
+				writeMillis(out, "totalMillis", totalMillis);
+				writeMillis(out, "meanMillis", totalMillis / count);
+				writeMillis(out, "p50Millis", getPercentile(counts, count, 0.50));
+				writeMillis(out, "p90Millis", getPercentile(counts, count, 0.90));
+				writeMillis(out, "p99Millis", getPercentile(counts, count, 0.99));
+				writeMillis(out, "maxMillis", getPercentile(counts, count, 1.0));
+				out.write('}');
+			}
+			out.write('}');
+		}
+
+		String toJSONString() {
+			try {
+				java.io.StringWriter out = new java.io.StringWriter();
+				write(out);
+				return(out.toString());
+			} catch (IOException e) {
+				throw new RuntimeException(e);   // cannot happen with a StringWriter
+			}
+		}
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private static int getBucket(long micros) {
+		if (micros < LINEAR)
+			return((int)micros);
+		int exponent = 63 - Long.numberOfLeadingZeros(micros);     // >= 6
+		int sub = (int)((micros >>> (exponent - 5)) & (SUB_BUCKETS - 1));
+		return(LINEAR + (exponent - 6) * SUB_BUCKETS + sub);
+	}
+
+	// Highest microsecond value that falls in a bucket
+	private static long getBucketTop(int bucket) {
+		if (bucket < LINEAR)
+			return(bucket);
+		int exponent = 6 + (bucket - LINEAR) / SUB_BUCKETS;
+		long sub = (bucket - LINEAR) % SUB_BUCKETS;
+		long width = 1L << (exponent - 5);
+		return((1L << exponent) + sub * width + width - 1);
+	}
+
+	private static double getPercentile(long[] counts, long count, double fraction) {
+		long rank = Math.max(1, (long)Math.ceil(count * fraction));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return(getBucketTop(i) / 1000.0);
+		}
+		return(0);
+	}
+
+	private static void writeMillis(Writer out, String name, double millis) throws IOException {
+		out.write(',');
+		JSONWriter.writeName(out, name);
+		out.write(String.format(Locale.ROOT, "%.3f", millis));
+	}
+}
@@ -0,0 +1,147 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+//
+// Recorded metric values of one job: a MetricSeries per PE,
+// operator and operator port metric, fed from job metrics
+// snapshots.
+//
+class MetricHistory {
+
+	private final int _capacity;
+	private LinkedHashMap<String,MetricSeries> _series = new LinkedHashMap<String,MetricSeries>();
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	MetricHistory(int capacity) {
+		_capacity = capacity;
+	}
+
+	//***********************************************
+	// Record the numeric metrics of a snapshot.
+	// Each PE's lastTimeRetrieved is the time of its
+	// samples.  Returns the number of samples added.
+	//***********************************************
+	int record(String metricsJSON) throws Exception {
+		int added = 0;
+		for (MetricSamples.Sample sample : MetricSamples.read(metricsJSON)) {
+			long value;
+			try {
+				value = Long.parseLong(sample.value);
+			} catch (NumberFormatException e) {
+				// not a counter or gauge
+				continue;
+			}
+			if (getSeries(sample).add(sample.time, value))
+				added++;
+		}
+		return(added);
+	}
+
+	synchronized List<MetricSeries> getSeries() {
+		return(new ArrayList<MetricSeries>(_series.values()));
+	}
+
+	//***********************************************
+	// Write the series that pass the filter as a JSON
+	// array.  Each entry has the last count samples
+	// (all when count < 1) as [time,value] pairs, and
+	// rate, min, max and avg over the samples of the
+	// last windowMillis (all when windowMillis < 1).
+	//***********************************************
+	void write(Writer out, MetricsFilter filter, int count, long windowMillis) throws IOException {
+		boolean first = true;
+		out.write('[');
+		for (MetricSeries series : getSeries()) {
+			if ((null != filter) && (!filter.matches(series.getPE(), series.getOperator(), series.getPortIndex(), series.getMetric())))
+				continue;
+			if (!first)
+				out.write(',');
+			writeSeries(out, series, count, windowMillis);
+			first = false;
+		}
+		out.write(']');
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private synchronized MetricSeries getSeries(MetricSamples.Sample sample) {
+		String key = sample.getKey();
+		MetricSeries series = _series.get(key);
+		if (null == series) {
+			series = new MetricSeries(sample.pe, sample.operator, sample.portKind, sample.portIndex, sample.metric, _capacity);
+			_series.put(key, series);
+		}
+		return(series);
+	}
+
+	private static void writeSeries(Writer out, MetricSeries series, int count, long windowMillis) throws IOException {
+		// one consistent view of the series while it is written
+		synchronized (series) {
+			int size = series.size();
+			out.write('{');
+			JSONWriter.writeName(out, "pe");
+			JSONWriter.writeString(out, String.valueOf(series.getPE()));
+			if (null != series.getOperator()) {
+				out.write(',');
+				JSONWriter.writeName(out, "operator");
+				JSONWriter.writeString(out, series.getOperator());
+			}
+			if (null != series.getPortKind()) {
+				out.write(',');
+				JSONWriter.writeName(out, series.getPortKind() + "Port");
+				JSONWriter.writeString(out, String.valueOf(series.getPortIndex()));
+			}
+			out.write(',');
+			JSONWriter.writeName(out, "metric");
+			JSONWriter.writeString(out, series.getMetric());
+
+			out.write(',');
+			JSONWriter.writeName(out, "samples");
+			out.write('[');
+			int firstSample = ((count < 1) || (count > size)) ? 0 : size - count;
+			for (int i = firstSample; i < size; i++) {
+				if (i > firstSample)
+					out.write(',');
+				out.write('[');
+				out.write(Long.toString(series.getTime(i)));
+				out.write(',');
+				out.write(Long.toString(series.getValue(i)));
+				out.write(']');
+			}
+			out.write(']');
+
+			if (size > 0) {
+				int firstInWindow = (windowMillis < 1) ? 0 : series.firstAtOrAfter(series.getTime(size - 1) - windowMillis);
+				out.write(',');
+				JSONWriter.writeName(out, "rate");
+				out.write(Double.toString(series.rate(firstInWindow)));
+				out.write(',');
+				JSONWriter.writeName(out, "min");
+				out.write(Long.toString(series.min(firstInWindow)));
+				out.write(',');
+				JSONWriter.writeName(out, "max");
+				out.write(Long.toString(series.max(firstInWindow)));
+				out.write(',');
+				JSONWriter.writeName(out, "avg");
+				out.write(Double.toString(series.avg(firstInWindow)));
+			}
+			out.write('}');
+		}
+	}
+}
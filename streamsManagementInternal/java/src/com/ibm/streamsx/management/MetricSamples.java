@@ -0,0 +1,219 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+//
+// Flattens a job metrics snapshot into one sample per PE,
+// operator and operator port metric.
+//
+class MetricSamples {
+
+	//***********************************************
+	// One metric value.  operator and the port are
+	// null for metrics that do not belong to one.
+	//***********************************************
+	static class Sample {
+		String pe;
+		String operator;
+		String portKind;     // "input" or "output"
+		String portIndex;
+		String metric;
+		String value;        // as it appears in the snapshot
+		boolean numeric;     // value was a JSON number
+		long time;           // lastTimeRetrieved of the PE
+
+		// Identifies the metric within the job
+		String getKey() {
+			return(pe + "\u0000" + operator + "\u0000" + portKind + "\u0000" + portIndex + "\u0000" + metric);
+		}
+
+		// Writes the value as it was in the snapshot
+		void writeValue(Writer out) throws IOException {
+			if (numeric)
+				out.write(value);
+			else
+				JSONWriter.writeString(out, value);
+		}
+
+		// Writes the labels as JSON members
+		void writeLabels(Writer out) throws IOException {
+			JSONWriter.writeName(out, "pe");
+			JSONWriter.writeString(out, String.valueOf(pe));
+			if (null != operator) {
+				out.write(',');
+				JSONWriter.writeName(out, "operator");
+				JSONWriter.writeString(out, operator);
+			}
+			if (null != portKind) {
+				out.write(',');
+				JSONWriter.writeName(out, portKind + "Port");
+				JSONWriter.writeString(out, String.valueOf(portIndex));
+			}
+			out.write(',');
+			JSONWriter.writeName(out, "metric");
+			JSONWriter.writeString(out, metric);
+		}
+	}
+
+
+	//***********************************************
+	// Samples of a metrics snapshot.  PEs without a
+	// lastTimeRetrieved get the current time.
+	//***********************************************
+	static List<Sample> read(String metricsJSON) throws Exception {
+		long now = System.currentTimeMillis();
+		List<Sample> samples = new ArrayList<Sample>();
+		JSONReader reader = new JSONReader(metricsJSON);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("pes")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			while (reader.hasNext())
+				readPE(reader, samples, now);
+			reader.endArray();
+		}
+		reader.endObject();
+		return(samples);
+	}
+
+
+	//***********************************************
+	// Internals
+	// Identifying members may come after the metrics
+	// in an object, so they are filled in once the
+	// object has been read.
+	//***********************************************
+	private static void readPE(JSONReader reader, List<Sample> samples, long now) throws Exception {
+		String pe = null;
+		long time = now;
+		int start = samples.size();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("id"))
+				pe = readScalar(reader);
+			else if (name.equals("lastTimeRetrieved")) {
+				try {
+					String value = readScalar(reader);
+					if (null != value)
+						time = Long.parseLong(value);
+				} catch (NumberFormatException e) {
+					// keep the current time
+				}
+			}
+			else if (name.equals("metrics"))
+				readMetrics(reader, samples, null);
+			else if (name.equals("operators")) {
+				reader.beginArray();
+				while (reader.hasNext())
+					readOperator(reader, samples);
+				reader.endArray();
+			}
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		for (int i = start; i < samples.size(); i++) {
+			samples.get(i).pe = pe;
+			samples.get(i).time = time;
+		}
+	}
+
+	private static void readOperator(JSONReader reader, List<Sample> samples) throws Exception {
+		String operator = null;
+		int start = samples.size();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("name"))
+				operator = readScalar(reader);
+			else if (name.equals("metrics"))
+				readMetrics(reader, samples, null);
+			else if ((name.equals("inputPorts")) || (name.equals("outputPorts"))) {
+				String kind = name.equals("inputPorts") ? "input" : "output";
+				reader.beginArray();
+				while (reader.hasNext())
+					readPort(reader, samples, kind);
+				reader.endArray();
+			}
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		for (int i = start; i < samples.size(); i++)
+			samples.get(i).operator = operator;
+	}
+
+	private static void readPort(JSONReader reader, List<Sample> samples, String kind) throws Exception {
+		String index = null;
+		int start = samples.size();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("indexWithinOperator"))
+				index = readScalar(reader);
+			else if (name.equals("metrics"))
+				readMetrics(reader, samples, kind);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		for (int i = start; i < samples.size(); i++)
+			samples.get(i).portIndex = index;
+	}
+
+	private static void readMetrics(JSONReader reader, List<Sample> samples, String portKind) throws Exception {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			String metric = null;
+			String value = null;
+			boolean numeric = false;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("name"))
+					metric = readScalar(reader);
+				else if (name.equals("value")) {
+					numeric = (JSONReader.Token.NUMBER == reader.peek());
+					value = readScalar(reader);
+				}
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+
+			if ((null == metric) || (null == value))
+				continue;
+			Sample sample = new Sample();
+			sample.portKind = portKind;
+			sample.metric = metric;
+			sample.value = value;
+			sample.numeric = numeric;
+			samples.add(sample);
+		}
+		reader.endArray();
+	}
+
+	// String or number as text, null for anything else
+	private static String readScalar(JSONReader reader) throws Exception {
+		switch (reader.peek()) {
+		case STRING:  return(reader.nextString());
+		case NUMBER:  return(reader.nextNumber());
+		default:
+			reader.skipValue();
+			return(null);
+		}
+	}
+}
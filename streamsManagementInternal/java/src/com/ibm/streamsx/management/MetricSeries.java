@@ -0,0 +1,143 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+//
+// Last samples of one metric.  Times and values are kept in
+// parallel long arrays used as a ring buffer, so a series takes
+// the same memory however long it is recorded.
+//
+class MetricSeries {
+
+	// Samples kept per series
+	static final int DEFAULT_CAPACITY = 360;
+
+	private final String _pe;
+	private final String _operator;
+	private final String _portKind;
+	private final String _portIndex;
+	private final String _metric;
+
+	private final long[] _times;
+	private final long[] _values;
+	private int _next = 0;
+	private int _count = 0;
+
+
+	//***********************************************
+	// constructor
+	// operator and port are null for metrics that
+	// do not belong to one.  portKind is "input" or
+	// "output".
+	//***********************************************
+	MetricSeries(String pe, String operator, String portKind, String portIndex, String metric, int capacity) {
+		_pe = pe;
+		_operator = operator;
+		_portKind = portKind;
+		_portIndex = portIndex;
+		_metric = metric;
+		_times = new long[capacity];
+		_values = new long[capacity];
+	}
+
+	String getPE()        { return(_pe); }
+	String getOperator()  { return(_operator); }
+	String getPortKind()  { return(_portKind); }
+	String getPortIndex() { return(_portIndex); }
+	String getMetric()    { return(_metric); }
+
+	//***********************************************
+	// Add a sample.  Samples that are not newer than
+	// the last one are ignored, so recording the same
+	// snapshot twice does not add anything.
+	//***********************************************
+	synchronized boolean add(long time, long value) {
+		if ((_count > 0) && (time <= getTime(_count - 1)))
+			return(false);
+		_times[_next] = time;
+		_values[_next] = value;
+		_next = (_next + 1) % _times.length;
+		if (_count < _times.length)
+			_count++;
+		return(true);
+	}
+
+	synchronized int size() {
+		return(_count);
+	}
+
+	//***********************************************
+	// Sample i, 0 being the oldest kept
+	//***********************************************
+	synchronized long getTime(int i) {
+		return(_times[index(i)]);
+	}
+
+	synchronized long getValue(int i) {
+		return(_values[index(i)]);
+	}
+
+	//***********************************************
+	// Index of the oldest sample taken at or after
+	// the given time
+	//***********************************************
+	synchronized int firstAtOrAfter(long time) {
+		int i = _count;
+		while ((i > 0) && (getTime(i - 1) >= time))
+			i--;
+		return(i);
+	}
+
+	//***********************************************
+	// Statistics over samples first .. size()-1
+	//***********************************************
+	synchronized long min(int first) {
+		long min = Long.MAX_VALUE;
+		for (int i = first; i < _count; i++)
+			min = Math.min(min, getValue(i));
+		return(min);
+	}
+
+	synchronized long max(int first) {
+		long max = Long.MIN_VALUE;
+		for (int i = first; i < _count; i++)
+			max = Math.max(max, getValue(i));
+		return(max);
+	}
+
+	synchronized double avg(int first) {
+		if (first >= _count)
+			return(0);
+		double sum = 0;
+		for (int i = first; i < _count; i++)
+			sum += getValue(i);
+		return(sum / (_count - first));
+	}
+
+	//***********************************************
+	// Per second increase of a counter.  A value that
+	// goes down is taken as a counter reset (e.g. a
+	// restarted PE), so the new value counts as the
+	// increase for that step.
+	//***********************************************
+	synchronized double rate(int first) {
+		if (_count - first < 2)
+			return(0);
+		long increase = 0;
+		for (int i = first + 1; i < _count; i++) {
+			long delta = getValue(i) - getValue(i - 1);
+			increase += (delta >= 0) ? delta : getValue(i);
+		}
+		long millis = getTime(_count - 1) - getTime(first);
+		return((millis > 0) ? (increase * 1000.0 / millis) : 0);
+	}
+
+
+	private int index(int i) {
+		return((_next - _count + i + _times.length) % _times.length);
+	}
+}
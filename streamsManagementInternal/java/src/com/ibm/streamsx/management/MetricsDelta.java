@@ -0,0 +1,112 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+//
+// Metric values of a job as last handed out, so the next
+// snapshot can be sent as just the metrics that changed.
+//
+// Each response carries a sequence number.  A caller that
+// passes back the sequence number of the last response it got
+// receives the changes since then; any other value (first call,
+// missed response, restarted server) gets every metric with
+// "full":true.  Sequence numbers start from the time the
+// tracker was made, so those of an earlier server do not match.
+//
+class MetricsDelta {
+
+	private long _sequence;
+	private HashMap<String,MetricSamples.Sample> _last = new HashMap<String,MetricSamples.Sample>();
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	MetricsDelta() {
+		_sequence = System.currentTimeMillis();
+	}
+
+	//***********************************************
+	// Write a snapshot as
+	//   {"jobId":n,"sequence":s,"full":b,
+	//    "metrics":[{"pe":..,"operator":..,"outputPort":..,
+	//                "metric":..,"value":..,"time":..},..],
+	//    "removed":[{"pe":..,..,"metric":..},..]}
+	// metrics holds changed (or all) metrics, removed
+	// those that are no longer in the snapshot.
+	//***********************************************
+	synchronized void write(Writer out, long jobId, String metricsJSON, long since) throws Exception {
+		List<MetricSamples.Sample> samples = MetricSamples.read(metricsJSON);
+		boolean full = (since != _sequence);
+		_sequence++;
+
+		out.write('{');
+		JSONWriter.writeName(out, "jobId");
+		out.write(Long.toString(jobId));
+		out.write(',');
+		JSONWriter.writeName(out, "sequence");
+		out.write(Long.toString(_sequence));
+		out.write(',');
+		JSONWriter.writeName(out, "full");
+		out.write(full ? "true" : "false");
+
+		out.write(',');
+		JSONWriter.writeName(out, "metrics");
+		out.write('[');
+		boolean first = true;
+		HashMap<String,MetricSamples.Sample> current = new HashMap<String,MetricSamples.Sample>();
+		for (MetricSamples.Sample sample : samples) {
+			String key = sample.getKey();
+			current.put(key, sample);
+			MetricSamples.Sample last = _last.get(key);
+			if ((!full) && (null != last) && (last.value.equals(sample.value)))
+				continue;
+			if (!first)
+				out.write(',');
+			out.write('{');
+			sample.writeLabels(out);
+			out.write(',');
+			JSONWriter.writeName(out, "value");
+			sample.writeValue(out);
+			out.write(',');
+			JSONWriter.writeName(out, "time");
+			out.write(Long.toString(sample.time));
+			out.write('}');
+			first = false;
+		}
+		out.write(']');
+
+		out.write(',');
+		JSONWriter.writeName(out, "removed");
+		out.write('[');
+		first = true;
+		if (!full) {
+			Iterator<Map.Entry<String,MetricSamples.Sample>> it = _last.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String,MetricSamples.Sample> next = it.next();
+				if (current.containsKey(next.getKey()))
+					continue;
+				if (!first)
+					out.write(',');
+				out.write('{');
+				next.getValue().writeLabels(out);
+				out.write('}');
+				first = false;
+			}
+		}
+		out.write(']');
+		out.write('}');
+
+		_last = current;
+	}
+}
@@ -0,0 +1,243 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+//
+// Serves the PE, operator and operator port metrics of the jobs
+// of an instance over HTTP in OpenMetrics text format, for
+// Prometheus and compatible scrapers.
+//
+// The metrics are read on a background thread every refresh
+// interval and rendered once; a scrape only copies out the last
+// page.  Each sample is labelled with domain, streams_instance,
+// job_id, job_name, pe and, where they apply, operator and port.
+// (Prometheus sets instance and job on every scraped series
+// itself, so the Streams instance and job go by other names.)
+//
+class MetricsExporter implements HttpHandler {
+
+	static final String CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+	private final StreamsManagement _management;
+	private final String _zk;
+	private final String _domainName;
+	private final String _instanceName;
+	private final long _refreshMillis;
+
+	private HttpServer _server = null;
+	private ScheduledExecutorService _refresher = null;
+
+	// job metric families of the last good refresh, the
+	// page served, and how refreshing has gone
+	private volatile String _metricsText = "";
+	private volatile byte[] _page = null;
+	private volatile long _refreshed = 0;
+	private volatile long _refreshDuration = 0;
+	private volatile long _refreshErrors = 0;
+	private volatile int _jobs = 0;
+
+
+	//***********************************************
+	// constructor
+	// The exporter connects the management object
+	// itself, and again after a failed refresh.
+	//***********************************************
+	MetricsExporter(StreamsManagement management, String zk, String domainName, String instanceName, long refreshMillis) {
+		_management = management;
+		_zk = zk;
+		_domainName = domainName;
+		_instanceName = instanceName;
+		_refreshMillis = refreshMillis;
+	}
+
+	//***********************************************
+	// Serve /metrics on the port and start refreshing
+	//***********************************************
+	synchronized void start(int port) throws IOException {
+		_server = HttpServer.create(new InetSocketAddress(port), 0);
+		_server.createContext("/metrics", this);
+		_server.setExecutor(null);
+		_server.start();
+
+		_refresher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MetricsExporter-refresh");
+				t.setDaemon(true);
+				return(t);
+			}
+		});
+		_refresher.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				refresh();
+			}
+		}, 0, _refreshMillis, TimeUnit.MILLISECONDS);
+	}
+
+	synchronized void stop() {
+		if (null != _refresher) {
+			_refresher.shutdownNow();
+			_refresher = null;
+		}
+		if (null != _server) {
+			_server.stop(0);
+			_server = null;
+		}
+	}
+
+	//***********************************************
+	// Read the metrics and render the page.  On a
+	// failure the job metrics of the last good
+	// refresh are served on (with the error count
+	// going up) and the connection is dropped so the
+	// next refresh makes a new one.
+	//***********************************************
+	void refresh() {
+		long start = System.currentTimeMillis();
+		try {
+			_management.connectToJMX(_zk, _domainName);
+			SortedMap<Long,String> metrics = _management.getAllJobMetrics(_domainName, _instanceName);
+			_metricsText = render(metrics);
+			_jobs = metrics.size();
+			_refreshed = System.currentTimeMillis();
+			_refreshDuration = _refreshed - start;
+		} catch (Exception e) {
+			_refreshErrors++;
+			_management.disconnectFromJMX();
+		}
+		
+		StringBuilder page = new StringBuilder(_metricsText);
+		page.append("# TYPE streams_exporter_jobs gauge\n");
+		page.append("streams_exporter_jobs ").append(_jobs).append('\n');
+		page.append("# TYPE streams_exporter_last_refresh_timestamp_seconds gauge\n");
+		page.append("streams_exporter_last_refresh_timestamp_seconds ").append(_refreshed / 1000).append('\n');
+		page.append("# TYPE streams_exporter_refresh_duration_seconds gauge\n");
+		page.append("streams_exporter_refresh_duration_seconds ").append(_refreshDuration / 1000.0).append('\n');
+		page.append("# TYPE streams_exporter_refresh_errors counter\n");
+		page.append("streams_exporter_refresh_errors_total ").append(_refreshErrors).append('\n');
+		page.append("# EOF\n");
+		_page = page.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	//***********************************************
+	// HttpHandler
+	//***********************************************
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			if ((!"GET".equals(exchange.getRequestMethod())) && (!"HEAD".equals(exchange.getRequestMethod()))) {
+				exchange.sendResponseHeaders(405, -1);
+				return;
+			}
+			byte[] page = _page;
+			if (null == page) {
+				exchange.sendResponseHeaders(503, -1);
+				return;
+			}
+			exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+			if ("HEAD".equals(exchange.getRequestMethod())) {
+				exchange.sendResponseHeaders(200, -1);
+				return;
+			}
+			exchange.sendResponseHeaders(200, page.length);
+			OutputStream out = exchange.getResponseBody();
+			out.write(page);
+			out.close();
+		} finally {
+			exchange.close();
+		}
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+
+	// Job metric families; OpenMetrics wants the samples of a family together
+	private String render(SortedMap<Long,String> metricsByJob) throws Exception {
+		TreeMap<String,StringBuilder> families = new TreeMap<String,StringBuilder>();
+		for (Map.Entry<Long,String> job : metricsByJob.entrySet()) {
+			String jobName = _management.getJobName(_domainName, _instanceName, job.getKey());
+			for (MetricSamples.Sample sample : MetricSamples.read(job.getValue())) {
+				if (!sample.numeric)
+					continue;
+				String family = getFamily(sample);
+				StringBuilder samples = families.get(family);
+				if (null == samples) {
+					samples = new StringBuilder();
+					families.put(family, samples);
+				}
+				samples.append(family).append('{');
+				appendLabel(samples, "domain", _domainName).append(',');
+				appendLabel(samples, "streams_instance", _instanceName).append(',');
+				appendLabel(samples, "job_id", Long.toString(job.getKey()));
+				if (null != jobName)
+					appendLabel(samples.append(','), "job_name", jobName);
+				appendLabel(samples.append(','), "pe", String.valueOf(sample.pe));
+				if (null != sample.operator)
+					appendLabel(samples.append(','), "operator", sample.operator);
+				if (null != sample.portKind)
+					appendLabel(samples.append(','), "port", String.valueOf(sample.portIndex));
+				samples.append("} ").append(sample.value);
+				samples.append(' ').append(sample.time / 1000).append('.').append(String.format("%03d", sample.time % 1000));
+				samples.append('\n');
+			}
+		}
+
+		StringBuilder out = new StringBuilder();
+		for (Map.Entry<String,StringBuilder> family : families.entrySet()) {
+			out.append("# TYPE ").append(family.getKey()).append(" unknown\n");
+			out.append(family.getValue());
+		}
+		return(out.toString());
+	}
+
+	// e.g. streams_operator_input_port_nTuplesProcessed
+	private static String getFamily(MetricSamples.Sample sample) {
+		StringBuilder family = new StringBuilder("streams_");
+		if (null == sample.operator)
+			family.append("pe_");
+		else if (null == sample.portKind)
+			family.append("operator_");
+		else
+			family.append("operator_").append(sample.portKind).append("_port_");
+		for (int i = 0; i < sample.metric.length(); i++) {
+			char c = sample.metric.charAt(i);
+			boolean valid = ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (c == '_');
+			family.append(valid ? c : '_');
+		}
+		return(family.toString());
+	}
+
+	private static StringBuilder appendLabel(StringBuilder out, String name, String value) {
+		out.append(name).append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if ((c == '\\') || (c == '"'))
+				out.append('\\').append(c);
+			else if (c == '\n')
+				out.append("\\n");
+			else
+				out.append(c);
+		}
+		return(out.append('"'));
+	}
+}
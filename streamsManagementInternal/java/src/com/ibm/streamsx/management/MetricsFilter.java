@@ -0,0 +1,253 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.StringWriter;
+import java.util.regex.Pattern;
+
+//
+// Cuts a job metrics snapshot down to the PEs, operators, ports
+// and metrics whose id, name or index match include/exclude
+// patterns.  Patterns are regular expressions that only need to
+// match part of the value, as with perl's =~ operator.
+//
+// The snapshot is walked with a JSONReader and only the kept
+// parts are written out; a PE, operator or port is dropped once
+// a filter below it leaves it with no metrics.
+//
+class MetricsFilter {
+
+	// What an object in the snapshot is
+	private enum Level { JOB, PE, OPERATOR, PORT, METRIC, OTHER }
+
+	private Pattern _peInclude = null;
+	private Pattern _peExclude = null;
+	private Pattern _operatorInclude = null;
+	private Pattern _operatorExclude = null;
+	private Pattern _portInclude = null;
+	private Pattern _portExclude = null;
+	private Pattern _metricInclude = null;
+	private Pattern _metricExclude = null;
+
+	// An object after filtering
+	private static class Filtered {
+		final String text;
+		final int metrics;
+		Filtered(String text, int metrics) {
+			this.text = text;
+			this.metrics = metrics;
+		}
+	}
+
+
+	//***********************************************
+	// Patterns
+	// null leaves that level unfiltered
+	//***********************************************
+	void setPEPatterns(String include, String exclude) {
+		_peInclude = compile(include);
+		_peExclude = compile(exclude);
+	}
+
+	void setOperatorPatterns(String include, String exclude) {
+		_operatorInclude = compile(include);
+		_operatorExclude = compile(exclude);
+	}
+
+	void setPortPatterns(String include, String exclude) {
+		_portInclude = compile(include);
+		_portExclude = compile(exclude);
+	}
+
+	void setMetricPatterns(String include, String exclude) {
+		_metricInclude = compile(include);
+		_metricExclude = compile(exclude);
+	}
+
+	boolean isEmpty() {
+		return(!isFiltered(Level.PE) && !isFiltered(Level.OPERATOR) && !isFiltered(Level.PORT) && !isFiltered(Level.METRIC));
+	}
+
+	//***********************************************
+	// Filter a metrics snapshot
+	//***********************************************
+	String filter(String metricsJSON) throws Exception {
+		if (isEmpty())
+			return(metricsJSON);
+		JSONReader reader = new JSONReader(metricsJSON);
+		Filtered job = filterValue(reader, Level.JOB);
+		if (JSONReader.Token.END_DOCUMENT != reader.peek())
+			throw new Exception("Unexpected data after metrics snapshot");
+		return(job.text);
+	}
+
+
+	//***********************************************
+	// Check a single metric.  null parts (e.g. the
+	// operator of a PE metric) are not checked.
+	//***********************************************
+	boolean matches(String pe, String operator, String portIndex, String metric) {
+		return(((null == pe) || matches(Level.PE, pe)) &&
+			   ((null == operator) || matches(Level.OPERATOR, operator)) &&
+			   ((null == portIndex) || matches(Level.PORT, portIndex)) &&
+			   ((null == metric) || matches(Level.METRIC, metric)));
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+
+	// A value at the given level, or null if it is dropped
+	private Filtered filterValue(JSONReader reader, Level level) throws Exception {
+		JSONReader.Token token = reader.peek();
+		if (JSONReader.Token.BEGIN_OBJECT == token)
+			return(filterObject(reader, level));
+		if (JSONReader.Token.BEGIN_ARRAY == token)
+			return(filterArray(reader, level));
+		return(new Filtered(reader.nextRaw(), 0));
+	}
+
+	private Filtered filterArray(JSONReader reader, Level level) throws Exception {
+		StringWriter out = new StringWriter();
+		boolean first = true;
+		int metrics = 0;
+		out.write('[');
+		reader.beginArray();
+		while (reader.hasNext()) {
+			Filtered element = filterValue(reader, level);
+			if (null == element)
+				continue;
+			if (!first)
+				out.write(',');
+			out.write(element.text);
+			metrics += element.metrics;
+			first = false;
+		}
+		reader.endArray();
+		out.write(']');
+		return(new Filtered(out.toString(), metrics));
+	}
+
+	private Filtered filterObject(JSONReader reader, Level level) throws Exception {
+		StringWriter out = new StringWriter();
+		boolean first = true;
+		int metrics = (Level.METRIC == level) ? 1 : 0;
+		String keyName = getKeyName(level);
+		String key = null;
+		out.write('{');
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (!first)
+				out.write(',');
+			JSONWriter.writeName(out, name);
+			first = false;
+
+			JSONReader.Token token = reader.peek();
+			if ((name.equals(keyName)) && (JSONReader.Token.STRING == token)) {
+				key = reader.nextString();
+				JSONWriter.writeString(out, key);
+			}
+			else if ((name.equals(keyName)) && (JSONReader.Token.NUMBER == token)) {
+				key = reader.nextNumber();
+				out.write(key);
+			}
+			else {
+				Filtered member = filterValue(reader, getChildLevel(level, name));
+				out.write(member.text);
+				metrics += member.metrics;
+			}
+		}
+		reader.endObject();
+		out.write('}');
+
+		if ((null != key) && (!matches(level, key)))
+			return(null);
+		if ((0 == metrics) && (isFilteredBelow(level)))
+			return(null);
+		return(new Filtered(out.toString(), metrics));
+	}
+
+	// Level of the objects in a member of an object
+	private static Level getChildLevel(Level level, String name) {
+		if (name.equals("metrics"))
+			return(Level.METRIC);
+		switch (level) {
+		case JOB:
+			if (name.equals("pes"))
+				return(Level.PE);
+			break;
+		case PE:
+			if (name.equals("operators"))
+				return(Level.OPERATOR);
+			break;
+		case OPERATOR:
+			if ((name.equals("inputPorts")) || (name.equals("outputPorts")))
+				return(Level.PORT);
+			break;
+		default:
+			break;
+		}
+		// e.g. PE ports and connections; only the metrics in them are filtered
+		return(Level.OTHER);
+	}
+
+	// Member that identifies an object of a level
+	private static String getKeyName(Level level) {
+		switch (level) {
+		case PE:        return("id");
+		case OPERATOR:  return("name");
+		case PORT:      return("indexWithinOperator");
+		case METRIC:    return("name");
+		default:        return(null);
+		}
+	}
+
+	private boolean matches(Level level, String key) {
+		Pattern include = null;
+		Pattern exclude = null;
+		switch (level) {
+		case PE:        include = _peInclude;       exclude = _peExclude;       break;
+		case OPERATOR:  include = _operatorInclude; exclude = _operatorExclude; break;
+		case PORT:      include = _portInclude;     exclude = _portExclude;     break;
+		case METRIC:    include = _metricInclude;   exclude = _metricExclude;   break;
+		default:        return(true);
+		}
+		if ((null != include) && (!include.matcher(key).find()))
+			return(false);
+		if ((null != exclude) && (exclude.matcher(key).find()))
+			return(false);
+		return(true);
+	}
+
+	private boolean isFiltered(Level level) {
+		switch (level) {
+		case PE:        return((null != _peInclude) || (null != _peExclude));
+		case OPERATOR:  return((null != _operatorInclude) || (null != _operatorExclude));
+		case PORT:      return((null != _portInclude) || (null != _portExclude));
+		case METRIC:    return((null != _metricInclude) || (null != _metricExclude));
+		default:        return(false);
+		}
+	}
+
+	// Only PEs, operators and ports are dropped for having no metrics left
+	private boolean isFilteredBelow(Level level) {
+		switch (level) {
+		case PE:        return(isFiltered(Level.OPERATOR) || isFiltered(Level.PORT) || isFiltered(Level.METRIC));
+		case OPERATOR:  return(isFiltered(Level.PORT) || isFiltered(Level.METRIC));
+		case PORT:      return(isFiltered(Level.METRIC));
+		default:        return(false);
+		}
+	}
+
+	private static Pattern compile(String pattern) {
+		if ((null == pattern) || (0 == pattern.length()))
+			return(null);
+		return(Pattern.compile(pattern));
+	}
+}
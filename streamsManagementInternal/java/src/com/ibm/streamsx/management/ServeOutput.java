@@ -0,0 +1,216 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+//
+// Where an action's stdout goes in serve mode.  Output is
+// passed on as it is written, in frames of up to CHUNK_SIZE
+// bytes:
+//   {"id":1,"bytes":<n>}
+// followed by <n> bytes, so a large document is never held
+// whole.
+//
+// Lines starting with STATS: or EXCEPTION: are the markers
+// the single shot invocation prints after the output; they are
+// kept back and given by getStats and getException instead.
+// Newlines at the end of the output, and those before a
+// marker, are dropped, as the single shot output is trimmed.
+//
+class ServeOutput extends OutputStream {
+
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final byte[][] MARKERS = {
+		"STATS:".getBytes(StandardCharsets.UTF_8),
+		"EXCEPTION:".getBytes(StandardCharsets.UTF_8)
+	};
+	private static final int STATS = 0;
+	private static final int EXCEPTION = 1;
+
+	private final OutputStream _out;
+	private final long _id;
+	private final byte[] _chunk = new byte[CHUNK_SIZE];
+	private int _count = 0;
+	private long _written = 0;
+
+	private boolean _atLineStart = true;
+	// newlines not passed on yet
+	private int _newlines = 0;
+	// start of a line that may still turn out to be a marker
+	private final ByteArrayOutputStream _line = new ByteArrayOutputStream();
+	// text of the marker line being read, -1 if none
+	private int _marker = -1;
+	private final ByteArrayOutputStream _markerText = new ByteArrayOutputStream();
+	private final String [] _markerValues = new String[MARKERS.length];
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	ServeOutput(OutputStream out, long id) {
+		_out = out;
+		_id = id;
+	}
+
+	public void write(int b) throws IOException {
+		if (-1 != _marker) {
+			if ('\n' == b)
+				endMarker();
+			else
+				_markerText.write(b);
+			return;
+		}
+		if (!_atLineStart) {
+			if ('\n' == b) {
+				_atLineStart = true;
+				_newlines = 1;
+			}
+			else
+				pass((byte)b);
+			return;
+		}
+
+		if ('\n' == b) {
+			if (0 != _line.size())
+				passLine();
+			_newlines++;
+			return;
+		}
+		_line.write(b);
+		byte[] line = _line.toByteArray();
+		boolean prefix = false;
+		for (int i = 0; i < MARKERS.length; i++) {
+			if (Arrays.equals(line, MARKERS[i])) {
+				_marker = i;
+				_markerText.reset();
+				_line.reset();
+				return;
+			}
+			if ((line.length < MARKERS[i].length) && (Arrays.equals(line, Arrays.copyOf(MARKERS[i], line.length))))
+				prefix = true;
+		}
+		if (!prefix) {
+			passLine();
+			_atLineStart = false;
+		}
+	}
+
+	public void write(byte[] b, int off, int len) throws IOException {
+		int end = off + len;
+		while (off < end) {
+			// within a line of output:  pass on up to the next newline
+			if ((!_atLineStart) && (-1 == _marker)) {
+				int next = off;
+				while ((next < end) && ('\n' != b[next]))
+					next++;
+				pass(b, off, next - off);
+				off = next;
+				if (off == end)
+					break;
+			}
+			write(b[off++]);
+		}
+	}
+
+	// Frames go out whole, not on every println
+	public void flush() {
+	}
+
+	//***********************************************
+	// End of the action's output:  pass on what is
+	// left
+	//***********************************************
+	void finish() throws IOException {
+		if (-1 != _marker)
+			endMarker();
+		if (0 != _line.size())
+			passLine();
+		writeChunk();
+		_out.flush();
+	}
+
+	// bytes of output passed on
+	long getWritten() {
+		return(_written);
+	}
+
+	String getStats() {
+		return(_markerValues[STATS]);
+	}
+
+	String getException() {
+		return(_markerValues[EXCEPTION]);
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private void endMarker() {
+		_markerValues[_marker] = new String(_markerText.toByteArray(), StandardCharsets.UTF_8).trim();
+		_marker = -1;
+		_newlines = 0;
+		_atLineStart = true;
+	}
+
+	// held newlines and the start of the line, which is not a marker
+	private void passLine() throws IOException {
+		byte[] line = _line.toByteArray();
+		_line.reset();
+		pass(line, 0, line.length);
+	}
+
+	private void pass(byte b) throws IOException {
+		passNewlines();
+		if (CHUNK_SIZE == _count)
+			writeChunk();
+		_chunk[_count++] = b;
+	}
+
+	private void pass(byte[] b, int off, int len) throws IOException {
+		if (0 == len)
+			return;
+		passNewlines();
+		while (len > 0) {
+			if (CHUNK_SIZE == _count)
+				writeChunk();
+			int n = Math.min(len, CHUNK_SIZE - _count);
+			System.arraycopy(b, off, _chunk, _count, n);
+			_count += n;
+			off += n;
+			len -= n;
+		}
+	}
+
+	private void passNewlines() throws IOException {
+		// skip leading newlines, as the single shot output is trimmed
+		if (0 == _written + _count)
+			_newlines = 0;
+		while (_newlines > 0) {
+			_newlines--;
+			if (CHUNK_SIZE == _count)
+				writeChunk();
+			_chunk[_count++] = '\n';
+		}
+	}
+
+	private void writeChunk() throws IOException {
+		if (0 == _count)
+			return;
+		String header = "{\"id\":" + _id + ",\"bytes\":" + _count + "}\n";
+		_out.write(header.getBytes(StandardCharsets.UTF_8));
+		_out.write(_chunk, 0, _count);
+		_written += _count;
+		_count = 0;
+	}
+}
@@ -0,0 +1,246 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+//
+// Where each PE, operator, port and connection sits in a job's
+// status and metrics snapshots, so a caller holding the decoded
+// snapshots can go straight to one instead of searching arrays.
+//
+// The index holds array positions, not copies of the objects:
+//   {"status":{"pes":{"<peId>":p,..},
+//              "operators":{"<operator>":[p,o],..},
+//              "outputPorts":{"<operator>":{"<port name>":k,..},..},
+//              "inputPorts":{..},
+//              "outputConnections":{"<operator>":{"<port name>":{"<connection id>":c,..},..},..},
+//              "inputConnections":{..}},
+//    "metrics":{"pes":{..},"operators":{..},
+//               "outputPorts":{"<operator>":{"<indexWithinOperator>":k,..},..},
+//               "inputPorts":{..}}}
+// so the status of operator X is pes[p].operators[o] and that
+// of its output port Y is pes[p].operators[o].outputPorts[k].
+// Status ports are keyed by name, metrics ports by index, as
+// that is all the metrics snapshot has.
+//
+// Each snapshot is walked once with a JSONReader.
+//
+class SnapshotIndex {
+
+	// key of a port within its operator
+	private final String _portKey;
+
+	private final LinkedHashMap<String,Object> _pes = new LinkedHashMap<String,Object>();
+	private final LinkedHashMap<String,Object> _operators = new LinkedHashMap<String,Object>();
+	private final LinkedHashMap<String,Object> _outputPorts = new LinkedHashMap<String,Object>();
+	private final LinkedHashMap<String,Object> _inputPorts = new LinkedHashMap<String,Object>();
+	private final LinkedHashMap<String,Object> _outputConnections = new LinkedHashMap<String,Object>();
+	private final LinkedHashMap<String,Object> _inputConnections = new LinkedHashMap<String,Object>();
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	private SnapshotIndex(String portKey) {
+		_portKey = portKey;
+	}
+
+	//***********************************************
+	// Write the index of a job's status and metrics
+	// snapshots
+	//***********************************************
+	static void write(Writer out, String statusJSON, String metricsJSON) throws Exception {
+		out.write('{');
+		JSONWriter.writeName(out, "status");
+		SnapshotIndex status = new SnapshotIndex("name");
+		status.read(statusJSON);
+		status.write(out, true);
+		out.write(',');
+		JSONWriter.writeName(out, "metrics");
+		SnapshotIndex metrics = new SnapshotIndex("indexWithinOperator");
+		metrics.read(metricsJSON);
+		metrics.write(out, false);
+		out.write('}');
+	}
+
+
+	//***********************************************
+	// Internals
+	// Identifying members may come after the arrays
+	// in an object, so entries are made once the
+	// object has been read.
+	//***********************************************
+	private void read(String snapshotJSON) throws Exception {
+		JSONReader reader = new JSONReader(snapshotJSON);
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("pes")) {
+				reader.skipValue();
+				continue;
+			}
+			reader.beginArray();
+			for (int pe = 0; reader.hasNext(); pe++)
+				readPE(reader, pe);
+			reader.endArray();
+		}
+		reader.endObject();
+	}
+
+	private void readPE(JSONReader reader, int pe) throws Exception {
+		String id = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("id"))
+				id = readScalar(reader);
+			else if (name.equals("operators")) {
+				reader.beginArray();
+				for (int operator = 0; reader.hasNext(); operator++)
+					readOperator(reader, pe, operator);
+				reader.endArray();
+			}
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		if (null != id)
+			_pes.put(id, pe);
+	}
+
+	private void readOperator(JSONReader reader, int pe, int operator) throws Exception {
+		String operatorName = null;
+		LinkedHashMap<String,Object> outputPorts = new LinkedHashMap<String,Object>();
+		LinkedHashMap<String,Object> inputPorts = new LinkedHashMap<String,Object>();
+		LinkedHashMap<String,Object> outputConnections = new LinkedHashMap<String,Object>();
+		LinkedHashMap<String,Object> inputConnections = new LinkedHashMap<String,Object>();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("name"))
+				operatorName = readScalar(reader);
+			else if (name.equals("outputPorts"))
+				readPorts(reader, outputPorts, outputConnections);
+			else if (name.equals("inputPorts"))
+				readPorts(reader, inputPorts, inputConnections);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+		if (null == operatorName)
+			return;
+		_operators.put(operatorName, new int[] { pe, operator });
+		_outputPorts.put(operatorName, outputPorts);
+		_inputPorts.put(operatorName, inputPorts);
+		_outputConnections.put(operatorName, outputConnections);
+		_inputConnections.put(operatorName, inputConnections);
+	}
+
+	private void readPorts(JSONReader reader, Map<String,Object> ports, Map<String,Object> connections) throws Exception {
+		reader.beginArray();
+		for (int port = 0; reader.hasNext(); port++) {
+			String key = null;
+			LinkedHashMap<String,Object> portConnections = new LinkedHashMap<String,Object>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals(_portKey))
+					key = readScalar(reader);
+				else if (name.equals("connections")) {
+					reader.beginArray();
+					for (int connection = 0; reader.hasNext(); connection++) {
+						String id = null;
+						reader.beginObject();
+						while (reader.hasNext()) {
+							if (reader.nextName().equals("id"))
+								id = readScalar(reader);
+							else
+								reader.skipValue();
+						}
+						reader.endObject();
+						if (null != id)
+							portConnections.put(id, connection);
+					}
+					reader.endArray();
+				}
+				else
+					reader.skipValue();
+			}
+			reader.endObject();
+			if (null == key)
+				continue;
+			ports.put(key, port);
+			if (!portConnections.isEmpty())
+				connections.put(key, portConnections);
+		}
+		reader.endArray();
+	}
+
+	private void write(Writer out, boolean withConnections) throws IOException {
+		out.write('{');
+		writeMember(out, "pes", _pes);
+		out.write(',');
+		writeMember(out, "operators", _operators);
+		out.write(',');
+		writeMember(out, "outputPorts", _outputPorts);
+		out.write(',');
+		writeMember(out, "inputPorts", _inputPorts);
+		if (withConnections) {
+			out.write(',');
+			writeMember(out, "outputConnections", _outputConnections);
+			out.write(',');
+			writeMember(out, "inputConnections", _inputConnections);
+		}
+		out.write('}');
+	}
+
+	private static void writeMember(Writer out, String name, Object value) throws IOException {
+		JSONWriter.writeName(out, name);
+		writeValue(out, value);
+	}
+
+	// Maps, positions and [pe,operator] pairs
+	private static void writeValue(Writer out, Object value) throws IOException {
+		if (value instanceof int[]) {
+			int[] positions = (int[])value;
+			out.write('[');
+			for (int i = 0; i < positions.length; i++) {
+				if (i > 0)
+					out.write(',');
+				out.write(Integer.toString(positions[i]));
+			}
+			out.write(']');
+		}
+		else if (value instanceof Map) {
+			out.write('{');
+			boolean first = true;
+			for (Map.Entry<?,?> next : ((Map<?,?>)value).entrySet()) {
+				if (!first)
+					out.write(',');
+				first = false;
+				writeMember(out, (String)(next.getKey()), next.getValue());
+			}
+			out.write('}');
+		}
+		else
+			out.write(value.toString());
+	}
+
+	// String or number as text, null for anything else
+	private static String readScalar(JSONReader reader) throws Exception {
+		switch (reader.peek()) {
+		case STRING:  return(reader.nextString());
+		case NUMBER:  return(reader.nextNumber());
+		default:
+			reader.skipValue();
+			return(null);
+		}
+	}
+}
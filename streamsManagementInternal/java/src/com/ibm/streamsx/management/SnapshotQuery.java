@@ -0,0 +1,255 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+//
+// Single values picked out of a job's status and metrics
+// snapshots by path, so a caller after one PE's pid or one
+// port's tuple count gets just that instead of the whole job.
+//
+// A path is
+//   job/<jobId>[/pe/<peId>][/op/<operator>[/in|out/<port>[/conn/<connectionId>]]]
+//     [/<member> | /metric/<metricName>]
+// for example job/12/pe/3/pid or
+// job/12/op/Split/out/0/metric/nTuplesSubmitted.  A port is
+// given by its index or its name.  <member> is a member of the
+// selected object in the status snapshot (pid is short for
+// processId); without one the whole status object is the
+// value.  metric/<metricName> is the value of a metric of the
+// selected PE, operator or port.
+//
+class SnapshotQuery {
+
+	//***********************************************
+	// A parsed path
+	//***********************************************
+	static class Path {
+		final String text;
+		final long jobId;
+		String pe = null;
+		String operator = null;
+		boolean inputPort = false;
+		String port = null;
+		String connection = null;
+		String member = null;
+		String metric = null;
+
+		private Path(String text, long jobId) {
+			this.text = text;
+			this.jobId = jobId;
+		}
+
+		boolean needsMetrics() {
+			return(null != metric);
+		}
+
+		//***********************************************
+		// Throws if the path is not valid
+		//***********************************************
+		static Path parse(String text) throws Exception {
+			String [] segments = text.split("/", -1);
+			if ((segments.length < 2) || (!segments[0].equals("job")))
+				throw new Exception("Path must start with job/<jobId>:  " + text);
+			Path path;
+			try {
+				path = new Path(text, Long.parseLong(segments[1]));
+			} catch (NumberFormatException e) {
+				throw new Exception("Job id in path is not a number:  " + text);
+			}
+
+			for (int i = 2; i < segments.length; i += 2) {
+				String name = segments[i];
+				if (0 == name.length())
+					throw new Exception("Empty segment in path:  " + text);
+				if (i + 1 == segments.length) {
+					path.member = name.equals("pid") ? "processId" : name;
+					break;
+				}
+				String value = segments[i + 1];
+				if (0 == value.length())
+					throw new Exception("Empty segment in path:  " + text);
+				if ((name.equals("pe")) && (null == path.pe) && (null == path.operator))
+					path.pe = value;
+				else if ((name.equals("op")) && (null == path.operator))
+					path.operator = value;
+				else if (((name.equals("in")) || (name.equals("out"))) && (null != path.operator) && (null == path.port)) {
+					path.inputPort = name.equals("in");
+					path.port = value;
+				}
+				else if ((name.equals("conn")) && (null != path.port) && (null == path.connection))
+					path.connection = value;
+				else if ((name.equals("metric")) && (i + 2 == segments.length) && (null == path.connection))
+					path.metric = value;
+				else
+					throw new Exception("Unexpected " + name + " in path:  " + text);
+			}
+			return(path);
+		}
+	}
+
+	// Scalars other than strings, kept as their JSON text
+	private static class Literal {
+		final String text;
+		Literal(String text) {
+			this.text = text;
+		}
+	}
+
+	private final Object _status;
+	private final Object _metrics;
+
+
+	//***********************************************
+	// constructor
+	// metricsJSON may be null if no path needs
+	// metrics
+	//***********************************************
+	SnapshotQuery(String statusJSON, String metricsJSON) throws Exception {
+		_status = read(new JSONReader(statusJSON));
+		_metrics = (null == metricsJSON) ? null : read(new JSONReader(metricsJSON));
+	}
+
+	//***********************************************
+	// Write the value of a path as JSON, null if
+	// there is no such object, member or metric
+	//***********************************************
+	void writeValue(Writer out, Path path) throws IOException {
+		Object statusObject = select(_status, path, null);
+		Object value;
+		if (!path.needsMetrics())
+			value = (null == path.member) ? statusObject : get(statusObject, path.member);
+		else {
+			// Ports only have an index in the metrics snapshot
+			Object portIndex = (null == path.port) ? null : get(statusObject, "indexWithinOperator");
+			Object metric = find(get(select(_metrics, path, portIndex), "metrics"), "name", path.metric);
+			value = get(metric, "value");
+		}
+		write(out, value);
+	}
+
+
+	//***********************************************
+	// Internals
+	//***********************************************
+	private static Object select(Object root, Path path, Object portIndex) {
+		Object selected = root;
+		if (null != path.pe)
+			selected = find(get(selected, "pes"), "id", path.pe);
+		if (null != path.operator) {
+			if (null != path.pe)
+				selected = find(get(selected, "operators"), "name", path.operator);
+			else {
+				Object operator = null;
+				Object pes = get(selected, "pes");
+				if (pes instanceof List) {
+					for (Object nextPE : (List<?>)pes) {
+						operator = find(get(nextPE, "operators"), "name", path.operator);
+						if (null != operator)
+							break;
+					}
+				}
+				selected = operator;
+			}
+		}
+		if (null != path.port) {
+			Object ports = get(selected, path.inputPort ? "inputPorts" : "outputPorts");
+			Object port = find(ports, "indexWithinOperator", (null == portIndex) ? path.port : text(portIndex));
+			selected = (null != port) ? port : find(ports, "name", path.port);
+		}
+		if (null != path.connection)
+			selected = find(get(selected, "connections"), "id", path.connection);
+		return(selected);
+	}
+
+	private static Object get(Object object, String member) {
+		return((object instanceof Map) ? ((Map<?,?>)object).get(member) : null);
+	}
+
+	// First object of an array whose key member has the given text
+	private static Object find(Object array, String key, String value) {
+		if (!(array instanceof List))
+			return(null);
+		for (Object next : (List<?>)array) {
+			if (value.equals(text(get(next, key))))
+				return(next);
+		}
+		return(null);
+	}
+
+	private static String text(Object value) {
+		if (value instanceof String)
+			return((String)value);
+		if (value instanceof Literal)
+			return(((Literal)value).text);
+		return(null);
+	}
+
+	// The snapshot as maps, lists, strings and literals
+	private static Object read(JSONReader reader) throws Exception {
+		switch (reader.peek()) {
+		case BEGIN_OBJECT:
+			LinkedHashMap<String,Object> object = new LinkedHashMap<String,Object>();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				object.put(name, read(reader));
+			}
+			reader.endObject();
+			return(object);
+		case BEGIN_ARRAY:
+			ArrayList<Object> array = new ArrayList<Object>();
+			reader.beginArray();
+			while (reader.hasNext())
+				array.add(read(reader));
+			reader.endArray();
+			return(array);
+		case STRING:
+			return(reader.nextString());
+		default:
+			return(new Literal(reader.nextRaw()));
+		}
+	}
+
+	private static void write(Writer out, Object value) throws IOException {
+		if (value instanceof String)
+			JSONWriter.writeString(out, (String)value);
+		else if (value instanceof Literal)
+			out.write(((Literal)value).text);
+		else if (value instanceof Map) {
+			out.write('{');
+			boolean first = true;
+			for (Map.Entry<?,?> next : ((Map<?,?>)value).entrySet()) {
+				if (!first)
+					out.write(',');
+				first = false;
+				JSONWriter.writeName(out, (String)(next.getKey()));
+				write(out, next.getValue());
+			}
+			out.write('}');
+		}
+		else if (value instanceof List) {
+			out.write('[');
+			boolean first = true;
+			for (Object next : (List<?>)value) {
+				if (!first)
+					out.write(',');
+				first = false;
+				write(out, next);
+			}
+			out.write(']');
+		}
+		else
+			out.write("null");
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************/
+/* Copyright (C) 2016, International Business Machines Corporation             */
+/* All Rights Reserved                                                         */
+/*******************************************************************************/
+
+
+package com.ibm.streamsx.management;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
+
+//
+// Last known state of domain, instance and job beans, kept
+// current by JMX notifications instead of polling.
+//
+// A bean is subscribed to before it is first read.  Any
+// notification from a bean drops everything cached for it, so
+// the next read goes back to the server; the notification
+// types themselves are not interpreted.  A value is only kept
+// if no notification arrived while it was being read.
+// Beans that cannot be subscribed to are never cached, and
+// every value is dropped after MAX_AGE_MILLIS in case a
+// notification was missed.
+//
+class StateModel implements NotificationListener {
+
+	// Longest time a value is trusted without a notification
+	static final long MAX_AGE_MILLIS = 60000;
+
+	private static class Value {
+		final Object value;
+		final long loadedAt;
+		Value(Object value) {
+			this.value = value;
+			this.loadedAt = System.currentTimeMillis();
+		}
+	}
+
+	private final MBeanServerConnection _mbsc;
+
+	// bean -> (facet -> value)
+	private ConcurrentHashMap<ObjectName,ConcurrentHashMap<String,Value>> _values = new ConcurrentHashMap<ObjectName,ConcurrentHashMap<String,Value>>();
+
+	// bean -> true if subscribed, false if subscribing failed
+	private ConcurrentHashMap<ObjectName,Boolean> _watched = new ConcurrentHashMap<ObjectName,Boolean>();
+
+	// bumped whenever something is invalidated
+	private AtomicLong _version = new AtomicLong();
+
+
+	//***********************************************
+	// constructor
+	//***********************************************
+	StateModel(MBeanServerConnection mbsc) {
+		_mbsc = mbsc;
+	}
+
+	//***********************************************
+	// Cached value of a bean, or null if there is
+	// none or it may be out of date
+	//***********************************************
+	Object get(ObjectName bean, String facet) {
+		Map<String,Value> facets = _values.get(bean);
+		if (null == facets)
+			return(null);
+		Value value = facets.get(facet);
+		if (null == value)
+			return(null);
+		if (System.currentTimeMillis() - value.loadedAt > MAX_AGE_MILLIS) {
+			facets.remove(facet);
+			return(null);
+		}
+		return(value.value);
+	}
+
+	//***********************************************
+	// Call before reading a bean from the server and
+	// hand the result to put().
+	//***********************************************
+	long begin(ObjectName bean) {
+		watch(bean);
+		return(_version.get());
+	}
+
+	//***********************************************
+	// Remember a value read from a bean.  Nothing is
+	// kept if the bean cannot notify us of changes or
+	// something changed since begin().
+	//***********************************************
+	void put(ObjectName bean, String facet, Object value, long version) {
+		if ((!Boolean.TRUE.equals(_watched.get(bean))) || (version != _version.get()))
+			return;
+		ConcurrentHashMap<String,Value> facets = _values.get(bean);
+		if (null == facets) {
+			facets = new ConcurrentHashMap<String,Value>();
+			ConcurrentHashMap<String,Value> existing = _values.putIfAbsent(bean, facets);
+			if (null != existing)
+				facets = existing;
+		}
+		facets.put(facet, new Value(value));
+	}
+
+	//***********************************************
+	// Drop what is cached for a bean
+	//***********************************************
+	void invalidate(ObjectName bean) {
+		_version.incrementAndGet();
+		_values.remove(bean);
+	}
+
+	void invalidateAll() {
+		_version.incrementAndGet();
+		_values.clear();
+	}
+
+	//***********************************************
+	// Stop listening to a bean that went away
+	//***********************************************
+	void forget(ObjectName bean) {
+		_values.remove(bean);
+		Boolean watched = _watched.remove(bean);
+		if ((null != watched) && (watched)) {
+			try {
+				_mbsc.removeNotificationListener(bean, this);
+			} catch (Exception e) {
+				// the bean is usually gone already
+			}
+		}
+	}
+
+	//***********************************************
+	// Stop listening to everything
+	//***********************************************
+	void close() {
+		Iterator<ObjectName> it = _watched.keySet().iterator();
+		while (it.hasNext())
+			forget(it.next());
+		_values.clear();
+	}
+
+	//***********************************************
+	// Notifications
+	// The handback is the ObjectName that was
+	// subscribed to, which is reliable where the
+	// notification source may not be.
+	//***********************************************
+	public void handleNotification(Notification notification, Object handback) {
+		if (handback instanceof ObjectName)
+			invalidate((ObjectName)handback);
+		else
+			invalidateAll();
+	}
+
+	//***********************************************
+	// Connection notifications
+	// If notifications were lost or the connection
+	// dropped, nothing cached can be trusted.
+	//***********************************************
+	NotificationListener getConnectionListener() {
+		return(new NotificationListener() {
+			public void handleNotification(Notification notification, Object handback) {
+				if ((JMXConnectionNotification.NOTIFS_LOST.equals(notification.getType())) ||
+					(JMXConnectionNotification.FAILED.equals(notification.getType())) ||
+					(JMXConnectionNotification.CLOSED.equals(notification.getType())))
+					invalidateAll();
+			}
+		});
+	}
+
+
+	//***********************************************
+	// Subscribe to a bean once
+	//***********************************************
+	private boolean watch(ObjectName bean) {
+		Boolean watched = _watched.get(bean);
+		if (null != watched)
+			return(watched);
+		synchronized (this) {
+			watched = _watched.get(bean);
+			if (null != watched)
+				return(watched);
+			try {
+				_mbsc.addNotificationListener(bean, this, null, bean);
+				watched = true;
+			} catch (Exception e) {
+				watched = false;
+			}
+			_watched.put(bean, watched);
+		}
+		return(watched);
+	}
+}
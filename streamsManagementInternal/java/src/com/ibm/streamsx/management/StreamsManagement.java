@@ -6,28 +6,61 @@
 
 package com.ibm.streamsx.management;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.math.BigInteger;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
+import javax.management.InstanceNotFoundException;
 import javax.management.JMX;
 import javax.management.MBeanServerConnection;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
+import javax.management.remote.JMXConnectionNotification;
 import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
@@ -88,8 +121,11 @@ public class StreamsManagement {
         String [] creds = {user, password};
         env.put("jmx.remote.credentials", creds);
         env.put("jmx.remote.protocol.provider.pkgs", "com.ibm.streams.management");       
+        long start = System.nanoTime();
         JMXConnector jmxc = JMXConnectorFactory.connect(new JMXServiceURL(url), env);
-        setMsbc(jmxc.getMBeanServerConnection());		
+        setConnector(jmxc);
+        _latencyStats.record("connectToJMX", start);
+        startStateModel(jmxc);
 	}
 	
 
@@ -107,9 +143,13 @@ public class StreamsManagement {
 		if (isConnected())
 		      return;	
 	    org.apache.log4j.BasicConfigurator.configure(new org.apache.log4j.varia.NullAppender());
+	    // includes the ZooKeeper lookup of the domain's JMX server
+	    long start = System.nanoTime();
 	    final JMXConnector jmxc = com.ibm.streams.management.internal.utils.JmxUtils.getJmxConnectorFromKey(domainName, zkString, null);
 
-	    setMsbc(jmxc.getMBeanServerConnection());			
+	    setConnector(jmxc);
+	    _latencyStats.record("connectToJMX", start);
+	    startStateModel(jmxc);
 	}
 	
 
@@ -117,7 +157,87 @@ public class StreamsManagement {
 	// Disconnect from the JMX Server
 	//***********************************************	
 	public void disconnectFromJMX() {
+		shutdownExecutor();
 		setMsbc(null);		
+		JMXConnector jmxc = _jmxc;
+		_jmxc = null;
+		if (null != jmxc) {
+			try {
+				jmxc.close();
+			} catch (Exception e) {
+				// the connection is usually broken already
+			}
+		}
+	}
+	
+	
+	//***********************************************
+	// Whether the JMX connection has failed:  the
+	// connector reported it failed or closed, or a
+	// call over it threw an IOException (JMX server,
+	// domain or zookeeper restarted ...).  A failed
+	// connection does not recover; disconnect and
+	// connect again.
+	//***********************************************
+	public boolean isConnectionFailed() {
+		return(_connectionFailed);
+	}
+	
+	private void setConnector(JMXConnector jmxc) throws IOException {
+		_jmxc = jmxc;
+		_connectionFailed = false;
+		jmxc.addConnectionNotificationListener(new NotificationListener() {
+			public void handleNotification(Notification notification, Object handback) {
+				if ((JMXConnectionNotification.FAILED.equals(notification.getType())) ||
+					(JMXConnectionNotification.CLOSED.equals(notification.getType())))
+					_connectionFailed = true;
+			}
+		}, null, null);
+		setMsbc(watchConnection(jmxc.getMBeanServerConnection()));
+	}
+	
+	// The connection, with an IOException from any call over it
+	// marking it failed
+	private MBeanServerConnection watchConnection(final MBeanServerConnection mbsc) {
+		return((MBeanServerConnection)(Proxy.newProxyInstance(StreamsManagement.class.getClassLoader(),
+			new Class<?>[] { MBeanServerConnection.class }, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					try {
+						return(method.invoke(mbsc, args));
+					} catch (InvocationTargetException e) {
+						if (e.getCause() instanceof IOException)
+							_connectionFailed = true;
+						throw e.getCause();
+					}
+				}
+			})));
+	}
+	
+	private JMXConnector _jmxc = null;
+	private volatile boolean _connectionFailed = false;
+	
+	
+	//***********************************************
+	// Keep domain, instance and job state current
+	// through JMX notifications rather than reading
+	// it again on every request.  Worth it for a
+	// long lived connection; must be set before
+	// connecting.
+	//***********************************************
+	public void setUseNotifications(boolean useNotifications) {
+		_useNotifications = useNotifications;
+	}
+	
+	public boolean getUseNotifications() {
+		return(_useNotifications);
+	}
+	
+	private void startStateModel(JMXConnector jmxc) {
+		if (!getUseNotifications())
+			return;
+		StateModel state = new StateModel(getMsbc());
+		jmxc.addConnectionNotificationListener(state.getConnectionListener(), null, null);
+		_state = state;
 	}
 	
 	
@@ -160,18 +280,16 @@ public class StreamsManagement {
 	public String getSingleJobJSONString(String domainName, String instanceName, long jobId) throws Exception {
 		checkConnected();				
 
-		JSONObject info = new JSONObject();
-		
 		JSONObject domainInfo = getDomainInfoJSON(domainName);	
-		info.put("domainInfo", domainInfo);
-
 		JSONObject instanceInfo = getInstanceInfoJSON(domainName, instanceName);
-		info.put("instanceInfo", instanceInfo);	
-
-		JSONObject jobInfo = getSingleJobInfoJSON(domainName, instanceName, jobId);
-		info.put("jobInfo", jobInfo);
 		
-		return(info.serialize());		
+		// this will result in info for only 1 job being added
+		Vector<BigInteger> jobIds = new Vector<BigInteger>();
+		jobIds.add(BigInteger.valueOf(jobId));
+		
+		StringWriter out = new StringWriter();
+		writeJobsJSON(domainName, instanceName, domainInfo, instanceInfo, jobIds.iterator(), out);
+		return(out.toString());		
 	}	
 	
 	//***********************************************
@@ -179,23 +297,86 @@ public class StreamsManagement {
 	// domain info and instance info will also be retrieved
 	//***********************************************	
 	public String getAllJobJSONString(String domainName, String instanceName) throws Exception {
+		StringWriter out = new StringWriter();
+		writeAllJobJSON(domainName, instanceName, out);
+		return(out.toString());		
+	}
+	
+	
+	//***********************************************
+	// Write all job info in JSON format
+	// Produces the same document as getAllJobJSONString,
+	// but each job's entry is written and flushed as 
+	// soon as its snapshots are fetched.  No more than
+	// getParallelism() jobs are held in memory at once.
+	//***********************************************	
+	public void writeAllJobJSON(String domainName, String instanceName, Writer out) throws Exception {
 		checkConnected();				
 
-		JSONObject info = new JSONObject();
-		
 		JSONObject domainInfo = getDomainInfoJSON(domainName);	
-		info.put("domainInfo", domainInfo);
-
 		JSONObject instanceInfo = getInstanceInfoJSON(domainName, instanceName);
-		info.put("instanceInfo", instanceInfo);	
-
-		JSONObject jobInfo = getAllJobInfoJSON(domainName, instanceName);
-		info.put("jobInfo", jobInfo);
-
-		
-		return(info.serialize());		
+		Iterator<?> jobIds = ((JSONArray)(instanceInfo.get("jobs"))).iterator();
+		writeJobsJSON(domainName, instanceName, domainInfo, instanceInfo, jobIds, out);
 	}
 	
+	//***********************************************
+	// Write the domain info, instance info and job
+	// info document for the given jobs
+	//***********************************************	
+	private void writeJobsJSON(String domainName, String instanceName, JSONObject domainInfo, JSONObject instanceInfo, Iterator<?> it, Writer out) throws Exception {
+		long start = System.nanoTime();
+		out.write('{');
+		JSONWriter.writeName(out, "domainInfo");
+		domainInfo.serialize(out);
+		out.write(',');
+		JSONWriter.writeName(out, "instanceInfo");
+		instanceInfo.serialize(out);
+		_latencyStats.record("serialize", start);
+		out.write(',');
+		JSONWriter.writeName(out, "jobInfo");
+		out.write('{');
+		out.flush();
+		
+		boolean first = true;
+		
+		if (getParallelism() <= 1) {
+			while (it.hasNext()) {
+				long jobId = ((BigInteger)(it.next())).longValue();
+				writeJobEntry(out, first, fetchJobSnapshots(domainName, instanceName, jobId));
+				first = false;
+			}
+		}
+		else {
+			// keep at most getParallelism() jobs in flight, writing each
+			// one out as it completes
+			ExecutorCompletionService<JobSnapshots> completion = new ExecutorCompletionService<JobSnapshots>(getExecutor());
+			Vector<Future<JobSnapshots>> inFlight = new Vector<Future<JobSnapshots>>();
+			try {
+				while ((it.hasNext()) || (!inFlight.isEmpty())) {
+					while ((it.hasNext()) && (inFlight.size() < getParallelism())) {
+						final String domain = domainName;
+						final String instance = instanceName;
+						final long jobId = ((BigInteger)(it.next())).longValue();
+						inFlight.add(completion.submit(new Callable<JobSnapshots>() {
+							public JobSnapshots call() throws Exception {
+								return(fetchJobSnapshots(domain, instance, jobId));
+							}
+						}));
+					}
+					Future<JobSnapshots> done = completion.take();
+					inFlight.remove(done);
+					writeJobEntry(out, first, waitFor(done));
+					first = false;
+				}
+			} finally {
+				for (Future<JobSnapshots> next : inFlight)
+					next.cancel(true);
+			}
+		}
+		
+		out.write("}}");
+		out.flush();
+	}
 	
 	//***********************************************
 	// Special case which will find a job ID from a job name.
@@ -205,18 +386,15 @@ public class StreamsManagement {
 	public String getSingleJobByNameJSONString(String domainName, String instanceName, String jobName) throws Exception {
 		checkConnected();				
 
-		JSONObject info = new JSONObject();
-		
 		JSONObject domainInfo = getDomainInfoJSON(domainName);	
-		info.put("domainInfo", domainInfo);
-
 		JSONObject instanceInfo = getInstanceInfoJSON(domainName, instanceName);
-		info.put("instanceInfo", instanceInfo);	
-
-		JSONObject jobInfo = getSingleJobInfoByNameJSON(domainName, instanceName, jobName);
-		info.put("jobInfo", jobInfo);
 		
-		return(info.serialize());		
+		Vector<BigInteger> jobIds = new Vector<BigInteger>();
+		jobIds.add(BigInteger.valueOf(findJobIdByName(domainName, instanceName, jobName)));
+		
+		StringWriter out = new StringWriter();
+		writeJobsJSON(domainName, instanceName, domainInfo, instanceInfo, jobIds.iterator(), out);
+		return(out.toString());		
 	}
 			
 	
@@ -226,17 +404,190 @@ public class StreamsManagement {
 	public String submitJob(String domainName, String instanceName, String bundleName, HashMap<String, String> jobParms, String jobGroup, String jobName) throws Exception {
 		checkConnected();				
 		
-		// First, deploy the application
-		File bundle = new File(bundleName);
 		InstanceMXBean instance = getInstanceBean(domainName, instanceName);
+		SubmitSteps steps = new SubmitSteps();
+		long jobId = submitBundle(domainName, instanceName, instance, bundleName, jobParms, jobGroup, jobName, steps);
+		
+		// the new job may carry a name that was just looked up and missed
+		getJobIndex(domainName, instanceName).clearMisses();
+		invalidateState(ObjectNameBuilder.instance(domainName, instanceName));
+		
+		JSONObject info = new JSONObject();
+		info.put("jobId", jobId);
+		steps.put(info);
+		return(info.serialize());		
+	}
+	
+	//***********************************************
+	// Submits many applications
+	// Each entry of submissions is an object with
+	// "bundle" and optional "jobParms" (object of
+	// name/value), "jobGroup" and "jobName".
+	// Up to getParallelism() bundles go through their
+	// deploy, upload and submit steps at a time, so
+	// one bundle is uploading while others are being
+	// deployed or submitted.
+	// Returns JSON with a result per entry, in order:
+	//   {"submitted":n,"failed":n,"millis":n,
+	//    "jobs":[{"bundle":s,"rc":0,"jobId":n,"waitMillis":n,
+	//             "deployMillis":n,"uploadMillis":n,"submitMillis":n},
+	//            {"bundle":s,"rc":1,"stage":s,"error":s,..},..]}
+	// Uploaded bundles also have "uploadBytes" and
+	// "uploadBytesPerSecond"; bundles submitted from
+	// the application cache have "cached":true and
+	// no deploy or upload times.
+	// millis values are those of the steps that ran.
+	//***********************************************
+	public String submitJobsJSONString(final String domainName, final String instanceName, JSONArray submissions) throws Exception {
+		checkConnected();
+		final long start = System.currentTimeMillis();
+		
+		final InstanceMXBean instance = getInstanceBean(domainName, instanceName);
+		Vector<Future<JSONObject>> results = new Vector<Future<JSONObject>>();
+		for (Object next : submissions) {
+			if (!(next instanceof JSONObject))
+				throw new Exception("Submission is not an object:  " + next);
+			final JSONObject submission = (JSONObject)next;
+			if (!(submission.get("bundle") instanceof String))
+				throw new Exception("Submission has no bundle:  " + submission.serialize());
+			
+			results.add(getExecutor().submit(new Callable<JSONObject>() {
+				public JSONObject call() throws Exception {
+					String bundleName = (String)(submission.get("bundle"));
+					HashMap<String, String> jobParms = null;
+					if (submission.get("jobParms") instanceof Map) {
+						jobParms = new HashMap<String, String>();
+						for (Object entry : ((Map<?,?>)(submission.get("jobParms"))).entrySet())
+							jobParms.put(((Map.Entry<?,?>)entry).getKey().toString(), String.valueOf(((Map.Entry<?,?>)entry).getValue()));
+					}
+					String jobGroup = (String)(submission.get("jobGroup"));
+					String jobName = (String)(submission.get("jobName"));
+					
+					JSONObject result = new JSONObject();
+					result.put("bundle", bundleName);
+					if (null != jobName)
+						result.put("jobName", jobName);
+					result.put("waitMillis", System.currentTimeMillis() - start);
+					SubmitSteps steps = new SubmitSteps();
+					try {
+						result.put("jobId", submitBundle(domainName, instanceName, instance, bundleName, jobParms, jobGroup, jobName, steps));
+						result.put("rc", 0);
+					} catch (Exception e) {
+						result.put("rc", 1);
+						result.put("stage", steps.stage);
+						result.put("error", e.toString());
+					}
+					steps.put(result);
+					return(result);
+				}
+			}));
+		}
+		
+		JSONArray ja = new JSONArray();
+		int submitted = 0;
+		for (Future<JSONObject> next : results) {
+			JSONObject result = waitFor(next);
+			if (((Number)(result.get("rc"))).intValue() == 0)
+				submitted++;
+			ja.add(result);
+		}
+		
+		if (submitted > 0) {
+			getJobIndex(domainName, instanceName).clearMisses();
+			invalidateState(ObjectNameBuilder.instance(domainName, instanceName));
+		}
+		
+		JSONObject info = new JSONObject();
+		info.put("submitted", submitted);
+		info.put("failed", ja.size() - submitted);
+		info.put("millis", System.currentTimeMillis() - start);
+		info.put("jobs", ja);
+		return(info.serialize());
+	}
+	
+	//***********************************************
+	// What happened submitting one bundle.  Times
+	// and sizes are -1 for steps that did not run.
+	//***********************************************
+	private static class SubmitSteps {
+		String stage = "deploy";     // step running, or that failed
+		boolean cached = false;      // deploy and upload were skipped
+		long deployMillis = -1;
+		long uploadMillis = -1;
+		long submitMillis = -1;
+		long uploadBytes = -1;
+		
+		void put(JSONObject info) {
+			if (cached)
+				info.put("cached", true);
+			if (deployMillis >= 0)
+				info.put("deployMillis", deployMillis);
+			if (uploadMillis >= 0)
+				info.put("uploadMillis", uploadMillis);
+			if (submitMillis >= 0)
+				info.put("submitMillis", submitMillis);
+			if (uploadBytes >= 0) {
+				info.put("uploadBytes", uploadBytes);
+				info.put("uploadBytesPerSecond", uploadBytes * 1000 / Math.max(uploadMillis, 1));
+			}
+		}
+	}
+	
+	//***********************************************
+	// Deploy, upload and submit one bundle, noting
+	// each step in steps as it completes.
+	// With an application cache, a bundle the instance
+	// already has is submitted by its application id.
+	// If the server refuses that submit, as it does
+	// for an id it no longer knows, the entry is
+	// dropped and the bundle deployed as usual.  Any
+	// other failure, such as a JMX timeout, may have
+	// left a job behind and is thrown as is.
+	//***********************************************
+	private long submitBundle(String domainName, String instanceName, InstanceMXBean instance, String bundleName, HashMap<String, String> jobParms, String jobGroup, String jobName, SubmitSteps steps) throws Exception {
+		File bundle = new File(bundleName);
+		if (!bundle.isFile())
+			throw new Exception("Bundle file not found:  " + bundleName);
+		
+		ApplicationCache cache = getApplicationCache();
+		String hash = null;
+		if (null != cache) {
+			hash = cache.hash(bundle);
+			BigInteger applicationId = cache.get(domainName, instanceName, hash);
+			if (null != applicationId) {
+				steps.stage = "submit";
+				long stageStart = System.currentTimeMillis();
+				try {
+					long jobId = instance.submitJob(applicationId, jobParms, null, false, jobGroup, jobName, null).longValue();
+					steps.submitMillis = System.currentTimeMillis() - stageStart;
+					steps.cached = true;
+					return(jobId);
+				} catch (Exception e) {
+					if (!isRefusedByServer(e))
+						throw e;
+					cache.remove(domainName, instanceName, hash);
+				}
+			}
+		}
+		
+		// First, deploy the application
+		steps.stage = "deploy";
+		long stageStart = System.currentTimeMillis();
 		DeployInformation deployInfo = instance.deployApplication(bundle.getName());
+		steps.deployMillis = System.currentTimeMillis() - stageStart;
 		
 		// Push the .sab up to the server
-		setDefaultHostnameVerifier();
+		steps.stage = "upload";
+		stageStart = System.currentTimeMillis();
 		URL url = new URL(deployInfo.getUri());
-		pushFileToServer(url, bundle);
+		steps.uploadBytes = pushFileToServer(url, bundle);
+		steps.uploadMillis = System.currentTimeMillis() - stageStart;
+		if (null != cache)
+			cache.put(domainName, instanceName, hash, deployInfo.getApplicationId());
 		
 		// Submit the application
+		steps.stage = "submit";
+		stageStart = System.currentTimeMillis();
 		long jobId = instance.submitJob(deployInfo.getApplicationId(), 
 				                        jobParms,
 				                        null,
@@ -244,13 +595,44 @@ public class StreamsManagement {
 				                        jobGroup,
 				                        jobName,
 				                        null).longValue();
-		
-		
-		JSONObject info = new JSONObject();
-		info.put("jobId", jobId);
-		return(info.serialize());		
+		steps.submitMillis = System.currentTimeMillis() - stageStart;
+		return(jobId);
 	}
 	
+	//***********************************************
+	// Whether a failed JMX call was refused by the
+	// MBean, rather than lost in transport.  A refused
+	// call did nothing; one that failed on the way or
+	// timed out may still have run on the server.
+	//***********************************************
+	private boolean isRefusedByServer(Throwable e) {
+		if (isConnectionFailed())
+			return(false);
+		for (Throwable next = e; null != next; next = next.getCause()) {
+			if ((next instanceof IOException) || (next instanceof Error))
+				return(false);
+		}
+		return(true);
+	}
+	
+	//***********************************************
+	// File that keeps the application ids of bundles
+	// already deployed (see ApplicationCache), or
+	// null (the default) to deploy every submit.
+	//***********************************************
+	public synchronized void setApplicationCacheFile(String fileName) {
+		if (null == fileName)
+			_applicationCache = null;
+		else if ((null == _applicationCache) || (!_applicationCache.getFile().equals(new File(fileName))))
+			_applicationCache = new ApplicationCache(new File(fileName));
+	}
+	
+	private synchronized ApplicationCache getApplicationCache() {
+		return(_applicationCache);
+	}
+	
+	private ApplicationCache _applicationCache = null;
+	
 	
 	//***********************************************
 	// cancels a job
@@ -260,10 +642,91 @@ public class StreamsManagement {
 		
 		InstanceMXBean instance = getInstanceBean(domainName, instanceName);
 		instance.cancelJob(java.math.BigInteger.valueOf(jobId), force);
+		getJobIndex(domainName, instanceName).remove(jobId);
+		invalidateState(ObjectNameBuilder.instance(domainName, instanceName));
 					
 		return;		
 	}	
 	
+	//***********************************************
+	// Cancel many jobs
+	// The jobs are the given ids, or every job of the
+	// instance when jobIds is null, narrowed down by
+	// whichever selectors are not null: a regular
+	// expression the job name must contain a match
+	// for, the job group, and the job health (e.g.
+	// "unhealthy").  Up to getParallelism() jobs are
+	// checked and cancelled at a time.
+	// Returns JSON with a result per selected job:
+	//   {"selected":n,"cancelled":n,"failed":n,"millis":n,
+	//    "jobs":[{"jobId":n,"name":s,"rc":0,"millis":n},
+	//            {"jobId":n,"name":s,"rc":1,"error":s,"millis":n},..]}
+	//***********************************************
+	public String cancelJobsJSONString(final String domainName, final String instanceName, List<Long> jobIds, String namePattern, String jobGroup, final String health, final boolean force) throws Exception {
+		checkConnected();
+		long start = System.currentTimeMillis();
+		
+		// Names and groups come from the job index
+		JobIndex index = refreshJobIndex(domainName, instanceName);
+		if (null == jobIds) {
+			jobIds = new Vector<Long>();
+			for (BigInteger nextId : getJobIds(domainName, instanceName))
+				jobIds.add(nextId.longValue());
+		}
+		Pattern namePat = (null == namePattern) ? null : Pattern.compile(namePattern);
+		
+		Vector<Future<JSONObject>> results = new Vector<Future<JSONObject>>();
+		for (final Long jobId : jobIds) {
+			final String name = index.getName(jobId);
+			if ((null != namePat) && ((null == name) || (!namePat.matcher(name).find())))
+				continue;
+			if ((null != jobGroup) && (!jobGroup.equals(index.getGroup(jobId))))
+				continue;
+			
+			results.add(getExecutor().submit(new Callable<JSONObject>() {
+				public JSONObject call() throws Exception {
+					long jobStart = System.currentTimeMillis();
+					JSONObject result = new JSONObject();
+					result.put("jobId", jobId);
+					if (null != name)
+						result.put("name", name);
+					try {
+						// health is a remote call, so it is checked here rather than up front
+						if ((null != health) && (!getJobBean(domainName, instanceName, jobId).getHealth().toString().equalsIgnoreCase(health)))
+							return(null);
+						cancelJob(domainName, instanceName, jobId, force);
+						result.put("rc", 0);
+					} catch (Exception e) {
+						result.put("rc", 1);
+						result.put("error", e.toString());
+					}
+					result.put("millis", System.currentTimeMillis() - jobStart);
+					return(result);
+				}
+			}));
+		}
+		
+		JSONArray ja = new JSONArray();
+		int cancelled = 0;
+		for (Future<JSONObject> next : results) {
+			JSONObject result = waitFor(next);
+			if (null == result)
+				continue;
+			if (((Number)(result.get("rc"))).intValue() == 0)
+				cancelled++;
+			ja.add(result);
+		}
+		
+		JSONObject info = new JSONObject();
+		info.put("selected", ja.size());
+		info.put("cancelled", cancelled);
+		info.put("failed", ja.size() - cancelled);
+		info.put("millis", System.currentTimeMillis() - start);
+		info.put("jobs", ja);
+		return(info.serialize());
+	}	
+
+	
 	//***********************************************
 	// add a host to a domain
 	//***********************************************	
@@ -444,13 +907,86 @@ public class StreamsManagement {
 		
 		URL url = new URL(job.retrieveApplicationLogAndTraceFiles(null));
 		
-		setDefaultHostnameVerifier();
 		readFromURLIntoFile(url, logFile);
 		
 		return;		
 	}
 	
 	
+	//***********************************************
+	// get application/trace files from many jobs
+	// The archive of each job is written to
+	// job_<jobId>.tar.gz in logDir.  jobIds null
+	// gets the logs of every job in the instance.
+	// Up to getParallelism() archives are downloaded
+	// at a time.
+	// Returns JSON with a result per job:
+	//   {"retrieved":n,"failed":n,"bytes":n,"millis":n,
+	//    "jobs":[{"jobId":n,"rc":0,"logFile":s,"bytes":n,
+	//             "millis":n,"bytesPerSecond":n},
+	//            {"jobId":n,"rc":1,"error":s,"millis":n},..]}
+	//***********************************************
+	public String getJobsLogsJSONString(final String domainName, final String instanceName, List<Long> jobIds, String logDir) throws Exception {
+		checkConnected();
+		long start = System.currentTimeMillis();
+		
+		final File dir = new File(logDir);
+		if ((!dir.isDirectory()) && (!dir.mkdirs()))
+			throw new Exception("Unable to create log directory " + logDir);
+		if (null == jobIds) {
+			jobIds = new Vector<Long>();
+			for (BigInteger nextId : getJobIds(domainName, instanceName))
+				jobIds.add(nextId.longValue());
+		}
+		
+		Vector<Future<JSONObject>> results = new Vector<Future<JSONObject>>();
+		for (final Long jobId : jobIds) {
+			results.add(getExecutor().submit(new Callable<JSONObject>() {
+				public JSONObject call() throws Exception {
+					long jobStart = System.currentTimeMillis();
+					JSONObject result = new JSONObject();
+					result.put("jobId", jobId);
+					try {
+						String logFile = new File(dir, "job_" + jobId + ".tar.gz").getPath();
+						JobMXBean job = getJobBean(domainName, instanceName, jobId);
+						long bytes = readFromURLIntoFile(new URL(job.retrieveApplicationLogAndTraceFiles(null)), logFile);
+						long millis = System.currentTimeMillis() - jobStart;
+						result.put("rc", 0);
+						result.put("logFile", logFile);
+						result.put("bytes", bytes);
+						result.put("bytesPerSecond", bytes * 1000 / Math.max(millis, 1));
+					} catch (Exception e) {
+						result.put("rc", 1);
+						result.put("error", e.toString());
+					}
+					result.put("millis", System.currentTimeMillis() - jobStart);
+					return(result);
+				}
+			}));
+		}
+		
+		JSONArray ja = new JSONArray();
+		int retrieved = 0;
+		long bytes = 0;
+		for (Future<JSONObject> next : results) {
+			JSONObject result = waitFor(next);
+			if (((Number)(result.get("rc"))).intValue() == 0) {
+				retrieved++;
+				bytes += ((Number)(result.get("bytes"))).longValue();
+			}
+			ja.add(result);
+		}
+		
+		JSONObject info = new JSONObject();
+		info.put("retrieved", retrieved);
+		info.put("failed", ja.size() - retrieved);
+		info.put("bytes", bytes);
+		info.put("millis", System.currentTimeMillis() - start);
+		info.put("jobs", ja);
+		return(info.serialize());
+	}
+	
+	
 	//***********************************************
 	// get product and trace logs for a domain
 	//***********************************************	
@@ -461,7 +997,6 @@ public class StreamsManagement {
 		
 		URL url = new URL(domain.retrieveProductLogAndTraceFiles(null));
 		
-		setDefaultHostnameVerifier();
 		readFromURLIntoFile(url, logFile);
 		
 		return;		
@@ -481,28 +1016,353 @@ public class StreamsManagement {
 	public String getJobStatusInfoJSONString(String domainName, String instanceName, long jobId) throws Exception {
 		
 		JobMXBean job = getJobBean(domainName, instanceName, jobId);
-		setDefaultHostnameVerifier();
 		return(getJobStatusInfoJSONString(job));
 	}
 		
 	private String getJobStatusInfoJSONString(JobMXBean job) throws Exception {		
+	    long start = System.nanoTime();
 	    URL url = new URL(job.snapshot(-1, true) );
+	    _latencyStats.record("snapshot", start);
 	    String jsonString = readFromURL(url);
 		return(jsonString);
 	}
 	
 
+	//***********************************************
+	// Read a job's metrics and add them to its
+	// metric history.  Only the metrics that pass the
+	// metrics filter are read.
+	//***********************************************	
+	public String recordJobMetricsJSONString(String domainName, String instanceName, long jobId) throws Exception {
+		checkConnected();
+		
+		JobMXBean job = getJobBean(domainName, instanceName, jobId);
+		String metrics = getJobMetricInfoJSONString(job);
+		MetricsFilter metricsFilter = getMetricsFilter();
+		if (null != metricsFilter)
+			metrics = metricsFilter.filter(metrics);
+		MetricHistory history = getMetricHistory(ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(jobId)));
+		int added = history.record(metrics);
+		
+		JSONObject info = new JSONObject();
+		info.put("jobId", jobId);
+		info.put("samplesAdded", added);
+		info.put("series", history.getSeries().size());
+		return(info.serialize());
+	}
+	
+	//***********************************************
+	// Write a job's recorded metrics as JSON:
+	//   {"jobId":n,"series":[{"pe":..,"operator":..,
+	//     "outputPort":..,"metric":..,"samples":[[time,value],..],
+	//     "rate":..,"min":..,"max":..,"avg":..},..]}
+	// Only series that pass the metrics filter are
+	// written.  count limits the samples written
+	// (< 1 writes all); rate, min, max and avg are
+	// over the last windowMillis (< 1 for all).
+	//***********************************************	
+	public void writeJobMetricHistory(String domainName, String instanceName, long jobId, int count, long windowMillis, Writer out) throws Exception {
+		ObjectName objName = ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(jobId));
+		MetricHistory history = _metricHistories.get(objName);
+		out.write('{');
+		JSONWriter.writeName(out, "jobId");
+		out.write(Long.toString(jobId));
+		out.write(',');
+		JSONWriter.writeName(out, "series");
+		if (null == history)
+			out.write("[]");
+		else
+			history.write(out, getMetricsFilter(), count, windowMillis);
+		out.write('}');
+	}
+	
+	//***********************************************
+	// Write the metrics of a job that changed since
+	// the response with sequence number since (see
+	// MetricsDelta for the format).  Only metrics
+	// that pass the metrics filter are considered.
+	//***********************************************	
+	public void writeJobMetricsDelta(String domainName, String instanceName, long jobId, long since, Writer out) throws Exception {
+		checkConnected();
+		
+		JobMXBean job = getJobBean(domainName, instanceName, jobId);
+		ObjectName objName = ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(jobId));
+		String metrics = getJobMetricInfoJSONString(job);
+		MetricsFilter metricsFilter = getMetricsFilter();
+		if (null != metricsFilter)
+			metrics = metricsFilter.filter(metrics);
+		if (getKeepMetricHistory())
+			getMetricHistory(objName).record(metrics);
+		
+		MetricsDelta delta = _metricsDeltas.get(objName);
+		if (null == delta) {
+			delta = new MetricsDelta();
+			MetricsDelta existing = _metricsDeltas.putIfAbsent(objName, delta);
+			if (null != existing)
+				delta = existing;
+		}
+		delta.write(out, jobId, metrics, since);
+	}
+	
+	//***********************************************
+	// Write the values of paths into job snapshots
+	// (see SnapshotQuery) as
+	//   {"<path>":<value>,..}
+	// in the order given.  Each job's snapshots are
+	// read once, its metrics only if a path needs
+	// them.  Paths into a job that does not exist
+	// are null.
+	//***********************************************
+	public void writeQueryResults(String domainName, String instanceName, List<String> paths, Writer out) throws Exception {
+		checkConnected();
+		
+		LinkedHashMap<Long,List<SnapshotQuery.Path>> pathsByJob = new LinkedHashMap<Long,List<SnapshotQuery.Path>>();
+		for (String next : paths) {
+			SnapshotQuery.Path path = SnapshotQuery.Path.parse(next);
+			List<SnapshotQuery.Path> jobPaths = pathsByJob.get(path.jobId);
+			if (null == jobPaths) {
+				jobPaths = new ArrayList<SnapshotQuery.Path>();
+				pathsByJob.put(path.jobId, jobPaths);
+			}
+			jobPaths.add(path);
+		}
+		
+		HashMap<String,String> values = new HashMap<String,String>();
+		Set<BigInteger> jobIds = getJobIds(domainName, instanceName);
+		for (Map.Entry<Long,List<SnapshotQuery.Path>> next : pathsByJob.entrySet()) {
+			if (!jobIds.contains(BigInteger.valueOf(next.getKey())))
+				continue;
+			JobMXBean job = getJobBean(domainName, instanceName, next.getKey());
+			ObjectName objName = ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(next.getKey()));
+			String status = getJobStatusSnapshot(objName, job);
+			String metrics = null;
+			for (SnapshotQuery.Path path : next.getValue()) {
+				if (path.needsMetrics()) {
+					metrics = getJobMetricInfoJSONString(job);
+					break;
+				}
+			}
+			long start = System.nanoTime();
+			SnapshotQuery query = new SnapshotQuery(status, metrics);
+			for (SnapshotQuery.Path path : next.getValue()) {
+				StringWriter value = new StringWriter();
+				query.writeValue(value, path);
+				values.put(path.text, value.toString());
+			}
+			_latencyStats.record("query", start);
+		}
+		
+		out.write('{');
+		boolean first = true;
+		for (String next : paths) {
+			if (!first)
+				out.write(',');
+			first = false;
+			JSONWriter.writeName(out, next);
+			out.write(values.containsKey(next) ? values.get(next) : "null");
+		}
+		out.write('}');
+	}
+	
+	//***********************************************
+	// Wait until a condition on a job holds or
+	// timeoutMillis pass, and return
+	//   {"condition":"<name>","jobId":n,"met":true|false,
+	//    "checks":n,"elapsedMillis":n}
+	// The condition is checked again as soon as the
+	// job or instance bean sends a notification.
+	// Between notifications it is polled, starting
+	// at MIN_POLL_MILLIS and doubling up to
+	// MAX_POLL_MILLIS while nothing changes.  Metrics
+	// do not cause notifications, so metricAbove is
+	// only polled.
+	//***********************************************
+	public String waitForJSONString(String domainName, String instanceName, JobCondition condition, long timeoutMillis) throws Exception {
+		checkConnected();
+		
+		long start = System.currentTimeMillis();
+		long deadline = start + timeoutMillis;
+		final Semaphore changed = new Semaphore(0);
+		NotificationListener listener = new NotificationListener() {
+			public void handleNotification(Notification notification, Object handback) {
+				changed.release();
+			}
+		};
+		// The job bean only exists once the job is registered.  For
+		// jobGone the job may be gone already; the instance bean
+		// tells of that.
+		Vector<ObjectName> beans = new Vector<ObjectName>();
+		beans.add(ObjectNameBuilder.instance(domainName, instanceName));
+		if (!condition.isJobGone()) {
+			beans.add(ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(condition.jobId)));
+			try {
+				getJobBean(domainName, instanceName, condition.jobId);
+			} catch (Exception e) {
+				// no such job; the first check says so
+			}
+		}
+		Vector<ObjectName> watched = new Vector<ObjectName>();
+		addListener(beans, listener, watched);
+		
+		int checks = 0;
+		boolean met = false;
+		long pollMillis = MIN_POLL_MILLIS;
+		try {
+			while (true) {
+				checks++;
+				long checkStart = System.nanoTime();
+				met = checkCondition(domainName, instanceName, condition);
+				_latencyStats.record("checkCondition", checkStart);
+				long remaining = deadline - System.currentTimeMillis();
+				if ((met) || (remaining <= 0))
+					break;
+				// the check has registered the job, if that had not happened yet
+				if (1 == checks)
+					addListener(beans, listener, watched);
+				if (changed.tryAcquire(Math.min(pollMillis, remaining), TimeUnit.MILLISECONDS)) {
+					// a change usually comes with more, so look again soon
+					changed.drainPermits();
+					pollMillis = MIN_POLL_MILLIS;
+				}
+				else
+					pollMillis = Math.min(pollMillis * 2, MAX_POLL_MILLIS);
+			}
+		} finally {
+			for (ObjectName next : watched) {
+				try {
+					getMsbc().removeNotificationListener(next, listener);
+				} catch (Exception e) {
+					// the bean is usually gone already
+				}
+			}
+		}
+		
+		JSONObject result = new JSONObject();
+		result.put("condition", condition.name);
+		result.put("jobId", condition.jobId);
+		result.put("met", met);
+		result.put("checks", checks);
+		result.put("elapsedMillis", System.currentTimeMillis() - start);
+		return(result.serialize());
+	}
+	
+	private static final long MIN_POLL_MILLIS = 250;
+	private static final long MAX_POLL_MILLIS = 5000;
+	
+	// Add the listener to those of the beans it is not on yet
+	private void addListener(List<ObjectName> beans, NotificationListener listener, List<ObjectName> watched) {
+		for (ObjectName next : beans) {
+			if (watched.contains(next))
+				continue;
+			try {
+				getMsbc().addNotificationListener(next, listener, null, null);
+				watched.add(next);
+			} catch (Exception e) {
+				// not a notification source (or not registered yet); polled only
+			}
+		}
+	}
+	
+	// The state is read again rather than taken from the state
+	// model, which may not have seen the notification that woke us yet
+	private boolean checkCondition(String domainName, String instanceName, JobCondition condition) throws Exception {
+		invalidateState(ObjectNameBuilder.instance(domainName, instanceName));
+		boolean exists = getJobIds(domainName, instanceName).contains(BigInteger.valueOf(condition.jobId));
+		if (condition.isJobGone())
+			return(!exists);
+		if (!exists)
+			throw new Exception("Job " + condition.jobId + " does not exist");
+		
+		JobMXBean job = getJobBean(domainName, instanceName, condition.jobId);
+		ObjectName objName = ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(condition.jobId));
+		invalidateState(objName);
+		String status = getJobStatusSnapshot(objName, job);
+		String metrics = condition.needsMetrics() ? getJobMetricInfoJSONString(job) : null;
+		return(condition.isMet(status, metrics));
+	}
+	
+	//***********************************************
+	// Metrics snapshots of every job of an instance,
+	// after the metrics filter, by job id.  Up to
+	// getParallelism() jobs are read at a time; a job
+	// that goes away while it is read is left out.
+	// The job index is refreshed, so getJobName
+	// knows every job returned.
+	//***********************************************
+	SortedMap<Long,String> getAllJobMetrics(final String domainName, final String instanceName) throws Exception {
+		checkConnected();
+		
+		refreshJobIndex(domainName, instanceName);
+		TreeMap<Long,Future<String>> results = new TreeMap<Long,Future<String>>();
+		for (BigInteger nextId : getJobIds(domainName, instanceName)) {
+			final long jobId = nextId.longValue();
+			results.put(jobId, getExecutor().submit(new Callable<String>() {
+				public String call() throws Exception {
+					String metrics = getJobMetricInfoJSONString(domainName, instanceName, jobId);
+					MetricsFilter metricsFilter = getMetricsFilter();
+					if (null != metricsFilter)
+						metrics = metricsFilter.filter(metrics);
+					if (getKeepMetricHistory())
+						getMetricHistory(ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(jobId))).record(metrics);
+					return(metrics);
+				}
+			}));
+		}
+		
+		TreeMap<Long,String> metrics = new TreeMap<Long,String>();
+		for (Map.Entry<Long,Future<String>> next : results.entrySet()) {
+			try {
+				metrics.put(next.getKey(), waitFor(next.getValue()));
+			} catch (Exception e) {
+				// the job was cancelled while it was read
+				if (getJobIds(domainName, instanceName).contains(BigInteger.valueOf(next.getKey())))
+					throw e;
+			}
+		}
+		return(metrics);
+	}
+	
+	String getJobName(String domainName, String instanceName, long jobId) {
+		return(getJobIndex(domainName, instanceName).getName(jobId));
+	}
+	
+	//***********************************************
+	// Whether metrics read for job info are also
+	// added to the job's metric history.  Only useful
+	// on a long lived connection.
+	//***********************************************
+	public void setKeepMetricHistory(boolean keepMetricHistory) {
+		_keepMetricHistory = keepMetricHistory;
+	}
+	
+	public boolean getKeepMetricHistory() {
+		return(_keepMetricHistory);
+	}
+	
+	private MetricHistory getMetricHistory(ObjectName jobObjName) {
+		MetricHistory history = _metricHistories.get(jobObjName);
+		if (null == history) {
+			history = new MetricHistory(MetricSeries.DEFAULT_CAPACITY);
+			MetricHistory existing = _metricHistories.putIfAbsent(jobObjName, history);
+			if (null != existing)
+				history = existing;
+		}
+		return(history);
+	}
+	
+	
 	//***********************************************
 	// Get job metrics snapshot info JSON format
 	//***********************************************	
 	public String getJobMetricInfoJSONString(String domainName, String instanceName, long jobId) throws Exception {
 		
 		JobMXBean job = getJobBean(domainName, instanceName, jobId);
-		setDefaultHostnameVerifier();
 		return(getJobMetricInfoJSONString(job));
 	}
 	private String getJobMetricInfoJSONString(JobMXBean job) throws Exception {		
+	    long start = System.nanoTime();
 	    URL url = new URL(job.snapshotMetrics());
+	    _latencyStats.record("snapshotMetrics", start);
 	    String jsonString = readFromURL(url);
 		return(jsonString);
 	}		
@@ -511,16 +1371,28 @@ public class StreamsManagement {
 	//***********************************************
 	// Get domain info into a JSON object
 	//***********************************************
+	@SuppressWarnings("unchecked")
 	private JSONObject getDomainInfoJSON(String domainName) {
-		DomainMXBean domain = getDomainBean(domainName);
+		ObjectName objName = ObjectNameBuilder.domain(domainName);
+		String status = (String)(getState(objName, "status"));
+		Set<String> instances = (Set<String>)(getState(objName, "instances"));
+		if ((null == status) || (null == instances)) {
+			long version = beginState(objName);
+			DomainMXBean domain = getDomainBean(domainName);
+			status = domain.getStatus().toString();
+			instances = domain.getInstances();
+			putState(objName, "status", status, version);
+			putState(objName, "instances", instances, version);
+		}
+		
 		JSONObject domainInfo = new JSONObject();
 		
 		// status
-		domainInfo.put("status", domain.getStatus().toString());
+		domainInfo.put("status", status);
 		
 		// list of instances
 		JSONArray ja = new JSONArray();
-        ja.addAll(domain.getInstances());
+        ja.addAll(instances);
 		domainInfo.put("instances", ja);
 		
 		return(domainInfo);
@@ -530,106 +1402,247 @@ public class StreamsManagement {
 	// Get instance info into a JSON object
 	//***********************************************
 	private JSONObject getInstanceInfoJSON(String domainName, String instanceName) {
-		InstanceMXBean instance = getInstanceBean(domainName, instanceName);
+		ObjectName objName = ObjectNameBuilder.instance(domainName, instanceName);
+		String status = (String)(getState(objName, "status"));
+		if (null == status) {
+			long version = beginState(objName);
+			status = getInstanceBean(domainName, instanceName).getStatus().toString();
+			putState(objName, "status", status, version);
+		}
+		
 		JSONObject instanceInfo = new JSONObject();
 		
 		// status
-		instanceInfo.put("status", instance.getStatus().toString());
+		instanceInfo.put("status", status);
 		
 		// list of jobs
 		JSONArray ja = new JSONArray();
-        ja.addAll(instance.getJobs());
+        ja.addAll(getJobIds(domainName, instanceName));
 		instanceInfo.put("jobs", ja);
 		
 		return(instanceInfo);
 	}
 	
 	//***********************************************
-	// Get single job info into a JSON object
+	// Find the ID of a job from its name
+	// The name index of the instance is brought up to
+	// date with the current job set, which only asks
+	// jobs that are new since the last lookup for
+	// their name.  Names that were not found are
+	// remembered for a short time.
 	//***********************************************
-	private JSONObject getSingleJobInfoJSON(String domainName, String instanceName, long jobId) throws Exception {
-
-		JSONObject jobInfo = new JSONObject();
-		JSONObject singleJobJson = getJobInfoJSON(domainName, instanceName, jobId);		
-				
-		// this will result in info for only 1 job being added
-		jobInfo.put(Long.toString(jobId), singleJobJson);
+	private long findJobIdByName(String domainName, String instanceName, String jobName) throws Exception {
 		
-		return(jobInfo);
+		JobIndex index = getJobIndex(domainName, instanceName);
+		if (index.isRecentMiss(jobName))
+			throw new Exception("Could not find job named " + jobName); 
+
+		refreshJobIndex(domainName, instanceName);
+		Long jobId = index.getId(jobName);
+		if (null == jobId) {
+			index.addMiss(jobName);
+			throw new Exception("Could not find job named " + jobName); 
+		}
+		return(jobId);
+	
+	}	
+	
+	//***********************************************
+	// Get the job ID for a job name as JSON
+	//***********************************************
+	public String getJobIdByNameJSONString(String domainName, String instanceName, String jobName) throws Exception {
+		long jobId = findJobIdByName(domainName, instanceName, jobName);
+		JSONObject jo = new JSONObject();
+		jo.put("jobId", BigInteger.valueOf(jobId));
+		jo.put("jobName", jobName);
+		return(jo.serialize());
 	}
 	
 	//***********************************************
-	// Get all job info into a JSON object
+	// Add the name and group of every job of the
+	// instance that is not yet in its index
 	//***********************************************
-	private JSONObject getAllJobInfoJSON(String domainName, String instanceName) throws Exception {
-		
-		InstanceMXBean instance = getInstanceBean(domainName, instanceName);
-		Set<BigInteger> jobIds = instance.getJobs();
-
-		JSONObject jobInfo = new JSONObject();
-		Iterator<BigInteger> it = jobIds.iterator();
-		while (it.hasNext()) {
-			long jobId = it.next().longValue();
-			JSONObject singleJobJson = getJobInfoJSON(domainName, instanceName, jobId);	
-			jobInfo.put(Long.toString(jobId), singleJobJson);	
+	private JobIndex refreshJobIndex(String domainName, String instanceName) {
+		// getJobIds drops jobs that went away
+		Set<BigInteger> jobIds = getJobIds(domainName, instanceName);
+		JobIndex index = getJobIndex(domainName, instanceName);
+		for (BigInteger nextId : jobIds) {
+			long jobId = nextId.longValue();
+			if (!index.contains(jobId)) {
+				JobMXBean jobBean = getJobBean(domainName, instanceName, jobId);
+				index.put(jobId, jobBean.getName(), jobBean.getJobGroup());
+			}
 		}
-		
-		return(jobInfo);
-	}	
+		return(index);
+	}
 	
+	private JobIndex getJobIndex(String domainName, String instanceName) {
+		ObjectName objName = ObjectNameBuilder.instance(domainName, instanceName);
+		JobIndex index = _jobIndexes.get(objName);
+		if (null == index) {
+			index = new JobIndex();
+			JobIndex existing = _jobIndexes.putIfAbsent(objName, index);
+			if (null != existing)
+				index = existing;
+		}
+		return(index);
+	}
+
 	//***********************************************
-	// Get single job info into a JSON object
-	// from job name
+	// Raw status and metric snapshots of one job
 	//***********************************************
-	private JSONObject getSingleJobInfoByNameJSON(String domainName, String instanceName, String jobName) throws Exception {
+	private static class JobSnapshots {
+		long jobId;
+		String status;
+		String metrics;
+	}
+	
+	private JobSnapshots fetchJobSnapshots(String domainName, String instanceName, long jobId) throws Exception {
+		JobMXBean job = getJobBean(domainName, instanceName, jobId);
+		JobSnapshots snapshots = new JobSnapshots();
+		snapshots.jobId = jobId;
 		
-		InstanceMXBean instance = getInstanceBean(domainName, instanceName);
-		Set<BigInteger> jobIds = instance.getJobs();
-
-		JSONObject jobInfo = new JSONObject();
-		Iterator<BigInteger> it = jobIds.iterator();
-		while (it.hasNext()) {
-			long nextId = it.next().longValue();
-			JobMXBean jobBean = getJobBean(domainName, instanceName, nextId);
-			if (jobBean.getName().equals(jobName)) {
-			  long jobId = nextId;
-			  JSONObject singleJobJson = getJobInfoJSON(domainName, instanceName, jobId);
-			  jobInfo.put(Long.toString(jobId), singleJobJson);
-			  return(jobInfo);
-				
-			}
+		// metrics change all the time and are always read
+		ObjectName objName = ObjectNameBuilder.job(domainName, instanceName, BigInteger.valueOf(jobId));
+		snapshots.status = getJobStatusSnapshot(objName, job);
+		snapshots.metrics = getJobMetricInfoJSONString(job);
+		MetricsFilter metricsFilter = getMetricsFilter();
+		if (null != metricsFilter) {
+			long start = System.nanoTime();
+			snapshots.metrics = metricsFilter.filter(snapshots.metrics);
+			_latencyStats.record("filterMetrics", start);
 		}
-		
-		throw new Exception("Could not find job named " + jobName); 
+		if (getKeepMetricHistory())
+			getMetricHistory(objName).record(snapshots.metrics);
+		return(snapshots);
+	}
 	
-	}	
+	//***********************************************
+	// A job's status snapshot.  It only changes along
+	// with a job notification, so is kept in the
+	// state model.
+	//***********************************************
+	private String getJobStatusSnapshot(ObjectName objName, JobMXBean job) throws Exception {
+		String status = (String)(getState(objName, "statusSnapshot"));
+		if (null == status) {
+			long version = beginState(objName);
+			status = getJobStatusInfoJSONString(job);
+			putState(objName, "statusSnapshot", status, version);
+		}
+		return(status);
+	}
 	
 	//***********************************************
-	// Build JSON object for individual job
+	// Write one job's entry of the jobInfo object
 	//***********************************************
-	private JSONObject getJobInfoJSON(String domainName, String instanceName, long jobId) throws Exception {
-
-		JSONObject jobInfo = new JSONObject();
-		
-		JobMXBean job = getJobBean(domainName, instanceName, jobId);
-		setDefaultHostnameVerifier();
-		
-		String jobStatusJsonString = getJobStatusInfoJSONString(job);
-		jobInfo.put("jobStatusInfoRaw", jobStatusJsonString);
-		
-		String jobMetricsJsonString = getJobMetricInfoJSONString(job);
-		jobInfo.put("jobMetricInfoRaw", jobMetricsJsonString);		
-		
-		return(jobInfo);
+	private void writeJobEntry(Writer out, boolean first, JobSnapshots snapshots) throws Exception {
+		long start = System.nanoTime();
+		if (!first)
+			out.write(',');
+		JSONWriter.writeName(out, Long.toString(snapshots.jobId));
+		out.write('{');
+		if (getNativeJSON()) {
+			// Spliced in as-is; only checked so a bad snapshot cannot corrupt the document
+			JSONReader.validate(snapshots.status);
+			JSONReader.validate(snapshots.metrics);
+			JSONWriter.writeName(out, "jobStatusInfo");
+			out.write(snapshots.status);
+			out.write(',');
+			JSONWriter.writeName(out, "jobMetricsInfo");
+			out.write(snapshots.metrics);
+		}
+		else {
+			JSONWriter.writeName(out, "jobStatusInfoRaw");
+			JSONWriter.writeString(out, snapshots.status);
+			out.write(',');
+			JSONWriter.writeName(out, "jobMetricInfoRaw");
+			JSONWriter.writeString(out, snapshots.metrics);
+		}
+		if (getIndexSnapshots()) {
+			long indexStart = System.nanoTime();
+			out.write(',');
+			JSONWriter.writeName(out, "jobIndex");
+			SnapshotIndex.write(out, snapshots.status, snapshots.metrics);
+			_latencyStats.record("indexJob", indexStart);
+		}
+		out.write('}');
+		out.flush();
+		_latencyStats.record("writeJob", start);
 	}
 	
+	//***********************************************
+	// Whether job snapshots are embedded as JSON
+	// objects (jobStatusInfo/jobMetricsInfo) instead
+	// of escaped strings (jobStatusInfoRaw/jobMetricInfoRaw)
+	//***********************************************
+	public void setNativeJSON(boolean nativeJSON) {
+		_nativeJSON = nativeJSON;
+	}
+	
+	public boolean getNativeJSON() {
+		return(_nativeJSON);
+	}
+	
+	private boolean _nativeJSON = false;
+	
+	//***********************************************
+	// Whether each job entry also gets a jobIndex:
+	// the array positions of its PEs, operators,
+	// ports and connections in the two snapshots,
+	// by id and name (see SnapshotIndex)
+	//***********************************************
+	public void setIndexSnapshots(boolean indexSnapshots) {
+		_indexSnapshots = indexSnapshots;
+	}
+	
+	public boolean getIndexSnapshots() {
+		return(_indexSnapshots);
+	}
+	
+	private boolean _indexSnapshots = false;
+	
+	//***********************************************
+	// Counts and latency percentiles of the stages of
+	// every request this process has made, such as
+	// connectToJMX, registerJob, snapshot, readFromURL
+	// and serialize (see LatencyStats).  Shared by all
+	// StreamsManagement objects.
+	//***********************************************
+	public static String getStatsJSONString() {
+		return(_latencyStats.snapshot().toJSONString());
+	}
+	
+	public static void resetStats() {
+		_latencyStats.reset();
+	}
+	
+	static LatencyStats getLatencyStats() {
+		return(_latencyStats);
+	}
+	
+	private static final LatencyStats _latencyStats = new LatencyStats();
+	
+	//***********************************************
+	// Filter applied to job metrics snapshots before
+	// they are written.  null writes them whole.
+	//***********************************************
+	void setMetricsFilter(MetricsFilter metricsFilter) {
+		_metricsFilter = metricsFilter;
+	}
+	
+	MetricsFilter getMetricsFilter() {
+		return(_metricsFilter);
+	}
+	
+	private MetricsFilter _metricsFilter = null;
+	
 
 	//***********************************************
 	// Get a domain bean
 	//***********************************************
 	private DomainMXBean getDomainBean(String domainName) { 
       ObjectName objName = ObjectNameBuilder.domain(domainName);
-      DomainMXBean domain = JMX.newMXBeanProxy(getMsbc(), objName, DomainMXBean.class, true);
+      DomainMXBean domain = getProxy(objName, DomainMXBean.class);
       return(domain);
 	}
 	
@@ -639,20 +1652,98 @@ public class StreamsManagement {
 	//***********************************************
 	private InstanceMXBean getInstanceBean(String domainName, String instanceName) { 
       ObjectName objName = ObjectNameBuilder.instance(domainName, instanceName ) ; 
-      InstanceMXBean instance = JMX.newMXBeanProxy(getMsbc(), objName, InstanceMXBean.class, true);     
+      InstanceMXBean instance = getProxy(objName, InstanceMXBean.class);     
       return(instance);
 	}	
 
 	//***********************************************
 	// Get a job bean
+	// The job is only registered with the instance
+	// the first time it is looked up.  The server
+	// unregisters job beans that have not been used
+	// for a while, so a call that finds the bean gone
+	// registers the job again and is retried once.
 	//***********************************************
-	private JobMXBean getJobBean(String domainName, String instanceName, long jobId) { 
-      java.math.BigInteger jobNumber = java.math.BigInteger.valueOf(jobId);
-      InstanceMXBean instance = getInstanceBean(domainName, instanceName);
-      instance.registerJob(jobNumber);
-      ObjectName objName = ObjectNameBuilder.job(domainName,instanceName, jobNumber ); 
-      JobMXBean job = JMX.newMXBeanProxy(getMsbc(), objName, JobMXBean.class, true);        
-      return(job);
+	private JobMXBean getJobBean(final String domainName, final String instanceName, long jobId) { 
+      final BigInteger jobNumber = BigInteger.valueOf(jobId);
+      final ObjectName objName = ObjectNameBuilder.job(domainName,instanceName, jobNumber ); 
+      registerJob(domainName, instanceName, jobNumber, objName);
+      final JobMXBean job = getProxy(objName, JobMXBean.class);        
+      return((JobMXBean)(Proxy.newProxyInstance(StreamsManagement.class.getClassLoader(),
+        new Class<?>[] { JobMXBean.class }, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            try {
+              return(method.invoke(job, args));
+            } catch (InvocationTargetException e) {
+              if (!isInstanceNotFound(e.getCause()))
+                throw e.getCause();
+            }
+            _registeredJobs.remove(objName);
+            registerJob(domainName, instanceName, jobNumber, objName);
+            try {
+              return(method.invoke(job, args));
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        })));
+	}
+	
+	private void registerJob(String domainName, String instanceName, BigInteger jobNumber, ObjectName objName) {
+      if (!_registeredJobs.containsKey(objName)) {
+        InstanceMXBean instance = getInstanceBean(domainName, instanceName);
+        long start = System.nanoTime();
+        instance.registerJob(jobNumber);
+        _latencyStats.record("registerJob", start);
+        _registeredJobs.put(objName, ObjectNameBuilder.instance(domainName, instanceName));
+      }
+	}
+	
+	// A bean proxy call reports a bean that is not registered
+	// as an InstanceNotFoundException, wrapped as undeclared
+	private static boolean isInstanceNotFound(Throwable e) {
+      for (Throwable next = e; null != next; next = next.getCause()) {
+        if (next instanceof InstanceNotFoundException)
+          return(true);
+      }
+      return(false);
+	}
+	
+	//***********************************************
+	// Get the job ids of an instance.
+	// Cached proxies, registrations and index entries
+	// of jobs that are no longer in the instance are
+	// dropped.
+	//***********************************************
+	@SuppressWarnings("unchecked")
+	private Set<BigInteger> getJobIds(String domainName, String instanceName) {
+      ObjectName instanceObjName = ObjectNameBuilder.instance(domainName, instanceName);
+      Set<BigInteger> jobIds = (Set<BigInteger>)(getState(instanceObjName, "jobs"));
+      if (null == jobIds) {
+        long version = beginState(instanceObjName);
+        long start = System.nanoTime();
+        jobIds = getInstanceBean(domainName, instanceName).getJobs();
+        _latencyStats.record("getJobs", start);
+        putState(instanceObjName, "jobs", jobIds, version);
+      }
+      
+      HashSet<ObjectName> current = new HashSet<ObjectName>();
+      for (BigInteger nextId : jobIds)
+        current.add(ObjectNameBuilder.job(domainName, instanceName, nextId));
+      
+      Iterator<Map.Entry<ObjectName,ObjectName>> it = _registeredJobs.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<ObjectName,ObjectName> next = it.next();
+        if ((instanceObjName.equals(next.getValue())) && (!current.contains(next.getKey()))) {
+          _proxies.remove(next.getKey());
+          forgetState(next.getKey());
+          _metricHistories.remove(next.getKey());
+          _metricsDeltas.remove(next.getKey());
+          it.remove();
+        }
+      }
+      getJobIndex(domainName, instanceName).retain(jobIds);
+      return(jobIds);
 	}
 	
 	//***********************************************
@@ -660,7 +1751,7 @@ public class StreamsManagement {
 	//***********************************************
 	private StreamsHostResourceManagerMXBean getHostResourceManagerBean(String domainName) { 
       ObjectName objName = ObjectNameBuilder.resourceManager(domainName, ResourceMXBean.RESOURCE_TYPE_STREAMS);
-      StreamsHostResourceManagerMXBean resourceManager = JMX.newMXBeanProxy(getMsbc(), objName, StreamsHostResourceManagerMXBean.class, true);
+      StreamsHostResourceManagerMXBean resourceManager = getProxy(objName, StreamsHostResourceManagerMXBean.class);
       return(resourceManager);
 	}
 	
@@ -669,16 +1760,81 @@ public class StreamsManagement {
 	//***********************************************
 	private ResourceMXBean getResourceBean(String domainName, String hostName) { 
       ObjectName objName = ObjectNameBuilder.resource(domainName, hostName);
-      ResourceMXBean resource = JMX.newMXBeanProxy(getMsbc(), objName, ResourceMXBean.class, true);
+      ResourceMXBean resource = getProxy(objName, ResourceMXBean.class);
       return(resource);
 	}		
 	
 	//***********************************************
-	// Set default hostname verifier
+	// Notification driven state, if enabled
+	//***********************************************
+	private Object getState(ObjectName objName, String facet) {
+      StateModel state = _state;
+      return((null == state) ? null : state.get(objName, facet));
+	}
+	
+	private long beginState(ObjectName objName) {
+      StateModel state = _state;
+      return((null == state) ? 0 : state.begin(objName));
+	}
+	
+	private void putState(ObjectName objName, String facet, Object value, long version) {
+      StateModel state = _state;
+      if (null != state)
+        state.put(objName, facet, value, version);
+	}
+	
+	private void invalidateState(ObjectName objName) {
+      StateModel state = _state;
+      if (null != state)
+        state.invalidate(objName);
+	}
+	
+	private void forgetState(ObjectName objName) {
+      StateModel state = _state;
+      if (null != state)
+        state.forget(objName);
+	}
+	
 	//***********************************************
-	private void setDefaultHostnameVerifier() throws Exception {
-	  // Set up SSL so that we will trust signer certificates as well as verify any default hostname
-	  TrustManager[] trustAllCerts = new TrustManager[] { 
+	// Get a cached MXBean proxy, creating it on
+	// first use
+	//***********************************************
+	private <T> T getProxy(ObjectName objName, Class<T> beanClass) {
+      Object proxy = _proxies.get(objName);
+      if (null == proxy) {
+        long start = System.nanoTime();
+        proxy = JMX.newMXBeanProxy(getMsbc(), objName, beanClass, true);
+        _latencyStats.record("createProxy", start);
+        Object existing = _proxies.putIfAbsent(objName, proxy);
+        if (null != existing)
+          proxy = existing;
+      }
+      return(beanClass.cast(proxy));
+	}
+	
+	//***********************************************
+	// Open an HTTPS connection to the domain.
+	// All connections of this object share one SSL
+	// socket factory, which is what lets the JDK
+	// keep-alive cache hand back an already
+	// established TLS connection to the same host.
+	//***********************************************
+	private HttpsURLConnection openConnection(URL url) throws Exception {
+	  HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+	  conn.setSSLSocketFactory(getSSLSocketFactory());
+	  conn.setHostnameVerifier(_trustAllHosts);
+	  return(conn);
+	}
+	
+	//***********************************************
+	// SSL socket factory for this session, created
+	// on first use.  We trust signer certificates as
+	// well as any hostname, as the default verifier
+	// used to be set up to do.
+	//***********************************************
+	private synchronized SSLSocketFactory getSSLSocketFactory() throws Exception {
+	  if (null == _sslSocketFactory) {
+	    TrustManager[] trustAllCerts = new TrustManager[] { 
 	                  new X509TrustManager() {     
 	                  public java.security.cert.X509Certificate[] getAcceptedIssuers() { 
 	                      return new X509Certificate[0];                    
@@ -687,95 +1843,354 @@ public class StreamsManagement {
 	                  public void checkServerTrusted(java.security.cert.X509Certificate[] certs, String authType) throws CertificateException {}
 	              } 
 	          };     
-	  SSLContext ctx = SSLContext.getInstance("TLSv1");
-	  ctx.init(null, trustAllCerts, null); 
-	  SSLSocketFactory ssf = ctx.getSocketFactory(); 
-	  HttpsURLConnection.setDefaultSSLSocketFactory(ssf);    
-	  HostnameVerifier hv = new HostnameVerifier() {
-	      public boolean verify(String hostname, SSLSession session) {
-	    	  return(true);
-	      }
-	  };
-	  HttpsURLConnection.setDefaultHostnameVerifier(hv);
-	  return;		
+	    SSLContext ctx = SSLContext.getInstance("TLSv1");
+	    ctx.init(null, trustAllCerts, null); 
+	    _sslSocketFactory = ctx.getSocketFactory(); 
+	  }
+	  return(_sslSocketFactory);
 	}
 	
+	//***********************************************
+	// Read and discard an error response so the
+	// connection can go back to the keep-alive cache
+	//***********************************************
+	private static void drainErrorStream(HttpsURLConnection conn) {
+	  try {
+	    java.io.InputStream err = conn.getErrorStream();
+	    if (null != err) {
+	      byte[] discard = new byte[8 * 1024];
+	      while (-1 != err.read(discard)) {}
+	      err.close();
+	    }
+	  } catch (IOException e) {
+	    // connection is simply not reused
+	  }
+	}
+	
+	private SSLSocketFactory _sslSocketFactory = null;
+	
+	private static final HostnameVerifier _trustAllHosts = new HostnameVerifier() {
+	  public boolean verify(String hostname, SSLSession session) {
+	    return(true);
+	  }
+	};
+	
+	
 	//***********************************************
 	// Read from a URL
+	// The response is read into a pooled buffer that
+	// is presized from Content-Length and reused
+	// between fetches, then decoded once.
 	//***********************************************
 	private String readFromURL(URL url) throws Exception {
-	  HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+	  long start = System.nanoTime();
+	  HttpsURLConnection conn = openConnection(url);
 	  conn.setRequestMethod("GET");		
       conn.connect();
-	  BufferedReader in = new BufferedReader(new InputStreamReader(
-	                                         conn.getInputStream()));
-	  String inputLine;
-	  String jsonString ="";
-	  while ((inputLine = in.readLine()) != null) {  
-	    jsonString = jsonString + inputLine;          
-	  }
-	  in.close();	    	
+      
+      ResponseBuffer buffer = ResponseBuffer.take();
+      long contentLength = conn.getContentLengthLong();
+      if ((contentLength > 0) && (contentLength < Integer.MAX_VALUE))
+        buffer.ensureCapacity((int)contentLength + 1);  // +1 so the final read sees end of stream without growing
+      
+      java.io.InputStream in;
+      try {
+        in = conn.getInputStream();
+      } catch (IOException e) {
+        drainErrorStream(conn);
+        throw e;
+      }
+      try {
+        buffer.readFrom(in);
+      } finally {
+        in.close();
+      }
+      String jsonString = new String(buffer.bytes(), 0, buffer.size(), "UTF-8");
+      ResponseBuffer.give(buffer);
+      _latencyStats.record("readFromURL", start);
 	  return(jsonString);		
 	}
 	
+	//***********************************************
+	// Growable byte buffer whose contents can be
+	// read in place
+	// A few buffers are kept for reuse, whatever the
+	// number of threads fetching; larger ones are
+	// dropped after use.
+	//***********************************************
+	static class ResponseBuffer extends ByteArrayOutputStream {
+	  private static final int MAX_RETAINED = 4 * 1024 * 1024;
+	  private static final ArrayBlockingQueue<ResponseBuffer> _pool = new ArrayBlockingQueue<ResponseBuffer>(4);
+	  
+	  static ResponseBuffer take() {
+	    ResponseBuffer buffer = _pool.poll();
+	    return((null != buffer) ? buffer : new ResponseBuffer());
+	  }
+	  
+	  static void give(ResponseBuffer buffer) {
+	    buffer.reset();
+	    if (buffer.buf.length <= MAX_RETAINED)
+	      _pool.offer(buffer);
+	  }
+	  
+	  ResponseBuffer() {
+	    super(64 * 1024);
+	  }
+	  
+	  byte[] bytes() {
+	    return(buf);
+	  }
+	  
+	  void ensureCapacity(int capacity) {
+	    if (capacity > buf.length)
+	      buf = Arrays.copyOf(buf, capacity);
+	  }
+	  
+	  // Read the stream to its end directly into the buffer
+	  void readFrom(java.io.InputStream in) throws IOException {
+	    while (true) {
+	      if (count == buf.length)
+	        buf = Arrays.copyOf(buf, buf.length * 2);
+	      int numBytes = in.read(buf, count, buf.length - count);
+	      if (-1 == numBytes)
+	        return;
+	      count += numBytes;
+	    }
+	  }
+	}
+	
 	
 	//***********************************************
 	// Read from a URL into a file
+	// The data goes to <file>.part through a large
+	// direct buffer, and the part file is renamed to
+	// the file once it is complete, so the file is
+	// never seen half written.  A download that breaks
+	// off, in this call or an earlier one that left
+	// the part file behind, is picked up where it
+	// stopped with an HTTP Range request (or started
+	// over if the server sends the whole file again,
+	// or a range that does not start there).  The
+	// bytes read are checked against Content-Length,
+	// or the total of Content-Range, so a response
+	// cut short is not taken as the whole file.
+	// Returns the size of the file.
 	//***********************************************
-	private void readFromURLIntoFile(URL url, String fileName) throws Exception {
-	  HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
-	  conn.setRequestMethod("GET");		
-      conn.connect();
-
-      FileOutputStream out = new FileOutputStream(fileName);      
-      java.io.InputStream in = conn.getInputStream();
-      
-      byte[] buffer = new byte[1024];
-      int numBytes = 0;
-      while (-1 != (numBytes = in.read(buffer))) {
-    	  out.write(buffer, 0, numBytes);
-      }
-      in.close();
-      out.close();
-      return;
-
+	private long readFromURLIntoFile(URL url, String fileName) throws Exception {
+	  File file = new File(fileName).getAbsoluteFile();
+	  File part = new File(file.getParentFile(), file.getName() + ".part");
+	  
+	  FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+	  try {
+	    out.position(out.size());
+	    ByteBuffer buffer = ByteBuffer.allocateDirect(DOWNLOAD_BUFFER_SIZE);
+	    int attempt = 0;
+	    while (true) {
+	      ReadableByteChannel in = null;
+	      try {
+	        HttpsURLConnection conn = openConnection(url);
+	        conn.setRequestMethod("GET");
+	        long start = out.position();
+	        if (start > 0)
+	          conn.setRequestProperty("Range", "bytes=" + start + "-");
+	        conn.connect();
+	        
+	        int response = conn.getResponseCode();
+	        if ((416 == response) && (start > 0)) {
+	          // the part file is not a start of this file
+	          out.truncate(0);
+	          throw new IOException("Range not satisfiable reading " + file.getName());
+	        }
+	        if ((200 != response) && (206 != response))
+	          throw new Exception("Unexpected response code reading " + file.getName() + ":  " + Integer.toString(response));
+	        long expected;  // size of the whole file, -1 if not known
+	        if (206 == response) {
+	          long[] range = parseContentRange(conn.getHeaderField("Content-Range"));
+	          if ((null == range) || (range[0] != start)) {
+	            out.truncate(0);
+	            throw new IOException("Content-Range of " + file.getName() + " does not start at " + start + ":  " + conn.getHeaderField("Content-Range"));
+	          }
+	          expected = range[1];
+	        }
+	        else {
+	          out.truncate(0);
+	          expected = conn.getContentLengthLong();
+	        }
+	        
+	        in = Channels.newChannel(conn.getInputStream());
+	        buffer.clear();
+	        while (-1 != in.read(buffer)) {
+	          buffer.flip();
+	          while (buffer.hasRemaining())
+	            out.write(buffer);
+	          buffer.clear();
+	        }
+	        // a body that ends early can end without an error
+	        if ((expected >= 0) && (out.position() != expected))
+	          throw new IOException("Read " + out.position() + " of " + expected + " bytes of " + file.getName());
+	        break;
+	      } catch (IOException e) {
+	        if (++attempt > DOWNLOAD_RETRIES)
+	          throw e;
+	      } finally {
+	        if (null != in)
+	          in.close();
+	      }
+	    }
+	  } catch (Exception e) {
+	    // the part file is kept for the next call to resume
+	    out.close();
+	    throw e;
+	  }
+	  long size = out.size();
+	  out.close();
+	  
+	  Files.move(part.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	  return(size);
+	}
+	
+	// First byte and total size of a "bytes <first>-<last>/<total>"
+	// Content-Range, the total -1 if it is *.  null if not of that form.
+	private static long[] parseContentRange(String contentRange) {
+	  if (null == contentRange)
+	    return(null);
+	  java.util.regex.Matcher matcher = CONTENT_RANGE.matcher(contentRange.trim());
+	  if (!matcher.matches())
+	    return(null);
+	  long total = matcher.group(2).equals("*") ? -1 : Long.parseLong(matcher.group(2));
+	  return(new long[] { Long.parseLong(matcher.group(1)), total });
 	}
 	
+	private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-\\d+/(\\d+|\\*)");
+	private static final int DOWNLOAD_BUFFER_SIZE = 1024*1024;
+	private static final int DOWNLOAD_RETRIES = 3;
+	
 	
 	//***********************************************
 	// Push a bundle file up to servia via
 	// a http push
+	// The file is copied to the connection in
+	// UPLOAD_CHUNK_SIZE pieces and the length is sent
+	// as a long so bundles over 2GB upload.
+	// Returns the size of the bundle.
 	//***********************************************
-	private void pushFileToServer(URL url, File bundle) throws Exception {
-      HttpsURLConnection conn = (HttpsURLConnection) url.openConnection();
+	private long pushFileToServer(URL url, File bundle) throws Exception {
+      HttpsURLConnection conn = openConnection(url);
 
       conn.setRequestMethod("PUT");
       conn.setRequestProperty("Content-Type", "application/x-jar");
-      conn.setRequestProperty("Content-Length", Long.toString(bundle.length()));
-      conn.setFixedLengthStreamingMode((int)bundle.length());
+      conn.setFixedLengthStreamingMode(bundle.length());
       conn.setDoOutput(true);
       
-      FileInputStream fiStream = new FileInputStream(bundle.getAbsolutePath());
-      
-      java.io.OutputStream out = conn.getOutputStream();
-      
-      byte [] byteBuf = new byte[1024*64];
-      int  bytesRead = 0;
-      
-      while (-1 != (bytesRead = fiStream.read(byteBuf))) {
-    	  out.write(byteBuf, 0, bytesRead);
+      FileInputStream in = new FileInputStream(bundle);
+      java.io.OutputStream out = null;
+      try {
+    	  out = conn.getOutputStream();
+    	  byte[] buffer = new byte[UPLOAD_CHUNK_SIZE];
+    	  int count;
+    	  while ((count = in.read(buffer)) > 0)
+    		  out.write(buffer, 0, count);
+      } finally {
+    	  in.close();
+    	  if (null != out)
+    		  out.close();
       }
-      out.close();
-      fiStream.close();
       
       // read the response
       int response = conn.getResponseCode();
       if (200 != response)
     	  throw new Exception("Unexpected response code pushing bundle file:  " + Integer.toString(response));
       
-      return; 		
+      return(bundle.length()); 		
 	}
 	
+	private static final int UPLOAD_CHUNK_SIZE = 1024*256;
+	
+	//***********************************************
+	// Number of concurrent fetches used when
+	// collecting info for, cancelling, submitting or
+	// getting the logs of many jobs.  1 (the default)
+	// handles one job at a time.  The JDK keeps only
+	// http.maxConnections (default 5) idle HTTPS
+	// connections per host, so callers that fetch
+	// more at a time should raise it before any
+	// connection is made, as StreamsManagementWrapper
+	// does.
+	// A change resizes the executor in place, so
+	// fetches already queued or running on it are
+	// not disturbed.
+	//***********************************************
+	public synchronized void setParallelism(int parallelism) {
+	  if (parallelism < 1)
+	    parallelism = 1;
+	  if ((parallelism != _parallelism) && (null != _executor)) {
+	    // the core size may not go over the maximum
+	    ThreadPoolExecutor executor = (ThreadPoolExecutor)_executor;
+	    if (parallelism > executor.getMaximumPoolSize()) {
+	      executor.setMaximumPoolSize(parallelism);
+	      executor.setCorePoolSize(parallelism);
+	    }
+	    else {
+	      executor.setCorePoolSize(parallelism);
+	      executor.setMaximumPoolSize(parallelism);
+	    }
+	  }
+	  _parallelism = parallelism;
+	}
+	
+	public synchronized int getParallelism() {
+	  return(_parallelism);
+	}
+	
+	//***********************************************
+	// Executor used for concurrent fetches.  Threads
+	// are virtual when the JVM supports them (Java 21
+	// and later), otherwise daemon platform threads.
+	//***********************************************
+	private synchronized ExecutorService getExecutor() {
+	  if (null == _executor) {
+	    ThreadFactory factory = null;
+	    try {
+	      Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+	      factory = (ThreadFactory)(builder.getClass().getMethod("factory").invoke(builder));
+	    } catch (Exception e) {
+	      factory = new ThreadFactory() {
+	        public Thread newThread(Runnable r) {
+	          Thread t = new Thread(r, "StreamsManagement-fetch");
+	          t.setDaemon(true);
+	          return(t);
+	        }
+	      };
+	    }
+	    _executor = Executors.newFixedThreadPool(getParallelism(), factory);
+	  }
+	  return(_executor);
+	}
+	
+	private synchronized void shutdownExecutor() {
+	  if (null != _executor) {
+	    _executor.shutdownNow();
+	    _executor = null;
+	  }
+	}
+	
+	//***********************************************
+	// Wait for a fetch, rethrowing its failure
+	//***********************************************
+	private static <T> T waitFor(Future<T> future) throws Exception {
+	  try {
+	    return(future.get());
+	  } catch (ExecutionException e) {
+	    if (e.getCause() instanceof Exception)
+	      throw (Exception)(e.getCause());
+	    throw e;
+	  }
+	}
+	
+	private int _parallelism = 1;
+	private ExecutorService _executor = null;
+	
+	
 	//***********************************************
 	// Throw exception if not connected
 	//***********************************************
@@ -790,6 +2205,38 @@ public class StreamsManagement {
 	//***********************************************	
 	private MBeanServerConnection _mbsc;
 	
+	//***********************************************	
+	// MXBean proxies keyed by ObjectName, and the 
+	// jobs already registered with their instance
+	// (job ObjectName -> instance ObjectName)
+	//***********************************************	
+	private ConcurrentHashMap<ObjectName,Object> _proxies = new ConcurrentHashMap<ObjectName,Object>();
+	private ConcurrentHashMap<ObjectName,ObjectName> _registeredJobs = new ConcurrentHashMap<ObjectName,ObjectName>();
+	
+	//***********************************************	
+	// Job name index of each instance
+	//***********************************************	
+	private ConcurrentHashMap<ObjectName,JobIndex> _jobIndexes = new ConcurrentHashMap<ObjectName,JobIndex>();
+	
+	//***********************************************	
+	// Recorded metrics of each job
+	//***********************************************	
+	private boolean _keepMetricHistory = false;
+	private ConcurrentHashMap<ObjectName,MetricHistory> _metricHistories = new ConcurrentHashMap<ObjectName,MetricHistory>();
+	
+	//***********************************************	
+	// Metrics last handed out for each job, for
+	// delta responses
+	//***********************************************	
+	private ConcurrentHashMap<ObjectName,MetricsDelta> _metricsDeltas = new ConcurrentHashMap<ObjectName,MetricsDelta>();
+	
+	//***********************************************	
+	// Notification driven state of the beans, null
+	// unless notifications are used
+	//***********************************************	
+	private boolean _useNotifications = false;
+	private volatile StateModel _state = null;
+	
 	private boolean isConnected() {
 	  if (null == getMsbc())
 	    return(false);
@@ -799,6 +2246,16 @@ public class StreamsManagement {
 	
 	private void setMsbc(MBeanServerConnection mbsc) {
       _mbsc = mbsc;
+      // proxies are bound to the connection they were made with
+      _proxies.clear();
+      _registeredJobs.clear();
+      _jobIndexes.clear();
+      _metricHistories.clear();
+      _metricsDeltas.clear();
+      if (null != _state) {
+        _state.close();
+        _state = null;
+      }
 	}
 	
 	private MBeanServerConnection getMsbc() {
@@ -8,31 +8,66 @@ package com.ibm.streamsx.management;
 
 import com.ibm.streamsx.management.StreamsManagement;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 import java.util.Vector;
 
+import com.ibm.json.java.JSONArray;
+import com.ibm.json.java.JSONObject;
+
 //
 public class StreamsManagementWrapper {
 
-	private static final int ACTION_DOMAININFO           = 0x000001;
-	private static final int ACTION_INSTANCEINFO         = 0x000002;
-	private static final int ACTION_SINGLEJOBINFO        = 0x000004;
-	private static final int ACTION_ALLJOBINFO           = 0x000008;
-	private static final int ACTION_SINGLEJOBINFOBYNAME  = 0x000010;
-	private static final int ACTION_SUBMITJOB            = 0x000020;
-	private static final int ACTION_CANCELJOB            = 0x000040;
-	private static final int ACTION_ADDDOMAINHOST        = 0x000080;
-	private static final int ACTION_REMOVEDOMAINHOST     = 0x000100;
-	private static final int ACTION_GETDOMAINHOSTS       = 0x000200;
-	private static final int ACTION_ADDTAGTOHOST         = 0x000400;
-	private static final int ACTION_REMOVETAGFROMHOST    = 0x000800;
-	private static final int ACTION_GETHOSTTAGS          = 0x001000;
-	private static final int ACTION_MAKEINSTANCE         = 0x002000;
-	private static final int ACTION_REMOVEINSTANCE       = 0x004000;	
-	private static final int ACTION_STARTINSTANCE        = 0x008000;	
-	private static final int ACTION_STOPINSTANCE         = 0x010000;
-	private static final int ACTION_GETJOBLOGS           = 0x020000;
-	private static final int ACTION_GETDOMAINLOGS        = 0x040000;
+	// Action bits for parameter checks; a long, as the first 32 are taken
+	private static final long ACTION_DOMAININFO           = 0x000001L;
+	private static final long ACTION_INSTANCEINFO         = 0x000002L;
+	private static final long ACTION_SINGLEJOBINFO        = 0x000004L;
+	private static final long ACTION_ALLJOBINFO           = 0x000008L;
+	private static final long ACTION_SINGLEJOBINFOBYNAME  = 0x000010L;
+	private static final long ACTION_SUBMITJOB            = 0x000020L;
+	private static final long ACTION_CANCELJOB            = 0x000040L;
+	private static final long ACTION_ADDDOMAINHOST        = 0x000080L;
+	private static final long ACTION_REMOVEDOMAINHOST     = 0x000100L;
+	private static final long ACTION_GETDOMAINHOSTS       = 0x000200L;
+	private static final long ACTION_ADDTAGTOHOST         = 0x000400L;
+	private static final long ACTION_REMOVETAGFROMHOST    = 0x000800L;
+	private static final long ACTION_GETHOSTTAGS          = 0x001000L;
+	private static final long ACTION_MAKEINSTANCE         = 0x002000L;
+	private static final long ACTION_REMOVEINSTANCE       = 0x004000L;	
+	private static final long ACTION_STARTINSTANCE        = 0x008000L;	
+	private static final long ACTION_STOPINSTANCE         = 0x010000L;
+	private static final long ACTION_GETJOBLOGS           = 0x020000L;
+	private static final long ACTION_GETDOMAINLOGS        = 0x040000L;
+	private static final long ACTION_SERVE                = 0x080000L;
+	private static final long ACTION_JOBIDBYNAME          = 0x100000L;
+	private static final long ACTION_RECORDMETRICS        = 0x200000L;
+	private static final long ACTION_METRICHISTORY        = 0x400000L;
+	private static final long ACTION_METRICSDELTA         = 0x800000L;
+	private static final long ACTION_CANCELJOBS           = 0x1000000L;
+	private static final long ACTION_SUBMITJOBS           = 0x2000000L;
+	private static final long ACTION_GETJOBSLOGS          = 0x4000000L;
+	private static final long ACTION_COLLECT              = 0x8000000L;
+	private static final long ACTION_EXPORTMETRICS        = 0x10000000L;
+	private static final long ACTION_GETSTATS             = 0x20000000L;
+	private static final long ACTION_QUERY                = 0x40000000L;
+	private static final long ACTION_WAITFOR              = 0x80000000L;
 	
 		
 	
@@ -46,9 +81,58 @@ public class StreamsManagementWrapper {
 		      return;
 			}
 		
+			// The JDK keeps only 5 idle connections per host by default,
+			// fewer than a parallel fetch can use.  Set before any HTTPS
+			// connection is made, and only if the user has not set it.
+			if (null == System.getProperty("http.maxConnections"))
+				System.setProperty("http.maxConnections", "32");
+			
 			// Main actions.
 			String action = args[0];
 			
+			if (action.equals("serve"))
+				serve(args);
+			
+			else if (action.equals("exportMetrics"))
+				exportMetrics(args);
+			
+			else if (!dispatch(action, args)) {
+				System.err.println("Invalid action:  " + action);
+				usage();
+				return;
+			}		
+			
+			// Must exit due to fact that there is a background thread
+			// kicked off by AuthenticatedUser object that will otherwise
+			// not die.
+		    System.exit(0);
+	}
+	
+	
+	//***********************************************
+	// Run a single action.
+	// Returns false if the action is not known.
+	// Any action takes -stats, which prints a line
+	//   STATS:{"<operation>":{"count":n,..},..}
+	// after its output, with the counts and latencies
+	// of the stages the action went through (see
+	// LatencyStats).
+	//***********************************************
+	private static boolean dispatch(String action, String [] args) {
+		
+			Vector<String> actionArgs = new Vector<String>(Arrays.asList(args));
+			if (actionArgs.remove("-stats")) {
+				while (actionArgs.remove("-stats")) {}
+				LatencyStats.Snapshot before = StreamsManagement.getLatencyStats().snapshot();
+				if (!dispatch(action, actionArgs.toArray(new String[0])))
+					return(false);
+				LatencyStats.Snapshot stats = StreamsManagement.getLatencyStats().snapshot().minus(before);
+				// Start on a fresh line in case a streamed document did not end with one
+				System.out.println();
+				System.out.println("STATS:" + stats.toJSONString());
+				return(true);
+			}
+		
 			if (action.equals("getDomainInfo")) 
 				getDomainInfo(args);	
 			
@@ -64,12 +148,21 @@ public class StreamsManagementWrapper {
 			else if (action.equals("getSingleJobInfoByName")) 
 				getSingleJobInfoByName(args);
 						
+			else if (action.equals("getJobIdByName")) 
+				getJobIdByName(args);
+						
 			else if (action.equals("submitJob")) 
 				submitJob(args);
 			
+			else if (action.equals("submitJobs"))			
+				submitJobs(args);	
+			
 			else if (action.equals("cancelJob"))			
 				cancelJob(args);	
 			
+			else if (action.equals("cancelJobs"))			
+				cancelJobs(args);	
+			
 			else if (action.equals("addDomainHost")) 
 				addDomainHost(args);
 			
@@ -100,25 +193,195 @@ public class StreamsManagementWrapper {
 			else if (action.equals("stopInstance"))
 				stopInstance(args);
 						
+			else if (action.equals("recordMetrics"))
+				recordMetrics(args);
+			
+			else if (action.equals("getMetricHistory"))
+				getMetricHistory(args);
+			
+			else if (action.equals("getMetricsDelta"))
+				getMetricsDelta(args);
+			
+			else if (action.equals("query"))
+				query(args);
+			
+			else if (action.equals("waitFor"))
+				waitFor(args);
+			
 			else if (action.equals("getJobLogs"))
 				getJobLogs(args);		
 			
+			else if (action.equals("getJobsLogs"))
+				getJobsLogs(args);		
+			
+			else if (action.equals("collect"))
+				collect(args);		
+			
 			else if (action.equals("getDomainLogs"))
 				getDomainLogs(args);	
 
-			else {
-				System.err.println("Invalid action:  " + action);
-				usage();
+			else if (action.equals("getStats"))
+				getStats(args);	
+
+			else 
+				return(false);
+			
+			return(true);
+	}
+	
+	
+	//***********************************************
+	// Serve mode.
+	// Keeps the JVM and its JMX connections alive and
+	// reads one JSON request per line from stdin:
+	//   {"id":1,"args":["getAllJobInfo","-domain","d","-instance","i"]}
+	// args are exactly the command line arguments of
+	// the single shot invocation.  -zkconnect defaults
+	// to the value given when the server was started.
+	// The action output is written to stdout as it is
+	// produced, in frames of a JSON header line and
+	// <n> bytes of output (see ServeOutput):
+	//   {"id":1,"bytes":<n>}
+	// and the request ends with a line
+	//   {"id":1,"rc":0}
+	// On failure rc is 1, "error" holds the message
+	// and any output already sent is to be dropped.
+	// For a request with -stats the end line also has
+	// "stats", the STATS block of the action.
+	// The server ends when stdin is closed.
+	//***********************************************
+	private static void serve(String [] args) {
+		try {
+			HashMap<String,Object> settings = getParms(args, ACTION_SERVE);
+			if (null == settings)
 				return;
-			}		
+			String zk = (String)(settings.get("ZK"));
 			
-			// Must exit due to fact that there is a background thread
-			// kicked off by AuthenticatedUser object that will otherwise
-			// not die.
-		    System.exit(0);
+			_connections = new HashMap<String,StreamsManagement>();
+			
+			BufferedReader in = new BufferedReader(new InputStreamReader(System.in, "UTF-8"));
+			PrintStream out = System.out;
+			PrintStream err = System.err;
+			String line;
+			while (null != (line = in.readLine())) {
+				if (0 == line.trim().length())
+					continue;
+				
+				long id = 0;
+				String error = null;
+				
+				ServeOutput actionOut = null;
+				ByteArrayOutputStream errBuf = new ByteArrayOutputStream();
+				try {
+					JSONObject request = JSONObject.parse(line);
+					if (request.get("id") instanceof Number)
+						id = ((Number)(request.get("id"))).longValue();
+					actionOut = new ServeOutput(out, id);
+					
+					JSONArray requestArgs = (JSONArray)(request.get("args"));
+					if ((null == requestArgs) || (0 == requestArgs.size()))
+						throw new Exception("Request has no args");
+					Vector<String> actionArgs = new Vector<String>();
+					for (Object nextArg : requestArgs)
+						actionArgs.add(nextArg.toString());
+					if ((null != zk) && (!actionArgs.contains("-zkconnect"))) {
+						actionArgs.add("-zkconnect");
+						actionArgs.add(zk);
+					}
+					
+					// Action output is framed and sent as it is written
+					System.setOut(new PrintStream(actionOut, true, "UTF-8"));
+					System.setErr(new PrintStream(errBuf, true, "UTF-8"));
+					String action = actionArgs.elementAt(0);
+					if (!dispatch(action, actionArgs.toArray(new String[0])))
+						error = "Invalid action:  " + action;
+				} catch (Exception e) {
+					error = e.toString();
+				} finally {
+					System.setOut(out);
+					System.setErr(err);
+				}
+				
+				String stats = null;
+				if (null != actionOut) {
+					actionOut.finish();
+					stats = actionOut.getStats();
+					if (null == error) {
+						if (null != actionOut.getException())
+							error = actionOut.getException();
+						else if ((0 == actionOut.getWritten()) && (0 != errBuf.size()))
+							error = errBuf.toString("UTF-8").trim();
+					}
+				}
+				
+				JSONObject end = new JSONObject();
+				end.put("id", id);
+				if (null == error)
+					end.put("rc", 0);
+				else {
+					end.put("rc", 1);
+					end.put("error", error);
+				}
+				if (null != stats)
+					end.put("stats", JSONObject.parse(stats));
+				out.write(end.serialize().getBytes("UTF-8"));
+				out.write('\n');
+				out.flush();
+			}
+			
+			// stdin closed; drop the connections
+			for (StreamsManagement management : _connections.values())
+				management.disconnectFromJMX();
+			_connections = null;
+		} catch (Exception e) {
+			printException(e);
+		}
 	}
 	
-
+	
+	//***********************************************
+	// Serve the job metrics of an instance for
+	// Prometheus (see MetricsExporter) until the
+	// process is killed.
+	//***********************************************
+	private static void exportMetrics(String [] args) {
+		try {
+			HashMap<String,Object> settings = getParms(args, ACTION_EXPORTMETRICS);
+			if (null == settings)
+				return;
+			
+			String zk = (String)(settings.get("ZK"));
+			String domainName = (String)(settings.get("DOMAIN"));
+			String instanceName = (String)(settings.get("INSTANCE"));
+			int port = Integer.parseInt((String)(settings.get("PORT")));
+			long refreshMillis = 60000;
+			if (settings.containsKey("REFRESH"))
+				refreshMillis = Long.parseLong((String)(settings.get("REFRESH"))) * 1000;
+			int parallelism = 1;
+			if (settings.containsKey("PARALLEL"))
+				parallelism = Integer.parseInt((String)(settings.get("PARALLEL")));
+			
+			// long lived, so keep state current from notifications
+			StreamsManagement management = new StreamsManagement();
+			management.setUseNotifications(true);
+			management.setParallelism(parallelism);
+			management.setMetricsFilter(getMetricsFilter(settings));
+			
+			final MetricsExporter exporter = new MetricsExporter(management, zk, domainName, instanceName, refreshMillis);
+			exporter.start(port);
+			Runtime.getRuntime().addShutdownHook(new Thread() {
+				public void run() {
+					exporter.stop();
+				}
+			});
+			System.err.println("Serving metrics on port " + port);
+			Thread.currentThread().join();
+		} catch (Exception e) {
+			printException(e);
+		}
+	}
+	
+	
 	//***********************************************
 	// Get all domain info
 	// Output printed to stdout to be collected
@@ -131,8 +394,7 @@ public class StreamsManagementWrapper {
           return;
 
         // connect
-        StreamsManagement management = new StreamsManagement();
-        connect(management, settings);
+        StreamsManagement management = connect(settings);
 
         String domainName = (String)(settings.get("DOMAIN"));
         String domainInfo = management.getDomainInfoJSONString(domainName);
@@ -157,8 +419,7 @@ public class StreamsManagementWrapper {
             return;
 		
         // connect
-        StreamsManagement management = new StreamsManagement();
-        connect(management, settings);
+        StreamsManagement management = connect(settings);
 
         String domainName = (String)(settings.get("DOMAIN"));
         String instanceName = (String)(settings.get("INSTANCE"));
@@ -186,12 +447,14 @@ public class StreamsManagementWrapper {
 			return;
 		
 		// connect
-		StreamsManagement management = new StreamsManagement();
-		connect(management, settings);
+		StreamsManagement management = connect(settings);
 		
 		String domainName = (String)(settings.get("DOMAIN"));
 		String instanceName = (String)(settings.get("INSTANCE")); 
 		long jobId = Long.parseLong((String)(settings.get("JOB"))); 
+		management.setNativeJSON(settings.containsKey("NATIVEJSON"));
+		management.setIndexSnapshots(settings.containsKey("INDEX"));
+		management.setMetricsFilter(getMetricsFilter(settings));
 		String jobInfo = management.getSingleJobJSONString(domainName, instanceName, jobId);
 		System.out.println(jobInfo);
 		
@@ -215,13 +478,26 @@ public class StreamsManagementWrapper {
 			return;
 		
 		// connect
-		StreamsManagement management = new StreamsManagement();
-		connect(management, settings);
+		StreamsManagement management = connect(settings);
 		
 		String domainName = (String)(settings.get("DOMAIN"));
 		String instanceName = (String)(settings.get("INSTANCE")); 
-		String jobInfo = management.getAllJobJSONString(domainName, instanceName);
-		System.out.println(jobInfo);
+		int parallelism = 1;
+		if (settings.containsKey("PARALLEL"))
+			parallelism = Integer.parseInt((String)(settings.get("PARALLEL")));
+		management.setParallelism(parallelism);
+		management.setNativeJSON(settings.containsKey("NATIVEJSON"));
+		management.setIndexSnapshots(settings.containsKey("INDEX"));
+		management.setMetricsFilter(getMetricsFilter(settings));
+		
+		// Stream the document so each job reaches the caller as soon as it is fetched
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 64 * 1024);
+		try {
+			management.writeAllJobJSON(domainName, instanceName, out);
+			out.write('\n');
+		} finally {
+			out.flush();
+		}
 		
 		// disconnect
 		disconnect(management);
@@ -243,12 +519,14 @@ public class StreamsManagementWrapper {
 			return;
 		
 		// connect
-		StreamsManagement management = new StreamsManagement();
-		connect(management, settings);		
+		StreamsManagement management = connect(settings);		
 		
 		String domainName = (String)(settings.get("DOMAIN"));
         String instanceName = (String)(settings.get("INSTANCE"));
         String jobName = (String)(settings.get("JOBNAME"));
+        management.setNativeJSON(settings.containsKey("NATIVEJSON"));
+        management.setIndexSnapshots(settings.containsKey("INDEX"));
+        management.setMetricsFilter(getMetricsFilter(settings));
         String jobInfo = management.getSingleJobByNameJSONString(domainName, instanceName, jobName);
         System.out.println(jobInfo);
 
@@ -261,6 +539,240 @@ public class StreamsManagementWrapper {
 	}
 	
 
+	//***********************************************
+	// Record a job's metrics in its metric history
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void recordMetrics(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_RECORDMETRICS);		
+		if (null == settings)
+			return;
+		
+		// connect
+		StreamsManagement management = connect(settings);		
+		
+		String domainName = (String)(settings.get("DOMAIN"));
+        String instanceName = (String)(settings.get("INSTANCE"));
+        long jobId = Long.parseLong((String)(settings.get("JOB")));
+        management.setMetricsFilter(getMetricsFilter(settings));
+        String info = management.recordJobMetricsJSONString(domainName, instanceName, jobId);
+        System.out.println(info);
+
+		
+		// disconnect
+		disconnect(management);
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+	
+	//***********************************************
+	// Get a job's recorded metrics
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void getMetricHistory(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_METRICHISTORY);		
+		if (null == settings)
+			return;
+		
+		// connect
+		StreamsManagement management = connect(settings);		
+		
+		String domainName = (String)(settings.get("DOMAIN"));
+        String instanceName = (String)(settings.get("INSTANCE"));
+        long jobId = Long.parseLong((String)(settings.get("JOB")));
+        int count = 0;
+        if (settings.containsKey("SAMPLES"))
+        	count = Integer.parseInt((String)(settings.get("SAMPLES")));
+        long windowMillis = 0;
+        if (settings.containsKey("WINDOW"))
+        	windowMillis = Long.parseLong((String)(settings.get("WINDOW"))) * 1000;
+        management.setMetricsFilter(getMetricsFilter(settings));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 65536);
+        management.writeJobMetricHistory(domainName, instanceName, jobId, count, windowMillis, out);
+        out.write('\n');
+        out.flush();
+
+		
+		// disconnect
+		disconnect(management);
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+
+	//***********************************************
+	// Get the metrics of a job that changed since
+	// an earlier response
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void getMetricsDelta(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_METRICSDELTA);		
+		if (null == settings)
+			return;
+		
+		// connect
+		StreamsManagement management = connect(settings);		
+		
+		String domainName = (String)(settings.get("DOMAIN"));
+        String instanceName = (String)(settings.get("INSTANCE"));
+        long jobId = Long.parseLong((String)(settings.get("JOB")));
+        long since = -1;
+        if (settings.containsKey("SINCE"))
+        	since = Long.parseLong((String)(settings.get("SINCE")));
+        management.setMetricsFilter(getMetricsFilter(settings));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 65536);
+        management.writeJobMetricsDelta(domainName, instanceName, jobId, since, out);
+        out.write('\n');
+        out.flush();
+
+		
+		// disconnect
+		disconnect(management);
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+
+	//***********************************************
+	// Get single values out of job snapshots by path,
+	// e.g. job/12/pe/3/pid
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void query(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_QUERY);		
+		if (null == settings)
+			return;
+		
+		// connect
+		StreamsManagement management = connect(settings);		
+		
+		String domainName = (String)(settings.get("DOMAIN"));
+        String instanceName = (String)(settings.get("INSTANCE"));
+        @SuppressWarnings("unchecked") Vector<String> paths = (Vector<String>)(settings.get("PATHS"));
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8"), 65536);
+        management.writeQueryResults(domainName, instanceName, paths, out);
+        out.write('\n');
+        out.flush();
+
+		
+		// disconnect
+		disconnect(management);
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+
+	//***********************************************
+	// Wait until a condition on a job holds, or the
+	// timeout passes
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void waitFor(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_WAITFOR);		
+		if (null == settings)
+			return;
+		
+		// connect
+		StreamsManagement management = connect(settings);		
+		
+		String domainName = (String)(settings.get("DOMAIN"));
+        String instanceName = (String)(settings.get("INSTANCE"));
+        JobCondition condition = getJobCondition(settings);
+        long timeoutMillis = DEFAULT_WAIT_SECONDS * 1000;
+        if (settings.containsKey("TIMEOUT"))
+        	timeoutMillis = (long)(Double.parseDouble((String)(settings.get("TIMEOUT"))) * 1000);
+        String result = management.waitForJSONString(domainName, instanceName, condition, timeoutMillis);
+        System.out.println(result);
+
+		
+		// disconnect
+		disconnect(management);
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+	private static final long DEFAULT_WAIT_SECONDS = 300;
+	
+	// The condition of a waitFor; throws if the settings do not make one
+	@SuppressWarnings("unchecked")
+	private static JobCondition getJobCondition(HashMap<String,Object> settings) throws Exception {
+		String name = (String)(settings.get("CONDITION"));
+		if (JobCondition.METRIC_ABOVE.equals(name))
+			return(JobCondition.metricAbove(((Vector<String>)(settings.get("PATHS"))).get(0), Double.parseDouble((String)(settings.get("THRESHOLD")))));
+		return(JobCondition.forJob(name, Long.parseLong((String)(settings.get("JOB")))));
+	}
+	
+
+	//***********************************************
+	// Get the counts and latencies of the stages of
+	// the requests made so far, as in the STATS
+	// block of -stats but for the whole process.
+	// Only of use in serve mode, where the process
+	// lives across requests.  -reset starts the
+	// counts over after they are printed.
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void getStats(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_GETSTATS);		
+		if (null == settings)
+			return;
+		
+		System.out.println(StreamsManagement.getStatsJSONString());
+		if (settings.containsKey("RESET"))
+			StreamsManagement.resetStats();
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+
+	//***********************************************
+	// Get the job ID for a job name
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void getJobIdByName(String [] args) {
+      try {
+		HashMap<String,Object> settings = getParms(args, ACTION_JOBIDBYNAME);		
+		if (null == settings)
+			return;
+		
+		// connect
+		StreamsManagement management = connect(settings);		
+		
+		String domainName = (String)(settings.get("DOMAIN"));
+        String instanceName = (String)(settings.get("INSTANCE"));
+        String jobName = (String)(settings.get("JOBNAME"));
+        String jobId = management.getJobIdByNameJSONString(domainName, instanceName, jobName);
+        System.out.println(jobId);
+
+		
+		// disconnect
+		disconnect(management);
+      }  catch (Exception e) {
+    	  printException(e);
+      }
+	}
+	
+
 	//***********************************************
 	// Submit a job
 	//***********************************************
@@ -271,8 +783,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE")); 
@@ -281,6 +792,7 @@ public class StreamsManagementWrapper {
 	 		String jobGroup = (String)(settings.get("JOBGROUP"));
 	 		String jobName = (String)(settings.get("JOBNAME")); 
 
+	 		management.setApplicationCacheFile((String)(settings.get("APPCACHE")));
 	 		String jobInfo = management.submitJob(domainName, instanceName, bundle, jobParms, jobGroup, jobName);
 	        System.out.println(jobInfo);	 		
 	 		
@@ -293,26 +805,30 @@ public class StreamsManagementWrapper {
 		
 
 	//***********************************************
-	// Cancel a job
+	// Submit many jobs
+	// Output printed to stdout to be collected
+	// by perl wrapper.
 	//***********************************************
-	private static void cancelJob(String [] args) {
+	private static void submitJobs(String [] args) {
 	     try {
-	 		HashMap<String,Object> settings = getParms(args, ACTION_CANCELJOB);		
+	 		HashMap<String,Object> settings = getParms(args, ACTION_SUBMITJOBS);		
 	 		if (null == settings)
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE")); 
-			long jobId = Long.parseLong((String)(settings.get("JOB"))); 	 		
-	 		Boolean force = (Boolean)(settings.get("FORCE"));
-	 		if (null == force)
-	 		  force = new Boolean(false);
+	 		JSONArray submissions = JSONArray.parse((String)(settings.get("SUBMISSIONS")));
+	 		int parallelism = 1;
+	 		if (settings.containsKey("PARALLEL"))
+	 			parallelism = Integer.parseInt((String)(settings.get("PARALLEL")));
 
-            management.cancelJob(domainName, instanceName, jobId, force.booleanValue());		
+	 		management.setParallelism(parallelism);
+	 		management.setApplicationCacheFile((String)(settings.get("APPCACHE")));
+	 		String results = management.submitJobsJSONString(domainName, instanceName, submissions);
+	        System.out.println(results);	 		
 	 		
 	 		// disconnect
 	 		disconnect(management);
@@ -320,24 +836,90 @@ public class StreamsManagementWrapper {
 	     	  printException(e);
 	       }
 	}
-	
+		
+
 	//***********************************************
-	// Add a domain host
+	// Cancel a job
 	//***********************************************
-	private static void addDomainHost(String [] args) {
+	private static void cancelJob(String [] args) {
 	     try {
-	 		HashMap<String,Object> settings = getParms(args, ACTION_ADDDOMAINHOST);		
+	 		HashMap<String,Object> settings = getParms(args, ACTION_CANCELJOB);		
 	 		if (null == settings)
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
-	 		String hostName = (String)(settings.get("HOST"));
+	 		String instanceName = (String)(settings.get("INSTANCE")); 
+			long jobId = Long.parseLong((String)(settings.get("JOB"))); 	 		
+	 		Boolean force = (Boolean)(settings.get("FORCE"));
+	 		if (null == force)
+	 		  force = new Boolean(false);
 
-            management.addDomainHost(domainName, hostName);		
+            management.cancelJob(domainName, instanceName, jobId, force.booleanValue());		
+	 		
+	 		// disconnect
+	 		disconnect(management);
+	       }  catch (Exception e) {
+	     	  printException(e);
+	       }
+	}	
+	
+	//***********************************************
+	// Cancel many jobs
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void cancelJobs(String [] args) {
+	     try {
+	 		HashMap<String,Object> settings = getParms(args, ACTION_CANCELJOBS);		
+	 		if (null == settings)
+	 			return;
+	 		
+	 		// connect
+	 		StreamsManagement management = connect(settings);
+	 		
+	 		String domainName = (String)(settings.get("DOMAIN"));
+	 		String instanceName = (String)(settings.get("INSTANCE")); 
+	 		Vector<Long> jobIds = getJobList(settings);
+	 		String namePattern = (String)(settings.get("JOBNAMEPATTERN"));
+	 		String jobGroup = (String)(settings.get("JOBGROUP"));
+	 		String health = (String)(settings.get("HEALTH"));
+	 		Boolean force = (Boolean)(settings.get("FORCE"));
+	 		if (null == force)
+	 		  force = new Boolean(false);
+	 		int parallelism = 1;
+	 		if (settings.containsKey("PARALLEL"))
+	 			parallelism = Integer.parseInt((String)(settings.get("PARALLEL")));
+
+	 		management.setParallelism(parallelism);
+            String results = management.cancelJobsJSONString(domainName, instanceName, jobIds, namePattern, jobGroup, health, force.booleanValue());
+            System.out.println(results);
+	 		
+	 		// disconnect
+	 		disconnect(management);
+	       }  catch (Exception e) {
+	     	  printException(e);
+	       }
+	}
+	
+	//***********************************************
+	// Add a domain host
+	//***********************************************
+	private static void addDomainHost(String [] args) {
+	     try {
+	 		HashMap<String,Object> settings = getParms(args, ACTION_ADDDOMAINHOST);		
+	 		if (null == settings)
+	 			return;
+	 		
+	 		// connect
+	 		StreamsManagement management = connect(settings);
+	 		
+	 		String domainName = (String)(settings.get("DOMAIN"));
+	 		String hostName = (String)(settings.get("HOST"));
+
+            management.addDomainHost(domainName, hostName);		
 	 		
 	 		// disconnect
 	 		disconnect(management);
@@ -356,8 +938,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String hostName = (String)(settings.get("HOST"));
@@ -382,8 +963,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 
@@ -408,8 +988,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String hostName = (String)(settings.get("HOST"));
@@ -434,8 +1013,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String hostName = (String)(settings.get("HOST"));
@@ -460,8 +1038,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String hostName = (String)(settings.get("HOST"));	 		
@@ -486,8 +1063,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE"));
@@ -540,8 +1116,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE"));	 		
@@ -565,8 +1140,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE"));	 		
@@ -590,8 +1164,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE"));
@@ -619,8 +1192,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String instanceName = (String)(settings.get("INSTANCE"));
@@ -636,6 +1208,251 @@ public class StreamsManagementWrapper {
 	       }
 	}
 		
+	//***********************************************
+	// Get job logs for many jobs
+	// Output printed to stdout to be collected
+	// by perl wrapper.
+	//***********************************************
+	private static void getJobsLogs(String [] args) {
+	     try {
+	 		HashMap<String,Object> settings = getParms(args, ACTION_GETJOBSLOGS);		
+	 		if (null == settings)
+	 			return;
+	 		
+	 		// connect
+	 		StreamsManagement management = connect(settings);
+	 		
+	 		String domainName = (String)(settings.get("DOMAIN"));
+	 		String instanceName = (String)(settings.get("INSTANCE"));
+	 		Vector<Long> jobIds = getJobList(settings);
+	 		String logDir = (String)(settings.get("LOGDIR"));
+	 		int parallelism = 1;
+	 		if (settings.containsKey("PARALLEL"))
+	 			parallelism = Integer.parseInt((String)(settings.get("PARALLEL")));
+	 		
+	 		management.setParallelism(parallelism);
+            String results = management.getJobsLogsJSONString(domainName, instanceName, jobIds, logDir);
+            System.out.println(results);
+	 		
+	 		// disconnect
+	 		disconnect(management);
+	       }  catch (Exception e) {
+	     	  printException(e);
+	       }
+	}
+		
+	//***********************************************
+	// Collect domain, instance and job info for many
+	// targets, each {"zkconnect":s,"domain":s,"instance":s}.
+	// One connection is made per domain; connecting
+	// and collecting run for up to -parallel targets
+	// at a time (default all of them).  Each
+	// connection fetches jobs with its targets' share
+	// of -parallel, so one large instance gets all of
+	// it.  The settings of the request are taken off
+	// the connection again when it is done, as serve
+	// mode keeps connections for later requests.
+	// Output printed to stdout to be collected
+	// by perl wrapper:
+	//   {"collected":n,"failed":n,"millis":n,
+	//    "targets":[{"zkconnect":s,"domain":s,"instance":s,"rc":0,
+	//                "connectMillis":n,"millis":n,"info":{..}},
+	//               {..,"rc":1,"error":s},..]}
+	// info is what getAllJobInfo (or getDomainInfo
+	// for a target without an instance) returns.
+	//***********************************************
+	private static void collect(String [] args) {
+	     try {
+	 		final HashMap<String,Object> settings = getParms(args, ACTION_COLLECT);		
+	 		if (null == settings)
+	 			return;
+	 		long start = System.currentTimeMillis();
+	 		
+	 		JSONArray targets = JSONArray.parse((String)(settings.get("TARGETS")));
+	 		for (Object next : targets) {
+	 			if ((!(next instanceof JSONObject)) || (!(((JSONObject)next).get("domain") instanceof String)))
+	 				throw new Exception("Target has no domain:  " + next);
+	 		}
+	 		int parallelism = targets.size();
+	 		if (settings.containsKey("PARALLEL"))
+	 			parallelism = Integer.parseInt((String)(settings.get("PARALLEL")));
+	 		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, targets.size())), new ThreadFactory() {
+	 			public Thread newThread(Runnable r) {
+	 				Thread t = new Thread(r, "StreamsManagementWrapper-collect");
+	 				t.setDaemon(true);
+	 				return(t);
+	 			}
+	 		});
+	 		
+	 		HashMap<String,Integer> targetCounts = new HashMap<String,Integer>();
+	 		for (Object next : targets) {
+	 			HashMap<String,Object> targetSettings = getTargetSettings(settings, (JSONObject)next);
+	 			String key = targetSettings.get("ZK") + "/" + targetSettings.get("DOMAIN");
+	 			targetCounts.put(key, targetCounts.containsKey(key) ? targetCounts.get(key) + 1 : 1);
+	 		}
+	 		
+	 		try {
+	 			// connections first, so no collect task waits on a connect queued behind it
+	 			HashMap<String,Future<StreamsManagement>> connections = new HashMap<String,Future<StreamsManagement>>();
+	 			final HashMap<String,ConnectionSettings> previousSettings = new HashMap<String,ConnectionSettings>();
+	 			final MetricsFilter metricsFilter = getMetricsFilter(settings);
+	 			for (Object next : targets) {
+	 				final HashMap<String,Object> targetSettings = getTargetSettings(settings, (JSONObject)next);
+	 				final String key = targetSettings.get("ZK") + "/" + targetSettings.get("DOMAIN");
+	 				if (connections.containsKey(key))
+	 					continue;
+	 				final int share = Math.max(1, parallelism * targetCounts.get(key) / targets.size());
+	 				connections.put(key, executor.submit(new Callable<StreamsManagement>() {
+	 					public StreamsManagement call() throws Exception {
+	 						StreamsManagement management = connect(targetSettings);
+	 						synchronized (previousSettings) {
+	 							previousSettings.put(key, new ConnectionSettings(management));
+	 						}
+	 						new ConnectionSettings(settings.containsKey("NATIVEJSON"), settings.containsKey("INDEX"), metricsFilter, share).apply(management);
+	 						return(management);
+	 					}
+	 				}));
+	 			}
+	 			
+	 			Vector<Future<CollectResult>> results = new Vector<Future<CollectResult>>();
+	 			for (Object next : targets) {
+	 				final HashMap<String,Object> targetSettings = getTargetSettings(settings, (JSONObject)next);
+	 				final Future<StreamsManagement> connection = connections.get(targetSettings.get("ZK") + "/" + targetSettings.get("DOMAIN"));
+	 				results.add(executor.submit(new Callable<CollectResult>() {
+	 					public CollectResult call() throws Exception {
+	 						return(collectTarget(targetSettings, connection));
+	 					}
+	 				}));
+	 			}
+	 			
+	 			StringBuilder out = new StringBuilder();
+	 			int collected = 0;
+	 			for (Future<CollectResult> next : results) {
+	 				CollectResult result = next.get();
+	 				if (result.collected)
+	 					collected++;
+	 				out.append((out.length() > 0) ? "," : "").append(result.json);
+	 			}
+	 			
+	 			System.out.println("{\"collected\":" + collected + ",\"failed\":" + (results.size() - collected) +
+	 					",\"millis\":" + (System.currentTimeMillis() - start) + ",\"targets\":[" + out + "]}");
+	 			
+	 			// restore and disconnect
+	 			for (Map.Entry<String,Future<StreamsManagement>> next : connections.entrySet()) {
+	 				try {
+	 					StreamsManagement management = next.getValue().get();
+	 					synchronized (previousSettings) {
+	 						previousSettings.get(next.getKey()).apply(management);
+	 					}
+	 					disconnect(management);
+	 				} catch (ExecutionException e) {
+	 					// never connected
+	 				}
+	 			}
+	 		} finally {
+	 			executor.shutdownNow();
+	 		}
+	       }  catch (Exception e) {
+	     	  printException(e);
+	       }
+	}
+	
+	// Settings of one collect target
+	private static HashMap<String,Object> getTargetSettings(HashMap<String,Object> settings, JSONObject target) {
+		HashMap<String,Object> targetSettings = new HashMap<String,Object>();
+		targetSettings.put("ZK", (target.get("zkconnect") instanceof String) ? target.get("zkconnect") : settings.get("ZK"));
+		targetSettings.put("DOMAIN", target.get("domain"));
+		if (target.get("instance") instanceof String)
+			targetSettings.put("INSTANCE", target.get("instance"));
+		return(targetSettings);
+	}
+	
+	// The per-request settings of a connection, so collect can
+	// put back those of a shared serve mode connection
+	private static class ConnectionSettings {
+		final boolean nativeJSON;
+		final boolean indexSnapshots;
+		final MetricsFilter metricsFilter;
+		final int parallelism;
+		
+		ConnectionSettings(boolean nativeJSON, boolean indexSnapshots, MetricsFilter metricsFilter, int parallelism) {
+			this.nativeJSON = nativeJSON;
+			this.indexSnapshots = indexSnapshots;
+			this.metricsFilter = metricsFilter;
+			this.parallelism = parallelism;
+		}
+		
+		ConnectionSettings(StreamsManagement management) {
+			this(management.getNativeJSON(), management.getIndexSnapshots(), management.getMetricsFilter(), management.getParallelism());
+		}
+		
+		void apply(StreamsManagement management) {
+			management.setNativeJSON(nativeJSON);
+			management.setIndexSnapshots(indexSnapshots);
+			management.setMetricsFilter(metricsFilter);
+			management.setParallelism(parallelism);
+		}
+	}
+	
+	// One collect target as JSON; failures are reported in it
+	private static class CollectResult {
+		boolean collected = false;
+		String json;
+	}
+	
+	// connectMillis is how long the target waited for its domain's connection
+	private static CollectResult collectTarget(HashMap<String,Object> targetSettings, Future<StreamsManagement> connection) throws Exception {
+		long start = System.currentTimeMillis();
+		String domainName = (String)(targetSettings.get("DOMAIN"));
+		String instanceName = (String)(targetSettings.get("INSTANCE"));
+		CollectResult result = new CollectResult();
+		
+		StringWriter out = new StringWriter();
+		out.write('{');
+		JSONWriter.writeName(out, "zkconnect");
+		JSONWriter.writeString(out, (String)(targetSettings.get("ZK")));
+		out.write(',');
+		JSONWriter.writeName(out, "domain");
+		JSONWriter.writeString(out, domainName);
+		if (null != instanceName) {
+			out.write(',');
+			JSONWriter.writeName(out, "instance");
+			JSONWriter.writeString(out, instanceName);
+		}
+		out.write(',');
+		try {
+			StreamsManagement management;
+			try {
+				management = connection.get();
+			} catch (ExecutionException e) {
+				throw (e.getCause() instanceof Exception) ? (Exception)(e.getCause()) : e;
+			}
+			long connectMillis = System.currentTimeMillis() - start;
+			String info = (null == instanceName) ? management.getDomainInfoJSONString(domainName) : management.getAllJobJSONString(domainName, instanceName);
+			out.write("\"rc\":0,");
+			JSONWriter.writeName(out, "connectMillis");
+			out.write(Long.toString(connectMillis));
+			out.write(',');
+			JSONWriter.writeName(out, "millis");
+			out.write(Long.toString(System.currentTimeMillis() - start));
+			out.write(',');
+			JSONWriter.writeName(out, "info");
+			out.write(info);
+			result.collected = true;
+		} catch (Exception e) {
+			out.write("\"rc\":1,");
+			JSONWriter.writeName(out, "error");
+			JSONWriter.writeString(out, e.toString());
+			out.write(',');
+			JSONWriter.writeName(out, "millis");
+			out.write(Long.toString(System.currentTimeMillis() - start));
+		}
+		out.write('}');
+		result.json = out.toString();
+		return(result);
+	}
+	
+	
 	//***********************************************
 	// Get domain logs
 	//***********************************************
@@ -646,8 +1463,7 @@ public class StreamsManagementWrapper {
 	 			return;
 	 		
 	 		// connect
-	 		StreamsManagement management = new StreamsManagement();
-	 		connect(management, settings);
+	 		StreamsManagement management = connect(settings);
 	 		
 	 		String domainName = (String)(settings.get("DOMAIN"));
 	 		String logFile = (String)(settings.get("LOGFILE"));
@@ -663,20 +1479,63 @@ public class StreamsManagementWrapper {
 	
 	
 	
-	private static void connect(StreamsManagement management, HashMap<String,Object> settings) throws Exception {
+	//***********************************************
+	// Connections held open in serve mode, keyed by
+	// zookeeper connect string and domain name.
+	// null when running a single action.
+	//***********************************************
+	private static HashMap<String,StreamsManagement> _connections = null;
+	
+	private static StreamsManagement connect(HashMap<String,Object> settings) throws Exception {
 		
 		String zk = (String)(settings.get("ZK"));
 		String domainName = (String)(settings.get("DOMAIN"));
 
+		if (null == _connections) {
+			StreamsManagement management = new StreamsManagement();
+			management.connectToJMX(zk, domainName);
+			return(management);
+		}
 		
-		management.connectToJMX(zk, domainName);
+		// collect may connect to several domains at once
+		String key = zk + "/" + domainName;
+		StreamsManagement management;
+		StreamsManagement failed = null;
+		synchronized (_connections) {
+			management = _connections.get(key);
+			// A connection that failed is dropped and made again, or
+			// every later request would fail with it
+			if ((null != management) && (management.isConnectionFailed())) {
+				_connections.remove(key);
+				failed = management;
+				management = null;
+			}
+		}
+		if (null != failed)
+			failed.disconnectFromJMX();
+		if (null == management) {
+			management = new StreamsManagement();
+			// long lived, so keep state current from notifications
+			// and remember the metrics read
+			management.setUseNotifications(true);
+			management.setKeepMetricHistory(true);
+			management.connectToJMX(zk, domainName);
+			synchronized (_connections) {
+				_connections.put(key, management);
+			}
+		}
+		return(management);
 	}
 	
 	private static void disconnect(StreamsManagement management) {
-		management.disconnectFromJMX();
+		// connections are kept for the next request in serve mode
+		if (null == _connections)
+			management.disconnectFromJMX();
 	}
 	
 	private static void printException(Exception e) {
+		// Start on a fresh line in case a streamed document was cut short
+		System.out.println();
 		System.out.println("EXCEPTION:" + e.toString());
 		//System.out.println("EXCEPTION:" + e.getMessage());
 		//e.printStackTrace();
@@ -685,7 +1544,7 @@ public class StreamsManagementWrapper {
 	//***********************************************
 	// Parse and verify passed in parameters.
 	//***********************************************	  	  
-	private static HashMap<String,Object> getParms(String [] args, int action) throws Exception {
+	private static HashMap<String,Object> getParms(String [] args, long action) throws Exception {
 		
 		HashMap<String,Object> settings = parseParms(args, action);
 		if (null == settings)
@@ -699,10 +1558,49 @@ public class StreamsManagementWrapper {
 	}
 		
 
+	//***********************************************
+	// Metric filter options.  Each one is kept in
+	// settings under its name in upper case.
+	//***********************************************
+	private static final String [] METRIC_FILTER_OPTIONS = {
+		"-peFilter", "-peExclude",
+		"-operatorFilter", "-operatorExclude",
+		"-portFilter", "-portExclude",
+		"-metricFilter", "-metricExclude" };
+	
+	private static String getMetricFilterKey(String option) {
+		for (int i = 0; i < METRIC_FILTER_OPTIONS.length; i++) {
+			if (METRIC_FILTER_OPTIONS[i].equals(option))
+				return(option.substring(1).toUpperCase());
+		}
+		return(null);
+	}
+	
+	// null if no filter was given
+	private static MetricsFilter getMetricsFilter(HashMap<String,Object> settings) {
+		MetricsFilter metricsFilter = new MetricsFilter();
+		metricsFilter.setPEPatterns((String)(settings.get("PEFILTER")), (String)(settings.get("PEEXCLUDE")));
+		metricsFilter.setOperatorPatterns((String)(settings.get("OPERATORFILTER")), (String)(settings.get("OPERATOREXCLUDE")));
+		metricsFilter.setPortPatterns((String)(settings.get("PORTFILTER")), (String)(settings.get("PORTEXCLUDE")));
+		metricsFilter.setMetricPatterns((String)(settings.get("METRICFILTER")), (String)(settings.get("METRICEXCLUDE")));
+		return(metricsFilter.isEmpty() ? null : metricsFilter);
+	}
+	
+	// Job IDs of -jobs, or null if it was not given
+	private static Vector<Long> getJobList(HashMap<String,Object> settings) {
+		if (!settings.containsKey("JOBS"))
+			return(null);
+		Vector<Long> jobIds = new Vector<Long>();
+		String [] ids = ((String)(settings.get("JOBS"))).split(",");
+		for (int i = 0; i < ids.length; i++)
+			jobIds.add(Long.parseLong(ids[i].trim()));
+		return(jobIds);
+	}
+	
 	//***********************************************
 	// Parse passed in parameters.
 	//***********************************************	  	
-	private static HashMap<String,Object> parseParms(String [] args, int action) throws Exception {
+	static HashMap<String,Object> parseParms(String [] args, long action) throws Exception {
 		
 		HashMap<String,Object> settings = new HashMap<String,Object>();
 		// skip the first arg as that is the action
@@ -827,145 +1725,399 @@ public class StreamsManagementWrapper {
 	          }
             }
 					
+			// -port <port>
+			else if (args[i].equals("-port")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -port value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("PORT", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -refresh <seconds>
+			else if (args[i].equals("-refresh")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -refresh value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("REFRESH", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -targets <JSON array>
+			else if (args[i].equals("-targets")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -targets value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("TARGETS", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -submissions <JSON array>
+			else if (args[i].equals("-submissions")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -submissions value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("SUBMISSIONS", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -jobs <jobID,jobID,...>
+			else if (args[i].equals("-jobs")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -jobs value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("JOBS", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -jobNamePattern <regex>
+			else if (args[i].equals("-jobNamePattern")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -jobNamePattern value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("JOBNAMEPATTERN", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -health <health>
+			else if (args[i].equals("-health")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -health value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("HEALTH", args[i+1]);
+					i++;
+				}
+			}
+					
             // -force
             else if (args[i].equals("-force")) {
               Boolean force = new Boolean(true);
 		      settings.put("FORCE", force);
             }
 					
+			// -reset
+            else if (args[i].equals("-reset")) {
+		      settings.put("RESET", new Boolean(true));
+            }
+			
+			// -appCache <file>
+			else if (args[i].equals("-appCache")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -appCache value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("APPCACHE", args[i+1]);
+					i++;
+				}
+			}
+					
 			// -host <hostName>
 			else if (args[i].equals("-host")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -host value");
+					System.err.println("Missing -host value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("HOST", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -tag <tagName>
+			else if (args[i].equals("-tag")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -tag value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("TAG", args[i+1]);
+					i++;
+				}
+			}
+					
+			// -adminGroup <adminGroup>
+			else if (args[i].equals("-adminGroup")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -adminGroup value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("ADMINGROUP", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -userGroup <userGroup>
+			else if (args[i].equals("-userGroup")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -userGroup value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("USERGROUP", args[i+1]);
+					i++;
+				}
+			}
+						
+			// -property <property>
+			// -property can be specified multiple times.  Store in a Vector
+			else if (args[i].equals("-property")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -property value");
+					usage();
+					return(null);
+				}
+				else {
+					if (!settings.containsKey("PROPERTIES")) {
+						settings.put("PROPERTIES", new Vector<String>());
+					}
+					@SuppressWarnings("unchecked") Vector <String>properties = (Vector<String>)(settings.get("PROPERTIES"));
+					properties.add(args[i+1]);
+					i++;
+				}
+			}
+			
+			// -resourceCount <resourceCount>
+			// -resourceCount can be specified multiple times.  Store in a Vector
+			else if (args[i].equals("-resourceCount")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -resourceCount value");
+					usage();
+					return(null);
+				}
+				else {
+					if (!settings.containsKey("RESOURCECOUNTS")) {
+						settings.put("RESOURCECOUNTS", new Vector<String>());
+					}
+					@SuppressWarnings("unchecked") Vector <String>resourceCounts = (Vector<String>)(settings.get("RESOURCECOUNTS"));
+					resourceCounts.add(args[i+1]);
+					i++;
+				}
+			}
+						
+			// -resourceTags <resourceTags>
+			// -resourceTags can be specified multiple times.  Store in a Vector
+			else if (args[i].equals("-resourceTags")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -resourceTags value");
+					usage();
+					return(null);
+				}
+				else {
+					if (!settings.containsKey("RESOURCETAGS")) {
+						settings.put("RESOURCETAGS", new Vector<String>());
+					}
+					@SuppressWarnings("unchecked") Vector <String>resourceTags = (Vector<String>)(settings.get("RESOURCETAGS"));
+					resourceTags.add(args[i+1]);
+					i++;
+				}
+			}
+			
+			// -resourceExclusive <resourceExclusive>
+			// -resourceExclusive can be specified multiple times.  Store in a Vector
+			else if (args[i].equals("-resourceExclusive")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -resourceExclusive value");
+					usage();
+					return(null);
+				}
+				else {
+					if (!settings.containsKey("RESOURCEEXCLUSIVES")) {
+						settings.put("RESOURCEEXCLUSIVES", new Vector<String>());
+					}
+					@SuppressWarnings("unchecked") Vector <String>resourceExclusives = (Vector<String>)(settings.get("RESOURCEEXCLUSIVES"));
+					resourceExclusives.add(args[i+1]);
+					i++;
+				}
+			}
+						
+			// -logDir <directory>
+			else if (args[i].equals("-logDir")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -logDir value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("LOGDIR", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -logFile <logFile>
+			else if (args[i].equals("-logFile")) {
+				if (args.length == i + 1) {
+					System.err.println("Missing -logFile value");
+					usage();
+					return(null);
+				}
+				else {
+					settings.put("LOGFILE", args[i+1]);
+					i++;
+				}
+			}
+			
+			// -nativeJson
+			else if (args[i].equals("-nativeJson")) {
+				settings.put("NATIVEJSON", new Boolean(true));
+			}
+			
+			// -index
+			else if (args[i].equals("-index")) {
+				settings.put("INDEX", new Boolean(true));
+			}
+			
+			// metric filters, e.g. -metricFilter <pattern>
+			else if (null != getMetricFilterKey(args[i])) {
+				if (args.length == i + 1) {
+					System.err.println("Missing " + args[i] + " value");
 					usage();
 					return(null);
 				}
 				else {
-					settings.put("HOST", args[i+1]);
+					settings.put(getMetricFilterKey(args[i]), args[i+1]);
 					i++;
 				}
 			}
 			
-			// -tag <tagName>
-			else if (args[i].equals("-tag")) {
+			// -samples <count>
+			else if (args[i].equals("-samples")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -tag value");
+					System.err.println("Missing -samples value");
 					usage();
 					return(null);
 				}
 				else {
-					settings.put("TAG", args[i+1]);
+					settings.put("SAMPLES", args[i+1]);
 					i++;
 				}
 			}
-					
-			// -adminGroup <adminGroup>
-			else if (args[i].equals("-adminGroup")) {
+			
+			// -window <seconds>
+			else if (args[i].equals("-window")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -adminGroup value");
+					System.err.println("Missing -window value");
 					usage();
 					return(null);
 				}
 				else {
-					settings.put("ADMINGROUP", args[i+1]);
+					settings.put("WINDOW", args[i+1]);
 					i++;
 				}
 			}
 			
-			// -userGroup <userGroup>
-			else if (args[i].equals("-userGroup")) {
+			// -path <path>
+			// -path can be specified multiple times.  Store in a Vector
+			else if (args[i].equals("-path")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -userGroup value");
+					System.err.println("Missing -path value");
 					usage();
 					return(null);
 				}
 				else {
-					settings.put("USERGROUP", args[i+1]);
+					if (!settings.containsKey("PATHS")) {
+						settings.put("PATHS", new Vector<String>());
+					}
+					@SuppressWarnings("unchecked") Vector <String>paths = (Vector<String>)(settings.get("PATHS"));
+					paths.add(args[i+1]);
 					i++;
 				}
 			}
-						
-			// -property <property>
-			// -property can be specified multiple times.  Store in a Vector
-			else if (args[i].equals("-property")) {
+			
+			// -condition <condition>
+			else if (args[i].equals("-condition")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -property value");
+					System.err.println("Missing -condition value");
 					usage();
 					return(null);
 				}
 				else {
-					if (!settings.containsKey("PROPERTIES")) {
-						settings.put("PROPERTIES", new Vector<String>());
-					}
-					@SuppressWarnings("unchecked") Vector <String>properties = (Vector<String>)(settings.get("PROPERTIES"));
-					properties.add(args[i+1]);
+					settings.put("CONDITION", args[i+1]);
 					i++;
 				}
 			}
 			
-			// -resourceCount <resourceCount>
-			// -resourceCount can be specified multiple times.  Store in a Vector
-			else if (args[i].equals("-resourceCount")) {
+			// -threshold <value>
+			else if (args[i].equals("-threshold")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -resourceCount value");
+					System.err.println("Missing -threshold value");
 					usage();
 					return(null);
 				}
 				else {
-					if (!settings.containsKey("RESOURCECOUNTS")) {
-						settings.put("RESOURCECOUNTS", new Vector<String>());
-					}
-					@SuppressWarnings("unchecked") Vector <String>resourceCounts = (Vector<String>)(settings.get("RESOURCECOUNTS"));
-					resourceCounts.add(args[i+1]);
+					settings.put("THRESHOLD", args[i+1]);
 					i++;
 				}
 			}
-						
-			// -resourceTags <resourceTags>
-			// -resourceTags can be specified multiple times.  Store in a Vector
-			else if (args[i].equals("-resourceTags")) {
+			
+			// -timeout <seconds>
+			else if (args[i].equals("-timeout")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -resourceTags value");
+					System.err.println("Missing -timeout value");
 					usage();
 					return(null);
 				}
 				else {
-					if (!settings.containsKey("RESOURCETAGS")) {
-						settings.put("RESOURCETAGS", new Vector<String>());
-					}
-					@SuppressWarnings("unchecked") Vector <String>resourceTags = (Vector<String>)(settings.get("RESOURCETAGS"));
-					resourceTags.add(args[i+1]);
+					settings.put("TIMEOUT", args[i+1]);
 					i++;
 				}
 			}
 			
-			// -resourceExclusive <resourceExclusive>
-			// -resourceExclusive can be specified multiple times.  Store in a Vector
-			else if (args[i].equals("-resourceExclusive")) {
+			// -since <sequence>
+			else if (args[i].equals("-since")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -resourceExclusive value");
+					System.err.println("Missing -since value");
 					usage();
 					return(null);
 				}
 				else {
-					if (!settings.containsKey("RESOURCEEXCLUSIVES")) {
-						settings.put("RESOURCEEXCLUSIVES", new Vector<String>());
-					}
-					@SuppressWarnings("unchecked") Vector <String>resourceExclusives = (Vector<String>)(settings.get("RESOURCEEXCLUSIVES"));
-					resourceExclusives.add(args[i+1]);
+					settings.put("SINCE", args[i+1]);
 					i++;
 				}
 			}
-						
-			// -logFile <logFile>
-			else if (args[i].equals("-logFile")) {
+			
+			// -parallel <count>
+			else if (args[i].equals("-parallel")) {
 				if (args.length == i + 1) {
-					System.err.println("Missing -logFile value");
+					System.err.println("Missing -parallel value");
 					usage();
 					return(null);
 				}
 				else {
-					settings.put("LOGFILE", args[i+1]);
+					settings.put("PARALLEL", args[i+1]);
 					i++;
 				}
 			}
@@ -988,7 +2140,7 @@ public class StreamsManagementWrapper {
 	//***********************************************
 	// Verify passed in parameters.
 	//***********************************************	  		
-	private static boolean verifyParms(HashMap<String,Object> settings, int action) {
+	private static boolean verifyParms(HashMap<String,Object> settings, long action) {
 		
 		// URL
 		if ((!settings.containsKey("ZK")) || (0 == ((String)(settings.get("ZK"))).length())) {
@@ -997,8 +2149,18 @@ public class StreamsManagementWrapper {
 			return(false);
 		}
 				
-		// DOMAIN
-		if ((!settings.containsKey("DOMAIN")) || (0 == ((String)(settings.get("DOMAIN"))).length())) {
+		// DOMAIN needed for everything but serve, where each request names its own domain,
+		// collect, where each target does, and getStats, which covers all domains
+		if ((0 != (action & ACTION_SERVE)) ||
+			(0 != (action & ACTION_COLLECT)) ||
+			(0 != (action & ACTION_GETSTATS))) {
+			if (settings.containsKey("DOMAIN")) {
+				System.err.println("The -domain parameter is not valid for this action.");
+				usage();
+				return(false);
+			}
+		}
+		else if ((!settings.containsKey("DOMAIN")) || (0 == ((String)(settings.get("DOMAIN"))).length())) {
 			System.err.println("Must specify a -domain value");
 			usage();
 			return(false);
@@ -1010,8 +2172,18 @@ public class StreamsManagementWrapper {
 			(0 != (action & ACTION_SINGLEJOBINFO)) ||
 			(0 != (action & ACTION_ALLJOBINFO)) ||	
 			(0 != (action & ACTION_SINGLEJOBINFOBYNAME)) ||	
+			(0 != (action & ACTION_JOBIDBYNAME)) ||	
+			(0 != (action & ACTION_RECORDMETRICS)) ||	
+			(0 != (action & ACTION_METRICHISTORY)) ||	
+			(0 != (action & ACTION_METRICSDELTA)) ||	
+			(0 != (action & ACTION_QUERY)) ||	
+			(0 != (action & ACTION_WAITFOR)) ||	
 			(0 != (action & ACTION_SUBMITJOB)) ||				
 			(0 != (action & ACTION_CANCELJOB)) ||
+			(0 != (action & ACTION_CANCELJOBS)) ||
+			(0 != (action & ACTION_SUBMITJOBS)) ||
+			(0 != (action & ACTION_GETJOBSLOGS)) ||
+			(0 != (action & ACTION_EXPORTMETRICS)) ||
 			(0 != (action & ACTION_MAKEINSTANCE)) ||
 			(0 != (action & ACTION_REMOVEINSTANCE)) ||
 			(0 != (action & ACTION_STARTINSTANCE)) ||
@@ -1031,9 +2203,14 @@ public class StreamsManagementWrapper {
 			}
 		}					
 		
-		// JOB needed for singleJobInfo, cancelJob, getJobLog
+		// JOB needed for singleJobInfo, cancelJob, getJobLog, recordMetrics, getMetricHistory,
+		// getMetricsDelta and waitFor, except for metricAbove where the path names the job
 		if ((0 != (action & ACTION_SINGLEJOBINFO)) ||
 			(0 != (action & ACTION_CANCELJOB)) ||
+			(0 != (action & ACTION_RECORDMETRICS)) ||
+			(0 != (action & ACTION_METRICHISTORY)) ||
+			(0 != (action & ACTION_METRICSDELTA)) ||
+			((0 != (action & ACTION_WAITFOR)) && (!JobCondition.METRIC_ABOVE.equals(settings.get("CONDITION")))) ||
 		    (0 != (action & ACTION_GETJOBLOGS))) {
 			if ((!settings.containsKey("JOB")) || (0 == ((String)(settings.get("JOB"))).length())) {
 				System.err.println("Must specify a -job value");
@@ -1049,8 +2226,9 @@ public class StreamsManagementWrapper {
 			}
 		}
 				
-		// JOBGROUP is optional for submitJob
-		if (0 != (action & ACTION_SUBMITJOB)) {
+		// JOBGROUP is optional for submitJob and cancelJobs
+		if ((0 != (action & ACTION_SUBMITJOB)) ||
+			(0 != (action & ACTION_CANCELJOBS))) {
 			if ((!settings.containsKey("JOBGROUP")) || (0 == ((String)(settings.get("JOBGROUP"))).length())) {
 				settings.put("JOBGROUP", null);
 			}			
@@ -1063,9 +2241,10 @@ public class StreamsManagementWrapper {
 			}
 		}		
 		
-		// JOBNAME only required for singleJobInfoByName.
+		// JOBNAME only required for singleJobInfoByName and jobIdByName.
 		// JOBNAME is optional for submitJob
-		if (0 != (action & ACTION_SINGLEJOBINFOBYNAME)) {
+		if ((0 != (action & ACTION_SINGLEJOBINFOBYNAME)) ||
+			(0 != (action & ACTION_JOBIDBYNAME))) {
 			if ((!settings.containsKey("JOBNAME")) || (0 == ((String)(settings.get("JOBNAME"))).length())) {
 				System.err.println("Must specify a -jobName value");
 				usage();
@@ -1110,8 +2289,9 @@ public class StreamsManagementWrapper {
 			}
 		}
 		
-		// FORCE needed by cancelJob, stopInstance, but it not required. 
+		// FORCE needed by cancelJob, cancelJobs, stopInstance, but it not required. 
 		if ((0 == (action & ACTION_CANCELJOB)) &&
+			(0 == (action & ACTION_CANCELJOBS)) &&
 			(0 == (action & ACTION_STOPINSTANCE))) {
 			if (settings.containsKey("FORCE")) {
 			  System.err.println("The -force parameter is not valid for this action.");
@@ -1120,6 +2300,25 @@ public class StreamsManagementWrapper {
 			}
 		}
 				
+		// APPCACHE optional for submitJob and submitJobs
+		if ((0 == (action & ACTION_SUBMITJOB)) &&
+			(0 == (action & ACTION_SUBMITJOBS))) {
+			if (settings.containsKey("APPCACHE")) {
+			  System.err.println("The -appCache parameter is not valid for this action.");
+			  usage();
+			  return(false);				
+			}
+		}
+				
+		// RESET optional for getStats
+		if (0 == (action & ACTION_GETSTATS)) {
+			if (settings.containsKey("RESET")) {
+			  System.err.println("The -reset parameter is not valid for this action.");
+			  usage();
+			  return(false);				
+			}
+		}
+				
 		// HOST only needed for addDomainHost, removeDomainHost, addTagToHost, removeTagFromHost, getHostTags
 		if ((0 != (action & ACTION_ADDDOMAINHOST)) ||
 		    (0 != (action & ACTION_REMOVEDOMAINHOST)) ||
@@ -1259,6 +2458,352 @@ public class StreamsManagementWrapper {
 			}
 		}
 		
+		// NATIVEJSON is optional for singleJobInfo, allJobInfo, singleJobInfoByName, collect
+		if ((0 == (action & ACTION_SINGLEJOBINFO)) &&
+			(0 == (action & ACTION_ALLJOBINFO)) &&
+			(0 == (action & ACTION_COLLECT)) &&
+			(0 == (action & ACTION_SINGLEJOBINFOBYNAME))) {
+			if (settings.containsKey("NATIVEJSON")) {
+				System.err.println("The -nativeJson parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// INDEX is optional for singleJobInfo, allJobInfo, singleJobInfoByName, collect
+		if ((0 == (action & ACTION_SINGLEJOBINFO)) &&
+			(0 == (action & ACTION_ALLJOBINFO)) &&
+			(0 == (action & ACTION_COLLECT)) &&
+			(0 == (action & ACTION_SINGLEJOBINFOBYNAME))) {
+			if (settings.containsKey("INDEX")) {
+				System.err.println("The -index parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// Metric filters are optional for singleJobInfo, allJobInfo, singleJobInfoByName,
+		// recordMetrics, getMetricHistory, getMetricsDelta, collect, exportMetrics
+		for (int i = 0; i < METRIC_FILTER_OPTIONS.length; i++) {
+			String key = getMetricFilterKey(METRIC_FILTER_OPTIONS[i]);
+			if (!settings.containsKey(key))
+				continue;
+			if ((0 == (action & ACTION_SINGLEJOBINFO)) &&
+				(0 == (action & ACTION_ALLJOBINFO)) &&
+				(0 == (action & ACTION_COLLECT)) &&
+				(0 == (action & ACTION_EXPORTMETRICS)) &&
+				(0 == (action & ACTION_SINGLEJOBINFOBYNAME)) &&
+				(0 == (action & ACTION_RECORDMETRICS)) &&
+				(0 == (action & ACTION_METRICHISTORY)) &&
+				(0 == (action & ACTION_METRICSDELTA))) {
+				System.err.println("The " + METRIC_FILTER_OPTIONS[i] + " parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+			try {
+				Pattern.compile((String)(settings.get(key)));
+			} catch (PatternSyntaxException e) {
+				System.err.println("The " + METRIC_FILTER_OPTIONS[i] + " value is not a valid regular expression: " + e.getDescription());
+				usage();
+				return(false);
+			}
+		}
+		
+		// SAMPLES and WINDOW are optional for getMetricHistory
+		String [] historyKeys = { "SAMPLES", "WINDOW" };
+		for (int i = 0; i < historyKeys.length; i++) {
+			if (!settings.containsKey(historyKeys[i]))
+				continue;
+			String option = "-" + historyKeys[i].toLowerCase();
+			if (0 == (action & ACTION_METRICHISTORY)) {
+				System.err.println("The " + option + " parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+			try {
+				if (Integer.parseInt((String)(settings.get(historyKeys[i]))) < 1)
+					throw new NumberFormatException();
+			} catch (NumberFormatException e) {
+				System.err.println("The " + option + " value must be a positive number");
+				usage();
+				return(false);
+			}
+		}
+		
+		// SINCE is optional for getMetricsDelta
+		if (0 != (action & ACTION_METRICSDELTA)) {
+			if (settings.containsKey("SINCE")) {
+				try {
+					Long.parseLong((String)(settings.get("SINCE")));
+				} catch (NumberFormatException e) {
+					System.err.println("The -since value must be a number");
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			if (settings.containsKey("SINCE")) {
+				System.err.println("The -since parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// JOBS, JOBNAMEPATTERN and HEALTH select the jobs for cancelJobs.
+		// At least one selector (including JOBGROUP) is required so
+		// every job is not cancelled by mistake.
+		if (0 != (action & ACTION_CANCELJOBS)) {
+			if ((!settings.containsKey("JOBS")) &&
+				(!settings.containsKey("JOBNAMEPATTERN")) &&
+				(null == settings.get("JOBGROUP")) &&
+				(!settings.containsKey("HEALTH"))) {
+				System.err.println("Must specify -jobs, -jobNamePattern, -jobGroup or -health");
+				usage();
+				return(false);
+			}
+			if (settings.containsKey("JOBNAMEPATTERN")) {
+				try {
+					Pattern.compile((String)(settings.get("JOBNAMEPATTERN")));
+				} catch (PatternSyntaxException e) {
+					System.err.println("The -jobNamePattern value is not a valid regular expression: " + e.getDescription());
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			String [] selectors = { "JOBNAMEPATTERN", "HEALTH" };
+			String [] options = { "-jobNamePattern", "-health" };
+			for (int i = 0; i < selectors.length; i++) {
+				if (settings.containsKey(selectors[i])) {
+					System.err.println("The " + options[i] + " parameter is not valid for this action.");
+					usage();
+					return(false);				
+				}
+			}
+		}
+		
+		// JOBS is optional for cancelJobs and getJobsLogs
+		if ((0 != (action & ACTION_CANCELJOBS)) ||
+			(0 != (action & ACTION_GETJOBSLOGS))) {
+			if (settings.containsKey("JOBS")) {
+				try {
+					getJobList(settings);
+				} catch (NumberFormatException e) {
+					System.err.println("The -jobs value must be a comma separated list of job IDs");
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			if (settings.containsKey("JOBS")) {
+				System.err.println("The -jobs parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// LOGDIR only needed for getJobsLogs
+		if (0 != (action & ACTION_GETJOBSLOGS)) {
+			if ((!settings.containsKey("LOGDIR")) || (0 == ((String)(settings.get("LOGDIR"))).length())) {
+				System.err.println("Missing -logDir parameter");
+				usage();
+				return(false);
+			}
+		}
+		else {
+			if (settings.containsKey("LOGDIR")) {
+				System.err.println("The -logDir parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// PORT needed and REFRESH optional for exportMetrics
+		if (0 != (action & ACTION_EXPORTMETRICS)) {
+			String [] keys = { "PORT", "REFRESH" };
+			String [] options = { "-port", "-refresh" };
+			if (!settings.containsKey("PORT")) {
+				System.err.println("Missing -port parameter");
+				usage();
+				return(false);
+			}
+			for (int i = 0; i < keys.length; i++) {
+				if (!settings.containsKey(keys[i]))
+					continue;
+				try {
+					if (Integer.parseInt((String)(settings.get(keys[i]))) < 1)
+						throw new NumberFormatException();
+				} catch (NumberFormatException e) {
+					System.err.println("The " + options[i] + " value must be a positive number");
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			if (settings.containsKey("PORT")) {
+				System.err.println("The -port parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+			if (settings.containsKey("REFRESH")) {
+				System.err.println("The -refresh parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// PATHS only needed for query and waitFor metricAbove, which takes one
+		boolean waitForMetric = ((0 != (action & ACTION_WAITFOR)) && (JobCondition.METRIC_ABOVE.equals(settings.get("CONDITION"))));
+		if ((0 != (action & ACTION_QUERY)) || (waitForMetric)) {
+			if ((!settings.containsKey("PATHS")) || (0 == ((Vector)(settings.get("PATHS"))).size())) {
+				System.err.println("Must specify a -path value");
+				usage();
+				return(false);
+			}
+			if ((waitForMetric) && (1 != ((Vector)(settings.get("PATHS"))).size())) {
+				System.err.println("Only one -path value is valid for this condition.");
+				usage();
+				return(false);
+			}
+			for (Object next : (Vector)(settings.get("PATHS"))) {
+				try {
+					SnapshotQuery.Path.parse((String)next);
+				} catch (Exception e) {
+					System.err.println("The -path value is not valid:  " + e.getMessage());
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			if (settings.containsKey("PATHS")) {
+				System.err.println("The -path parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// CONDITION needed for waitFor; THRESHOLD for its metricAbove
+		// condition, TIMEOUT is optional
+		if (0 != (action & ACTION_WAITFOR)) {
+			if ((!settings.containsKey("CONDITION")) || (!JobCondition.NAMES.contains(settings.get("CONDITION")))) {
+				System.err.println("Must specify a -condition value of " + JobCondition.NAMES);
+				usage();
+				return(false);
+			}
+			if (waitForMetric) {
+				try {
+					Double.parseDouble((String)(settings.get("THRESHOLD")));
+				} catch (Exception e) {
+					System.err.println("Must specify a -threshold number for this condition");
+					usage();
+					return(false);
+				}
+				try {
+					JobCondition.metricAbove((String)(((Vector)(settings.get("PATHS"))).get(0)), 0);
+				} catch (Exception e) {
+					System.err.println("The -path value is not valid:  " + e.getMessage());
+					usage();
+					return(false);
+				}
+			}
+			else if (settings.containsKey("THRESHOLD")) {
+				System.err.println("The -threshold parameter is not valid for this condition.");
+				usage();
+				return(false);				
+			}
+			if (settings.containsKey("TIMEOUT")) {
+				try {
+					if (Double.parseDouble((String)(settings.get("TIMEOUT"))) < 0)
+						throw new NumberFormatException();
+				} catch (NumberFormatException e) {
+					System.err.println("The -timeout value must be a number of seconds");
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			if (settings.containsKey("CONDITION")) {
+				System.err.println("The -condition parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+			if (settings.containsKey("THRESHOLD")) {
+				System.err.println("The -threshold parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+			if (settings.containsKey("TIMEOUT")) {
+				System.err.println("The -timeout parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// TARGETS only needed for collect
+		if (0 != (action & ACTION_COLLECT)) {
+			if ((!settings.containsKey("TARGETS")) || (0 == ((String)(settings.get("TARGETS"))).length())) {
+				System.err.println("Missing -targets parameter");
+				usage();
+				return(false);
+			}
+		}
+		else {
+			if (settings.containsKey("TARGETS")) {
+				System.err.println("The -targets parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// SUBMISSIONS only needed for submitJobs
+		if (0 != (action & ACTION_SUBMITJOBS)) {
+			if ((!settings.containsKey("SUBMISSIONS")) || (0 == ((String)(settings.get("SUBMISSIONS"))).length())) {
+				System.err.println("Missing -submissions parameter");
+				usage();
+				return(false);
+			}
+		}
+		else {
+			if (settings.containsKey("SUBMISSIONS")) {
+				System.err.println("The -submissions parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
+		// PARALLEL is optional for getAllJobInfo, cancelJobs, submitJobs, getJobsLogs, collect
+		// and exportMetrics
+		if ((0 != (action & ACTION_ALLJOBINFO)) ||
+			(0 != (action & ACTION_CANCELJOBS)) ||
+			(0 != (action & ACTION_SUBMITJOBS)) ||
+			(0 != (action & ACTION_GETJOBSLOGS)) ||
+			(0 != (action & ACTION_COLLECT)) ||
+			(0 != (action & ACTION_EXPORTMETRICS))) {
+			if (settings.containsKey("PARALLEL")) {
+				try {
+					if (Integer.parseInt((String)(settings.get("PARALLEL"))) < 1)
+						throw new NumberFormatException();
+				} catch (NumberFormatException e) {
+					System.err.println("The -parallel value must be a positive number");
+					usage();
+					return(false);
+				}
+			}
+		}
+		else {
+			if (settings.containsKey("PARALLEL")) {
+				System.err.println("The -parallel parameter is not valid for this action.");
+				usage();
+				return(false);				
+			}
+		}
+		
 		return(true);
 	}	
 
@@ -1270,16 +2815,22 @@ public class StreamsManagementWrapper {
         System.err.println("   or");		
 		System.err.println("java StreamsManagementWrapper getInstanceInfo -zkconnect <zkString> -domain <domainName> -instance <instance>");			
         System.err.println("   or");
-		System.err.println("java StreamsManagementWrapper getSingleJobInfo zkconnect <zkString> -domain <domainName> -instance <instance> -job <jobID>");		        
+		System.err.println("java StreamsManagementWrapper getSingleJobInfo zkconnect <zkString> -domain <domainName> -instance <instance> -job <jobID> [-nativeJson] [-index] [<metric filters>]");		        
    		System.err.println("");
         System.err.println("   or");   		
-		System.err.println("java StreamsManagementWrapper getAllJobInfo -zkconnect <zkString> -domain <domainName> -instance <instance>");		        
+		System.err.println("java StreamsManagementWrapper getAllJobInfo -zkconnect <zkString> -domain <domainName> -instance <instance> [-parallel <count>] [-nativeJson] [-index] [<metric filters>]");		        
         System.err.println("   or");
-		System.err.println("java StreamsManagementWrapper getSingleJobInfoByName -zkconnect <zkString> -domain <domainName> -instance <instance> -jobName <jobName>");
+		System.err.println("java StreamsManagementWrapper getSingleJobInfoByName -zkconnect <zkString> -domain <domainName> -instance <instance> -jobName <jobName> [-nativeJson] [-index] [<metric filters>]");
         System.err.println("   or");
-		System.err.println("java StreamsManagementWrapper submitJob -zkconnect <zkString> -domain <domainName> -instance <instance>  -bundle <sab file> -jobName <jobName> -jobParm <var1=value1> -jobParm = <var2=value2>");
+		System.err.println("java StreamsManagementWrapper getJobIdByName -zkconnect <zkString> -domain <domainName> -instance <instance> -jobName <jobName>");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper submitJob -zkconnect <zkString> -domain <domainName> -instance <instance>  -bundle <sab file> -jobName <jobName> -jobParm <var1=value1> -jobParm = <var2=value2> [-appCache <file>]");
         System.err.println("   or");
 		System.err.println("java StreamsManagementWrapper cancelJob -zkconnect <zkString> -domain <domainName> -instance <instance>  -job <jobID> -force");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper submitJobs -zkconnect <zkString> -domain <domainName> -instance <instance> -submissions <JSON array> [-parallel <count>] [-appCache <file>]");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper cancelJobs -zkconnect <zkString> -domain <domainName> -instance <instance>  [-jobs <jobID,jobID,...>] [-jobNamePattern <regex>] [-jobGroup <jobGroup>] [-health <health>] [-parallel <count>] -force");
         System.err.println("   or");
 		System.err.println("java StreamsManagementWrapper addDomainHost -zkconnect <zkString> -domain <domainName> -host <hostName>");
         System.err.println("   or");
@@ -1300,13 +2851,40 @@ public class StreamsManagementWrapper {
 		System.err.println("java StreamsManagementWrapper startInstance -zkconnect <zkString> -domain <domainName> -instance <instanceName>");		
         System.err.println("   or");
 		System.err.println("java StreamsManagementWrapper stopInstance -zkconnect <zkString> -domain <domainName> -instance <instanceName> -force");	        
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper recordMetrics -zkconnect <zkString> -domain <domainName> -instance <instanceName> -job <jobID> [<metric filters>]");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper getMetricHistory -zkconnect <zkString> -domain <domainName> -instance <instanceName> -job <jobID> [-samples <count>] [-window <seconds>] [<metric filters>]");
+		System.err.println("   Metric history is only kept between requests in serve mode, where job info requests also record the metrics they read.");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper getMetricsDelta -zkconnect <zkString> -domain <domainName> -instance <instanceName> -job <jobID> [-since <sequence>] [<metric filters>]");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper query -zkconnect <zkString> -domain <domainName> -instance <instanceName> -path <path> [-path <path> ...]");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper waitFor -zkconnect <zkString> -domain <domainName> -instance <instanceName> -condition allPEsRunning|allPEsHealthy|jobHealthy|jobGone -job <jobID> [-timeout <seconds>]");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper waitFor -zkconnect <zkString> -domain <domainName> -instance <instanceName> -condition metricAbove -path <metric path> -threshold <value> [-timeout <seconds>]");
+		System.err.println("   Output is {\"condition\":..,\"jobId\":..,\"met\":true|false,\"checks\":..,\"elapsedMillis\":..}; met is false if the timeout passed first.");
         System.err.println("   or");
 		System.err.println("java StreamsManagementWrapper getJobLogs -zkconnect <zkString> -domain <domainName> -instance <instanceName> -job <jobID> -logFile <logFile>");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper getJobsLogs -zkconnect <zkString> -domain <domainName> -instance <instanceName> -logDir <directory> [-jobs <jobID,jobID,...>] [-parallel <count>]");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper collect -zkconnect <zkString> -targets <JSON array> [-parallel <count>] [-nativeJson] [-index]");
         System.err.println("   or");
 		System.err.println("java StreamsManagementWrapper getDomainLogs -zkconnect <zkString> -domain <domainName> -logFile <logFile>");	
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper exportMetrics -zkconnect <zkString> -domain <domainName> -instance <instanceName> -port <port> [-refresh <seconds>] [-parallel <count>] [-peFilter <regex>] [-peExclude <regex>] [-operatorFilter <regex>] [-operatorExclude <regex>] [-portFilter <regex>] [-portExclude <regex>] [-metricFilter <regex>] [-metricExclude <regex>]");
+		System.err.println("   Serves job metrics at http://<host>:<port>/metrics in OpenMetrics format until killed.");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper serve -zkconnect <zkString>");
+		System.err.println("   Reads one JSON request per line from stdin, e.g. {\"id\":1,\"args\":[\"getDomainInfo\",\"-domain\",\"<domainName>\"]}");
+        System.err.println("   or");
+		System.err.println("java StreamsManagementWrapper getStats -zkconnect <zkString> [-reset]");
+		System.err.println("   Counts and latencies of the stages of all requests so far; of use in serve mode.");
    		System.err.println("");		
 		System.err.println("where:");
-		System.out.println("-zkconnect <zkStringL> : zookeeper connect string.  Often stored in the $STREAMS_ZKCONNECT environment variable.");
+		System.err.println("-zkconnect <zkStringL> : zookeeper connect string.  Often stored in the $STREAMS_ZKCONNECT environment variable.");
 		System.err.println("-domain <domainName> : the Streams domain name.");		
 		System.err.println("-instance <instance> : streams instance ID.");
 		System.err.println("-job <jobID> : Streams job ID.");
@@ -1314,6 +2892,16 @@ public class StreamsManagementWrapper {
 		System.err.println("-bundle <sab file>:  application bundle file used when submitting a job.");
 		System.err.println("-jobParm <var1=value1:  job submit value.  Format is \"varName=varValue\".  This parameter can be specified multiple times.");
 		System.err.println("-force:  Force the cancel.");
+		System.err.println("-stats:  valid for any action.  Prints a STATS: line after the output with the counts and latencies of the stages the action went through.");
+		System.err.println("-reset:  start the counts of getStats over.");
+		System.err.println("-appCache <file>:  file of application ids by bundle SHA-256.  Bundles the instance already has are submitted without being deployed again.");
+		System.err.println("-port <port>:  HTTP port to serve metrics on.");
+		System.err.println("-refresh <seconds>:  how often the served metrics are read again.  Default is 60.");
+		System.err.println("-targets <JSON array>:  domains and instances to collect, e.g. [{\"zkconnect\":\"host:2181\",\"domain\":\"d\",\"instance\":\"i\"}].  zkconnect defaults to -zkconnect; without instance only domain info is collected.");
+		System.err.println("-submissions <JSON array>:  bundles to submit, e.g. [{\"bundle\":\"app.sab\",\"jobParms\":{\"name\":\"value\"},\"jobGroup\":\"group\",\"jobName\":\"name\"}].");
+		System.err.println("-jobs <jobID,jobID,...>:  comma separated list of job IDs to cancel or get logs for.  Without it, all jobs of the instance (that match the other selectors) are used.");
+		System.err.println("-jobNamePattern <regex>:  only cancel jobs whose name contains a match for the regular expression.");
+		System.err.println("-health <health>:  only cancel jobs with this health, e.g. unhealthy.");
 		System.err.println("-host <hostName>:  host name");
 		System.err.println("-tag <tagName>:  tag name");
 		System.err.println("-adminGroup <adminGroup> : admin group");
@@ -1323,6 +2911,18 @@ public class StreamsManagementWrapper {
 		System.err.println("-resourceTags <resourceTags> : Comma separated list of tags for a resource specification.  Used in conjunction with -resourceCount and -resourceExclusive parameters.  Can be specified multiple times, but order specified is relavant to correlate with -resourceCount and -resourceExclusive parameters.");
 		System.err.println("-resourceExclusive <true|false> : True or false to specify an exclusvie resource specification.  Used in conjunction with -resourceCount and -resourceTags parameters.  Can be specified multiple times, but order specified is relavant to correlate with -resourceCount and -resourceTags parameters.");
 		System.err.println("-logFile <logFile>:  log file");
+		System.err.println("-logDir <directory>:  directory for the log files, one job_<jobID>.tar.gz per job");
+		System.err.println("-nativeJson:  embed job snapshots as JSON objects (jobStatusInfo, jobMetricsInfo) instead of escaped strings (jobStatusInfoRaw, jobMetricInfoRaw).");
+		System.err.println("-index:  add a jobIndex to each job with the array positions of its PEs (by id), operators (by name), ports (by name in the status, by index in the metrics) and connections (by id) in the job snapshots.");
+		System.err.println("-parallel <count>:  number of jobs to fetch, cancel, submit or get logs for concurrently.  Default is 1.  For collect, the number of targets collected concurrently (default all of them), with the jobs of each domain fetched by its targets' share of it.");
+		System.err.println("-samples <count>:  number of most recent samples to show for each metric.  Default is all kept samples.");
+		System.err.println("-window <seconds>:  rate, min, max and avg are computed over the samples of the last <seconds>.  Default is all kept samples.");
+		System.err.println("-path <path>:  a value in a job's snapshots, as job/<jobID>[/pe/<peID>][/op/<operator>[/in|out/<port index or name>[/conn/<connectionID>]]] followed by /<member> of the status snapshot (pid for processId), /metric/<metricName> or nothing for the whole status object, e.g. job/12/op/Split/out/0/metric/nTuplesSubmitted.  Can be specified multiple times.  Output is {\"<path>\":<value>,...} with null for values that do not exist.");
+		System.err.println("-condition <condition>:  what waitFor waits for.  allPEsRunning, allPEsHealthy:  every PE of the job has status running / health healthy.  jobHealthy:  the job has health healthy.  jobGone:  the job is no longer in the instance (after a cancel).  metricAbove:  the metric named by -path is over -threshold.");
+		System.err.println("-threshold <value>:  number the metric of a metricAbove condition must be over.");
+		System.err.println("-timeout <seconds>:  longest time waitFor waits.  Default is 300.  The condition is checked again on every notification from the job or instance, and otherwise polled at intervals growing from 0.25 to 5 seconds.");
+		System.err.println("-since <sequence>:  sequence number of the last getMetricsDelta response received.  Only metrics that changed since then are returned; if it is missing or does not match, all metrics are returned with \"full\":true.");
+		System.err.println("<metric filters>:  any of -peFilter, -operatorFilter, -portFilter, -metricFilter <pattern> and -peExclude, -operatorExclude, -portExclude, -metricExclude <pattern>.  Only the PEs (by id), operators (by name), operator ports (by index) and metrics (by name) that match the filter and do not match the exclude pattern are kept in the job metrics.  Patterns are regular expressions that may match any part of the value.");
 
 	}	
 	